@@ -0,0 +1,80 @@
+package com.amitshekhar.tflite;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small bounded set of mutable ARGB_8888 bitmaps kept around for reuse, either as
+ * model-sized render targets or as {@code inBitmap} for decoding. Bitmaps handed back when the
+ * pool is full are recycled.
+ */
+public class BitmapPool {
+
+    private final List<Bitmap> mFree;
+    private final int mMaxSize;
+
+    public BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+        mFree = new ArrayList<>(maxSize);
+    }
+
+    /**
+     * Returns a pooled bitmap of exactly this size, or allocates one.
+     */
+    public synchronized Bitmap get(int width, int height) {
+        for (int i = mFree.size() - 1; i >= 0; i--) {
+            final Bitmap bitmap = mFree.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                mFree.remove(i);
+                bitmap.eraseColor(0);
+                return bitmap;
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Returns a pooled bitmap that {@link android.graphics.BitmapFactory} can decode a
+     * {@code width x height} image into, or null. Before KitKat decoders only reuse a bitmap of
+     * the exact same size.
+     */
+    public synchronized Bitmap getReusable(int width, int height) {
+        final int byteCount = width * height * 4;
+        for (int i = mFree.size() - 1; i >= 0; i--) {
+            final Bitmap bitmap = mFree.get(i);
+            final boolean fits;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                fits = bitmap.getAllocationByteCount() >= byteCount;
+            } else {
+                fits = bitmap.getWidth() == width && bitmap.getHeight() == height;
+            }
+            if (fits) {
+                mFree.remove(i);
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || mFree.contains(bitmap)) {
+            return;
+        }
+        if (!bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888
+                || mFree.size() >= mMaxSize) {
+            bitmap.recycle();
+            return;
+        }
+        mFree.add(bitmap);
+    }
+
+    public synchronized void clear() {
+        for (Bitmap bitmap : mFree) {
+            bitmap.recycle();
+        }
+        mFree.clear();
+    }
+}
@@ -0,0 +1,89 @@
+package com.amitshekhar.tflite;
+
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Feeds preview frames of the back camera into a {@link FrameSink}. The camera writes into a
+ * small ring of callback buffers; each frame is copied into a free pipeline frame (or dropped
+ * when the pipeline has none, which the sink counts) and the callback buffer is handed straight back to the camera.
+ */
+@SuppressWarnings("deprecation")
+public class CameraFrameSource implements Camera.PreviewCallback {
+
+    private static final int CALLBACK_BUFFERS = 3;
+
+    private Camera mCamera;
+    private FrameSink mSink;
+    private int mWidth;
+    private int mHeight;
+    private int mSensorOrientation;
+
+    /** Opens the back camera and picks the preview size closest to {@code targetSize} square. */
+    public void open(int targetSize) {
+        mCamera = Camera.open();
+        final Camera.CameraInfo info = new Camera.CameraInfo();
+        Camera.getCameraInfo(0, info);
+        mSensorOrientation = info.orientation;
+
+        final Camera.Parameters parameters = mCamera.getParameters();
+        final List<Camera.Size> sizes = parameters.getSupportedPreviewSizes();
+        Camera.Size best = sizes.get(0);
+        for (Camera.Size size : sizes) {
+            if (Math.abs(Math.min(size.width, size.height) - targetSize)
+                    < Math.abs(Math.min(best.width, best.height) - targetSize)) {
+                best = size;
+            }
+        }
+        parameters.setPreviewSize(best.width, best.height);
+        parameters.setPreviewFormat(ImageFormat.NV21);
+        mCamera.setParameters(parameters);
+        mWidth = best.width;
+        mHeight = best.height;
+    }
+
+    public int getFrameBytes() {
+        return mWidth * mHeight * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+    }
+
+    public int getSensorOrientation() {
+        return mSensorOrientation;
+    }
+
+    public void start(SurfaceTexture texture, int displayOrientation, FrameSink sink) throws IOException {
+        mSink = sink;
+        for (int i = 0; i < CALLBACK_BUFFERS; i++) {
+            mCamera.addCallbackBuffer(new byte[getFrameBytes()]);
+        }
+        mCamera.setPreviewCallbackWithBuffer(this);
+        mCamera.setDisplayOrientation(displayOrientation);
+        mCamera.setPreviewTexture(texture);
+        mCamera.startPreview();
+    }
+
+    public void stop() {
+        if (mCamera != null) {
+            mCamera.stopPreview();
+            mCamera.setPreviewCallbackWithBuffer(null);
+            mCamera.release();
+            mCamera = null;
+        }
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        final Frame frame = mSink.acquireFrame();
+        if (frame != null) {
+            System.arraycopy(data, 0, frame.data, 0, getFrameBytes());
+            frame.width = mWidth;
+            frame.height = mHeight;
+            frame.timestampNanos = System.nanoTime();
+            mSink.submitFrame(frame);
+        }
+        camera.addCallbackBuffer(data);
+    }
+}
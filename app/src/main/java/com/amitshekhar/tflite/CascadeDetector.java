@@ -0,0 +1,159 @@
+package com.amitshekhar.tflite;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.io.IOException;
+
+/**
+ * Two-stage detection of image files: a cheap screening model, such as YOLOv3-tiny, looks at
+ * every image, and a full model, such as YOLOv3 on darknet53, only at those its
+ * {@link CascadePolicy} escalates. An escalated image goes through the full model whole, at
+ * the full model's input size, or, for a {@link CascadePolicy#REGION}, as the uncertain rect
+ * decoded from the file at full resolution, whose detections then replace the uncertain cheap
+ * ones. Regions merge detections of both models, so they need both to share their labels;
+ * a policy that allows regions is rejected for models that do not.
+ *
+ * Several threads may detect at once; each call holds at most one classifier of either pool.
+ */
+public class CascadeDetector {
+
+    private final ClassifierPool mCheap;
+    private final ClassifierPool mFull;
+    private final CascadePolicy mPolicy;
+    private final ImageIngestor mFullIngestor;
+    private final BitmapPool mRegionInputs;
+
+    /**
+     * @throws IllegalArgumentException if {@code policy} allows regions but the models do not
+     *                                  share their labels.
+     */
+    public CascadeDetector(ClassifierPool cheap, ClassifierPool full, CascadePolicy policy) {
+        if (policy.getMaxRegionArea() > 0 && !cheap.getLabels().equals(full.getLabels())) {
+            throw new IllegalArgumentException("regions need models with the same labels");
+        }
+        mCheap = cheap;
+        mFull = full;
+        mPolicy = policy;
+        mFullIngestor = new ImageIngestor(full.getInputSize(), full.size());
+        mFullIngestor.setLetterbox(true);
+        mRegionInputs = new BitmapPool(full.size());
+    }
+
+    public CascadePolicy getPolicy() {
+        return mPolicy;
+    }
+
+    /** Both models, their settings and the policy, to key cached results of the cascade. */
+    public String getCacheKey() {
+        return mCheap.getCacheKey() + " then " + mFull.getCacheKey() + " " + mPolicy;
+    }
+
+    /**
+     * Detects on the image file at {@code path} into {@code dst}.
+     *
+     * @param cheapInput the image rendered for the cheap model through {@code transform}, as
+     *                   {@link ImageIngestor#load} does; it is only read.
+     * @return the path the image took, one of {@link CascadePolicy#ACCEPT},
+     * {@link CascadePolicy#REGION} and {@link CascadePolicy#FULL}.
+     */
+    public int detect(String path, Bitmap cheapInput, InputTransform transform, DetectionBatch dst)
+            throws IOException, InterruptedException {
+        final long start = System.nanoTime();
+        final DetectionBatch cheap = new DetectionBatch();
+        mCheap.detect(cheapInput, transform, cheap);
+
+        final int width = transform.getSourceWidth();
+        final int height = transform.getSourceHeight();
+        final float busyness = mPolicy.needsBusyness(cheap) ? busyness(cheapInput, transform) : 0.0f;
+        final float[] region = new float[4];
+        final int decision = mPolicy.decide(cheap, width, height, busyness, region);
+
+        if (decision == CascadePolicy.ACCEPT) {
+            dst.clear();
+            mPolicy.addConfident(cheap, dst);
+            dst.setLabels(cheap.getLabels());
+        } else if (decision == CascadePolicy.REGION) {
+            detectRegion(path, width, height, region, cheap, dst);
+        } else {
+            final InputTransform fullTransform = new InputTransform();
+            final Bitmap input = mFullIngestor.load(path, fullTransform);
+            if (input == null) {
+                throw new IOException("cannot decode " + path);
+            }
+            try {
+                mFull.detect(input, fullTransform, dst);
+            } finally {
+                mFullIngestor.release(input);
+            }
+        }
+        mPolicy.record(decision, System.nanoTime() - start);
+        return decision;
+    }
+
+    // runs the full model on the region of the file, merged with the confident cheap detections
+    private void detectRegion(String path, int width, int height, float[] region,
+                              DetectionBatch cheap, DetectionBatch dst) throws IOException, InterruptedException {
+        final int size = mFull.getInputSize();
+        final Rect rect = new Rect((int) Math.floor(region[0] * width), (int) Math.floor(region[1] * height),
+                (int) Math.ceil(region[2] * width), (int) Math.ceil(region[3] * height));
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        // subsample as far as the rect still covers the input, like ImageIngestor
+        options.inSampleSize = 1;
+        while (Math.max(rect.width(), rect.height()) / (2 * options.inSampleSize) >= size) {
+            options.inSampleSize *= 2;
+        }
+
+        final BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(path, false);
+        final Bitmap crop;
+        try {
+            crop = decoder.decodeRegion(rect, options);
+        } finally {
+            decoder.recycle();
+        }
+        if (crop == null) {
+            throw new IOException("cannot decode " + rect + " of " + path);
+        }
+        final Bitmap input = mRegionInputs.get(size, size);
+        ImageIngestor.render(crop, input);
+        crop.recycle();
+        final InputTransform transform = new InputTransform().setRegion(rect.left, rect.top,
+                rect.right, rect.bottom, width, height, size);
+
+        final CandidateBuffer merged = new CandidateBuffer();
+        mPolicy.addConfident(cheap, merged);
+        final Classifier classifier = mFull.acquire();
+        try {
+            merged.addAll(classifier.detect(input, transform));
+            // the region overlaps confident cheap boxes at its margins
+            final CandidateBuffer suppressed = new CandidateBuffer();
+            classifier.createSuppressionStrategy().suppress(merged, suppressed);
+            dst.set(suppressed, classifier.getLabels());
+        } finally {
+            mFull.release(classifier);
+            mRegionInputs.put(input);
+        }
+    }
+
+    // only the image itself counts; flat letterbox padding would make any scene look calm
+    private static float busyness(Bitmap bitmap, InputTransform transform) {
+        final int left = Math.max(0, (int) Math.ceil(transform.getOffsetX()));
+        final int top = Math.max(0, (int) Math.ceil(transform.getOffsetY()));
+        final int width = Math.min(bitmap.getWidth(), (int) Math.floor(transform.getContentRight())) - left;
+        final int height = Math.min(bitmap.getHeight(), (int) Math.floor(transform.getContentBottom())) - top;
+        if (width <= 0 || height <= 0) {
+            return 0.0f;
+        }
+        final int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, left, top, width, height);
+        return CascadePolicy.busyness(pixels, width, height);
+    }
+
+    public void clear() {
+        mFullIngestor.clear();
+        mRegionInputs.clear();
+    }
+}
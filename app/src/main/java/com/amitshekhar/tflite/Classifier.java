@@ -4,24 +4,21 @@ import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
+import android.os.Build;
 import android.util.Log;
 
-import org.tensorflow.lite.Interpreter;
-
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 
 /**
  * Created by amitshekhar on 17/03/18.
@@ -30,14 +27,17 @@ import java.util.PriorityQueue;
 public abstract class Classifier {
 
     /**
-     * An immutable result returned by a Classifier describing what was recognized.
+     * An immutable result returned by a Classifier describing what was recognized. It does not
+     * refer back to the classifier; for many boxes read a {@link DetectionBatch} instead, or
+     * view one through {@link RecognitionList} so these are only created for the boxes asked for.
      */
-    public class Recognition {
+    public static class Recognition {
         /**
          * A unique identifier for what has been recognized. Specific to the class, not the instance of
-         * the object.
+         * the object. Built from {@link #offset} on first use when not given.
          */
-        private final String id;
+        private String id;
+        private final int offset;
 
         /**
          * Display name for the recognition.
@@ -47,7 +47,7 @@ public abstract class Classifier {
         /**
          * A sortable score for how good the recognition is relative to others. Higher should be better.
          */
-        private final Float confidence;
+        private final float confidence;
 
         /**
          * Optional location within the source image for the location of the recognized object.
@@ -57,15 +57,28 @@ public abstract class Classifier {
         public int detectedClass;
 
         public Recognition(
-                final String id, final String title, final Float confidence, final RectF location, int detectedClass) {
+                final String id, final String title, final float confidence, final RectF location, int detectedClass) {
             this.id = id;
+            this.offset = -1;
             this.title = title;
             this.confidence = confidence;
             this.location = location;
             this.detectedClass = detectedClass;
         }
 
+        /** Recognition {@code i} of {@code batch}. */
+        public Recognition(DetectionBatch batch, int i) {
+            this.offset = batch.getOffset(i);
+            this.title = batch.getLabel(i);
+            this.confidence = batch.getScore(i);
+            this.location = new RectF(batch.getLeft(i), batch.getTop(i), batch.getRight(i), batch.getBottom(i));
+            this.detectedClass = batch.getDetectedClass(i);
+        }
+
         public String getId() {
+            if (id == null && offset >= 0) {
+                id = String.valueOf(offset);
+            }
             return id;
         }
 
@@ -73,7 +86,7 @@ public abstract class Classifier {
             return title;
         }
 
-        public Float getConfidence() {
+        public float getConfidence() {
             return confidence;
         }
 
@@ -81,6 +94,11 @@ public abstract class Classifier {
             return new RectF(location);
         }
 
+        /** Copies the location into {@code dst} instead of allocating a new rect. */
+        public void getLocation(RectF dst) {
+            dst.set(location);
+        }
+
         public void setLocation(RectF location) {
             this.location = location;
         }
@@ -88,17 +106,15 @@ public abstract class Classifier {
         @Override
         public String toString() {
             String resultString = "";
-            if (id != null) {
-                resultString += "[" + id + "] ";
+            if (getId() != null) {
+                resultString += "[" + getId() + "] ";
             }
 
             if (title != null) {
                 resultString += title + " ";
             }
 
-            if (confidence != null) {
-                resultString += String.format("(%.1f%%) ", confidence * 100.0f);
-            }
+            resultString += String.format("(%.1f%%) ", confidence * 100.0f);
 
             if (location != null) {
                 resultString += location + " ";
@@ -112,142 +128,152 @@ public abstract class Classifier {
     protected List<String> mLabelList;
 
     protected static final int NUM_BOXES_PER_BLOCK = 3;
+    protected static final int MAX_DETECTIONS = 100;
 
     protected static final int BATCH_SIZE = 1;
     protected static final int PIXEL_SIZE = 3;
 
-    protected Interpreter mInterpreter;
+    protected InferenceBackend mBackend;
     protected int mInputSize;
+    // input of the photo and batch paths, allocated on first use; the live path packs its own
+    private InputPreprocessor mPreprocessor;
 
     protected int[][] mMasks;
     protected int[] mAnchors;
     protected int[] mOutWidth;
+    protected int mNumBoxesPerBlock = NUM_BOXES_PER_BLOCK;
+
+    // quantization of the input and of every output head read from the model, null when float
+    private Quantization mInputQuantization;
+    private Quantization[] mOutputQuantization;
+
+    /**
+     * When true the output tensors are decoded from flat buffers that are allocated once and
+     * reused by every call to {@link #RecognizeImage(Bitmap)}. Turn it off only when a caller
+     * needs each call to get its own, fresh output buffers.
+     */
+    protected boolean mReuseOutputBuffers = true;
+
+    /** Largest batch {@link #RecognizeImages(List)} runs through the interpreter at once. */
+    private int mMaxBatchSize = BATCH_SIZE;
+    // batch size the interpreter input is currently resized to
+    private int mBatchSize = BATCH_SIZE;
+
+    private OutputTensors mOutputs;
+    private ByteBuffer[] mOutputArray;
+    private ByteBuffer[] mStreamOutputs;
+
+    private YoloDetector mDetector;
+    // read by pipeline stages without taking the classifier's lock
+    private volatile Instrumentation mInstrumentation;
+    // minimum anchors per decode task, 0 when decoding on the calling thread
+    private int mParallelDecode;
+    // per-call debug logging, off unless "adb shell setprop log.tag.wangmin DEBUG" before start
+    private final boolean mDebugLog = Log.isLoggable("wangmin", Log.DEBUG);
+
+    // input pixels per grid cell of every head, fixed by the network
+    private int[] mStrides;
+    // buffers of input sizes this classifier has run at before, so switching back is free
+    private final Map<Integer, SizeBuffers> mSizeBuffers = new HashMap<>();
+
+    private static class SizeBuffers {
+        InputPreprocessor preprocessor;
+        OutputTensors outputs;
+        ByteBuffer[] outputArray;
+        YoloDetector detector;
+    }
 
     public Classifier (AssetManager assetManager,
                                             String modelPath,
                                             String labelPath,
                                             int inputSize) throws IOException {
-        mInterpreter = new Interpreter(loadModelFile(assetManager, modelPath));
-        mLabelList = loadLabelList(assetManager, labelPath);
+        this(loadModelFile(assetManager, modelPath), loadLabelList(assetManager, labelPath), inputSize, -1);
+    }
+
+    /**
+     * Creates a classifier with its own interpreter over an already loaded model, so several
+     * classifiers can share one {@code MappedByteBuffer}.
+     *
+     * @param inputSize  Side of the square input, or 0 to read it from the input tensor.
+     * @param numThreads Intra-op threads for the interpreter, or -1 for the runtime default.
+     */
+    public Classifier(ByteBuffer model, List<String> labels, int inputSize, int numThreads) {
+        this(new TfliteBackend(model, numThreads), labels, inputSize);
+    }
+
+    /**
+     * Creates a classifier over any {@link InferenceBackend}, e.g. a {@link ReplayBackend} to
+     * run everything but the model from a recording.
+     *
+     * @param inputSize Side of the square input, or 0 to read it from the input tensor.
+     */
+    public Classifier(InferenceBackend backend, List<String> labels, int inputSize) {
+        mBackend = backend;
+        mLabelList = labels;
 
         StringBuilder builder = new StringBuilder();
         for (String label: mLabelList) {
             builder.append(label).append(" ");
         }
-        Log.d("wangmin", "Labels are:\n" + builder.toString());
-
-        mInputSize = inputSize;
-    }
+        if (mDebugLog) {
+            Log.d("wangmin", "Labels are:\n" + builder.toString());
+        }
 
-    //non maximum suppression
-    protected ArrayList<Recognition> nms(ArrayList<Recognition> list) {
-        ArrayList<Recognition> nmsList = new ArrayList<Recognition>();
-
-        for (int k = 0; k < mLabelList.size(); k++) {
-            //1.find max confidence per class
-            PriorityQueue<Recognition> pq =
-                    new PriorityQueue<Recognition>(
-                            10,
-                            new Comparator<Recognition>() {
-                                @Override
-                                public int compare(final Recognition lhs, final Recognition rhs) {
-                                    // Intentionally reversed to put high confidence at the head of the queue.
-                                    return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                                }
-                            });
-
-            for (int i = 0; i < list.size(); ++i) {
-                if (list.get(i).detectedClass == k) {
-                    pq.add(list.get(i));
-                }
-            }
-            Log.d("wangmin", "class[" + k + "] pq size: " + pq.size());
-
-            //2.do non maximum suppression
-            while(pq.size() > 0) {
-                //insert detection with max confidence
-                Recognition[] a = new Recognition[pq.size()];
-                Recognition[] detections = pq.toArray(a);
-                Recognition max = detections[0];
-                nmsList.add(max);
-
-                Log.d("wangmin", "before nms pq size: " + pq.size());
-
-                //clear pq to do next nms
-                pq.clear();
-
-                for (int j = 1; j < detections.length; j++) {
-                    Recognition detection = detections[j];
-                    RectF b = detection.getLocation();
-                    if (box_iou(max.getLocation(), b) < mNmsThresh){
-                        pq.add(detection);
-                    }
-                }
-                Log.d("wangmin", "after nms pq size: " + pq.size());
-            }
+        mInputSize = inputSize > 0 ? inputSize : mBackend.getInputShape(0)[1];
+        mInputQuantization = mBackend.getInputQuantization(0);
+        mOutputQuantization = new Quantization[mBackend.getOutputCount()];
+        boolean quantizedOutputs = false;
+        for (int i = 0; i < mOutputQuantization.length; i++) {
+            mOutputQuantization[i] = mBackend.getOutputQuantization(i);
+            quantizedOutputs |= mOutputQuantization[i] != null;
+        }
+        if (mDebugLog && (mInputQuantization != null || quantizedOutputs)) {
+            Log.d("wangmin", "quantized model, input " + mInputQuantization
+                    + ", outputs " + Arrays.toString(mOutputQuantization));
         }
-        return nmsList;
     }
 
-    protected float box_iou(RectF a, RectF b)
-    {
-        return box_intersection(a, b)/box_union(a, b);
+    /** True when the model takes 8 bit input, packed straight from the pixel bytes. */
+    public boolean isQuantized() {
+        return mInputQuantization != null;
     }
 
-    protected float box_intersection(RectF a, RectF b)
-    {
-        float w = overlap((a.left + a.right) / 2, a.right - a.left,
-                (b.left + b.right) / 2, b.right - b.left);
-        float h = overlap((a.top + a.bottom) / 2, a.bottom - a.top,
-                (b.top + b.bottom) / 2, b.bottom - b.top);
-        if(w < 0 || h < 0) return 0;
-        float area = w*h;
-        return area;
+    /** An input buffer for this model's input type, for one in-flight frame at {@code inputSize}. */
+    public InputPreprocessor newInputPreprocessor(int inputSize) {
+        return newInputPreprocessor(inputSize, 1);
     }
 
-    protected float box_union(RectF a, RectF b)
-    {
-        float i = box_intersection(a, b);
-        float u = (a.right - a.left)*(a.bottom - a.top) + (b.right - b.left)*(b.bottom - b.top) - i;
-        return u;
+    private InputPreprocessor newInputPreprocessor(int inputSize, int maxBatch) {
+        return new InputPreprocessor(inputSize, PIXEL_SIZE, maxBatch, mInputQuantization);
     }
 
-    protected float overlap(float x1, float w1, float x2, float w2)
-    {
-        float l1 = x1 - w1/2;
-        float l2 = x2 - w2/2;
-        float left = l1 > l2 ? l1 : l2;
-        float r1 = x1 + w1/2;
-        float r2 = x2 + w2/2;
-        float right = r1 < r2 ? r1 : r2;
-        return right - left;
+    private InputPreprocessor getPreprocessor() {
+        if (mPreprocessor == null) {
+            mPreprocessor = newInputPreprocessor(mInputSize, mMaxBatchSize);
+        }
+        return mPreprocessor;
     }
 
-    protected void close() {
-        mInterpreter.close();
-        mInterpreter = null;
+    /**
+     * Wraps a copy of {@code detections}, which the next call overwrites, in a lazy
+     * {@link RecognitionList}, so only the recognitions a caller reads are created.
+     */
+    protected List<Recognition> toRecognitions(CandidateBuffer detections) {
+        final DetectionBatch batch = new DetectionBatch(detections.size());
+        batch.set(detections, mLabelList);
+        return new RecognitionList(batch);
     }
 
-    protected void softmax(final float[] vals) {
-        float max = Float.NEGATIVE_INFINITY;
-        for (final float val : vals) {
-            max = Math.max(max, val);
-        }
-        float sum = 0.0f;
-        for (int i = 0; i < vals.length; ++i) {
-            vals[i] = (float) Math.exp(vals[i] - max);
-            sum += vals[i];
-        }
-        for (int i = 0; i < vals.length; ++i) {
-            vals[i] = vals[i] / sum;
-        }
+    public List<String> getLabels() {
+        return mLabelList;
     }
 
-    protected float expit(final float x) {
-        return (float) (1. / (1. + Math.exp(-x)));
+    protected synchronized void close() {
+        mBackend.close();
+        mBackend = null;
     }
 
-    protected MappedByteBuffer loadModelFile(AssetManager assetManager, String modelPath) throws IOException {
+    protected static MappedByteBuffer loadModelFile(AssetManager assetManager, String modelPath) throws IOException {
         AssetFileDescriptor fileDescriptor = assetManager.openFd(modelPath);
         FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
         FileChannel fileChannel = inputStream.getChannel();
@@ -256,105 +282,345 @@ public abstract class Classifier {
         return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
     }
 
-    /** Writes Image data into a {@code ByteBuffer}. */
+    /** Writes Image data into the reusable input {@code ByteBuffer} of this interpreter. */
     protected ByteBuffer convertBitmapToByteBuffer(Bitmap bitmap) {
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * BATCH_SIZE * mInputSize * mInputSize * PIXEL_SIZE);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        int[] intValues = new int[mInputSize * mInputSize];
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        int pixel = 0;
-        for (int i = 0; i < mInputSize; ++i) {
-            for (int j = 0; j < mInputSize; ++j) {
-                final int val = intValues[pixel++];
-                byteBuffer.putFloat(((val >> 16) & 0xFF) / 255.0f);
-                byteBuffer.putFloat(((val >> 8) & 0xFF) / 255.0f);
-                byteBuffer.putFloat((val & 0xFF) / 255.0f);
+        final InputPreprocessor preprocessor = getPreprocessor();
+        bitmap.getPixels(preprocessor.getPixels(), 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        return preprocessor.pack();
+    }
+
+    /**
+     * Makes sure there is one direct, native-ordered output buffer per head, sized from
+     * {@code mOutWidth}, the label count and {@code mMaxBatchSize}, points the output map at
+     * the first {@code batch} images and rewinds them for the next interpreter run.
+     */
+    protected void prepareOutputBuffers(int batch) {
+        if (mOutputs == null || !mReuseOutputBuffers) {
+            mOutputs = new OutputTensors(mOutWidth, mNumBoxesPerBlock, mLabelList.size(), mMaxBatchSize,
+                    mOutputQuantization);
+            mOutputArray = new ByteBuffer[mOutputs.size()];
+        }
+        for (int i = 0; i < mOutputs.size(); i++) {
+            mOutputArray[i] = mOutputs.getBuffer(i, batch);
+        }
+        mOutputs.rewind();
+    }
+
+    /**
+     * Sets the largest batch {@link #RecognizeImages(List)} may run at once and reallocates the
+     * input and output buffers to hold it.
+     */
+    public synchronized void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize != mMaxBatchSize) {
+            mMaxBatchSize = maxBatchSize;
+            mPreprocessor = null;
+            mOutputs = null;
+            mSizeBuffers.clear();
+        }
+    }
+
+    /**
+     * Resizes the interpreter input to {@code inputSize x inputSize}, which must be a multiple
+     * of every head's stride, and derives the output grid widths from it. The buffers and
+     * detector of the previous size are kept, so switching back and forth between a few sizes
+     * allocates only once per size.
+     */
+    public synchronized void setInputSize(int inputSize) {
+        if (inputSize == mInputSize) {
+            return;
+        }
+        final int[] outWidth = outWidthFor(inputSize);
+
+        final SizeBuffers previous = new SizeBuffers();
+        previous.preprocessor = mPreprocessor;
+        previous.outputs = mOutputs;
+        previous.outputArray = mOutputArray;
+        previous.detector = mDetector;
+        mSizeBuffers.put(mInputSize, previous);
+
+        mBackend.resizeInput(0, new int[]{mBatchSize, inputSize, inputSize, PIXEL_SIZE});
+        mInputSize = inputSize;
+        mOutWidth = outWidth;
+
+        final SizeBuffers cached = mSizeBuffers.remove(inputSize);
+        if (cached != null) {
+            mPreprocessor = cached.preprocessor;
+            mOutputs = cached.outputs;
+            mOutputArray = cached.outputArray;
+            mDetector = cached.detector;
+        } else {
+            mPreprocessor = null;
+            mOutputs = null;
+            mDetector = null;
+        }
+    }
+
+    /** Output grid widths the network produces for a square input of {@code inputSize}. */
+    public synchronized int[] outWidthFor(int inputSize) {
+        if (mStrides == null) {
+            mStrides = new int[mOutWidth.length];
+            for (int i = 0; i < mOutWidth.length; i++) {
+                mStrides[i] = mInputSize / mOutWidth[i];
+            }
+        }
+        final int[] outWidth = new int[mStrides.length];
+        for (int i = 0; i < mStrides.length; i++) {
+            if (inputSize <= 0 || inputSize % mStrides[i] != 0) {
+                throw new IllegalArgumentException("input size " + inputSize
+                        + " is not a multiple of stride " + mStrides[i]);
+            }
+            outWidth[i] = inputSize / mStrides[i];
+        }
+        return outWidth;
+    }
+
+    public int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    private void resizeBatch(int batch) {
+        if (batch != mBatchSize) {
+            mBackend.resizeInput(0, new int[]{batch, mInputSize, mInputSize, PIXEL_SIZE});
+            mBatchSize = batch;
+        }
+    }
+
+    /**
+     * Times preprocessing, inference, decode and suppression of every call into
+     * {@code instrumentation}, or nothing when null.
+     */
+    public synchronized void setInstrumentation(Instrumentation instrumentation) {
+        mInstrumentation = instrumentation;
+        if (mDetector != null) {
+            mDetector.setInstrumentation(instrumentation);
+        }
+        for (SizeBuffers buffers : mSizeBuffers.values()) {
+            if (buffers.detector != null) {
+                buffers.detector.setInstrumentation(instrumentation);
             }
         }
-        return byteBuffer;
     }
 
-    public ArrayList<Recognition> RecognizeImage(Bitmap bitmap) {
+    /**
+     * Decodes the output heads of large inputs on all cores, see {@link ParallelDecoder}. Only
+     * takes effect from Lollipop, where {@code ForkJoinPool} became available.
+     */
+    public synchronized void setParallelDecode(boolean parallel) {
+        mParallelDecode = parallel && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                ? ParallelDecoder.DEFAULT_MIN_ANCHORS_PER_TASK : 0;
+        if (mDetector != null) {
+            mDetector.setParallelDecode(mParallelDecode);
+        }
+        for (SizeBuffers buffers : mSizeBuffers.values()) {
+            if (buffers.detector != null) {
+                buffers.detector.setParallelDecode(mParallelDecode);
+            }
+        }
+    }
+
+    public Instrumentation getInstrumentation() {
+        return mInstrumentation;
+    }
+
+    private long startStage() {
+        final Instrumentation instrumentation = mInstrumentation;
+        return instrumentation != null ? instrumentation.start() : 0;
+    }
+
+    private void stopStage(Instrumentation.Stage stage, long start) {
+        final Instrumentation instrumentation = mInstrumentation;
+        if (instrumentation != null) {
+            instrumentation.stop(stage, start);
+        }
+    }
+
+    /** The Android-free detector over this classifier's anchors, masks and suppression. */
+    protected YoloDetector getDetector() {
+        if (mDetector == null) {
+            mDetector = newDetector();
+        }
+        mDetector.setObjThresh(getObjThresh());
+        return mDetector;
+    }
+
+    /**
+     * Creates a detector with the same decode and suppression settings as this classifier but
+     * its own scratch buffers, for decoding on another thread.
+     */
+    public YoloDetector newDetector() {
+        return newDetector(mInputSize);
+    }
+
+    /** Like {@link #newDetector()}, for inputs resized to {@code inputSize}. */
+    public YoloDetector newDetector(int inputSize) {
+        final YoloDetector detector = new YoloDetector(mLabelList.size(), mNumBoxesPerBlock, inputSize,
+                mAnchors, mMasks, outWidthFor(inputSize), createSuppressionStrategy());
+        detector.setObjThresh(getObjThresh());
+        detector.setInstrumentation(mInstrumentation);
+        if (mParallelDecode > 0) {
+            detector.setParallelDecode(mParallelDecode);
+        }
+        return detector;
+    }
+
+    /**
+     * How decoded candidates are suppressed. Subclasses may return their own strategy; by
+     * default it is per-class hard NMS at {@code mNmsThresh}. Strategies keep scratch state, so
+     * every detector gets a new instance.
+     */
+    protected SuppressionStrategy createSuppressionStrategy() {
+        return new HardNms(mNmsThresh, MAX_DETECTIONS);
+    }
+
+    /** Output tensors for one in-flight frame of a streaming pipeline. */
+    public OutputTensors newOutputTensors() {
+        return newOutputTensors(mInputSize);
+    }
+
+    /** Output tensors for one in-flight frame resized to {@code inputSize}. */
+    public OutputTensors newOutputTensors(int inputSize) {
+        return new OutputTensors(outWidthFor(inputSize), mNumBoxesPerBlock, mLabelList.size(), 1,
+                mOutputQuantization);
+    }
+
+    /**
+     * Runs the interpreter on an already packed single-image {@code input} into {@code outputs},
+     * for pipelines that preprocess and decode on their own threads.
+     */
+    public synchronized void runInference(ByteBuffer input, OutputTensors outputs) {
+        resizeBatch(1);
+        outputs.rewind();
+        if (mStreamOutputs == null || mStreamOutputs.length != outputs.size()) {
+            mStreamOutputs = new ByteBuffer[outputs.size()];
+        }
+        for (int i = 0; i < outputs.size(); i++) {
+            mStreamOutputs[i] = outputs.getBuffer(i);
+        }
+        final long start = startStage();
+        mBackend.run(input, mStreamOutputs);
+        stopStage(Instrumentation.Stage.INVOKE, start);
+    }
+
+    /**
+     * Runs detection on {@code bitmap}. Calls are serialized because the interpreter and its
+     * buffers are reused; use a {@link ClassifierPool} to run several images concurrently.
+     */
+    public synchronized List<Recognition> RecognizeImage(Bitmap bitmap) {
+        return RecognizeImage(bitmap, InputTransform.identity(bitmap.getWidth(), bitmap.getHeight()));
+    }
+
+    /**
+     * Runs detection on a model-sized {@code bitmap} that was rendered from a larger source
+     * image through {@code transform}, e.g. letterboxed. Locations of the returned recognitions
+     * are in source image coordinates.
+     */
+    public synchronized List<Recognition> RecognizeImage(Bitmap bitmap, InputTransform transform) {
+        return toRecognitions(detect(bitmap, transform));
+    }
+
+    /**
+     * Like {@link #RecognizeImage(Bitmap, InputTransform)}, but returns the raw detections. The
+     * buffer is owned by this classifier and only valid until its next call, so callers on
+     * other threads copy out of it while still holding the classifier.
+     */
+    public synchronized CandidateBuffer detect(Bitmap bitmap, InputTransform transform) {
+        resizeBatch(1);
+        long start = startStage();
         ByteBuffer byteBuffer = convertBitmapToByteBuffer(bitmap);
+        stopStage(Instrumentation.Stage.PREPROCESS, start);
 
-        Map<Integer, Object> outputMap = new HashMap<>();
-        for (int i = 0; i < mOutWidth.length; i++) {
-            float[][][][][] out = new float[1][mOutWidth[i]][mOutWidth[i]][3][5 + mLabelList.size()];
-            outputMap.put(i, out);
-        }
-
-        Log.d("wangmin", "mObjThresh: " + getObjThresh());
-
-        Object[] inputArray = {byteBuffer};
-        mInterpreter.runForMultipleInputsOutputs(inputArray, outputMap);
-
-        ArrayList<Recognition> detections = new ArrayList<Recognition>();
-
-        for (int i = 0; i < mOutWidth.length; i++) {
-            int gridWidth = mOutWidth[i];
-            float[][][][][] out = (float[][][][][])outputMap.get(i);
-
-            Log.d("wangmin", "out[" + i + "] detect start");
-            for (int y = 0; y < gridWidth; ++y) {
-                for (int x = 0; x < gridWidth; ++x) {
-                    for (int b = 0; b < NUM_BOXES_PER_BLOCK; ++b) {
-                        final int offset =
-                                (gridWidth * (NUM_BOXES_PER_BLOCK * (mLabelList.size() + 5))) * y
-                                        + (NUM_BOXES_PER_BLOCK * (mLabelList.size() + 5)) * x
-                                        + (mLabelList.size() + 5) * b;
-
-                        final float confidence = expit(out[0][y][x][b][4]);
-                        int detectedClass = -1;
-                        float maxClass = 0;
-
-                        final float[] classes = new float[mLabelList.size()];
-                        for (int c = 0; c < mLabelList.size(); ++c) {
-                            classes[c] = out[0][y][x][b][5+c];
-                        }
-                        softmax(classes);
-
-                        for (int c = 0; c < mLabelList.size(); ++c) {
-                            if (classes[c] > maxClass) {
-                                detectedClass = c;
-                                maxClass = classes[c];
-                            }
-                        }
-
-                        final float confidenceInClass = maxClass * confidence;
-
-                        if (confidenceInClass > getObjThresh()) {
-                            final float xPos = (x + expit(out[0][y][x][b][0])) * (mInputSize / gridWidth);
-                            final float yPos = (y + expit(out[0][y][x][b][1])) * (mInputSize / gridWidth);
-
-                            final float w = (float) (Math.exp(out[0][y][x][b][2]) * mAnchors[2 * mMasks[i][b] + 0]);
-                            final float h = (float) (Math.exp(out[0][y][x][b][3]) * mAnchors[2 * mMasks[i][b] + 1]);
-
-                            Log.d("wangmin","box x:" + xPos + ", y:" + yPos + ", w:" + w + ", h:" + h);
-
-                            final RectF rect =
-                                    new RectF(
-                                            Math.max(0, xPos - w / 2),
-                                            Math.max(0, yPos - h / 2),
-                                            Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                                            Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-                            Log.d("wangmin", "detect " + mLabelList.get(detectedClass)
-                                    + ", confidence: " + confidenceInClass
-                                    + ", box: " + rect.toString());
-                            detections.add(new Recognition("" + offset, mLabelList.get(detectedClass),
-                                    confidenceInClass, rect, detectedClass));
-                        }
-                    }
-                }
+        prepareOutputBuffers(1);
+
+        if (mDebugLog) {
+            Log.d("wangmin", "mObjThresh: " + getObjThresh());
+        }
+
+        start = startStage();
+        mBackend.run(byteBuffer, mOutputArray);
+        stopStage(Instrumentation.Stage.INVOKE, start);
+
+        final YoloDetector detector = getDetector();
+        final CandidateBuffer detections = detector.detect(mOutputs, transform);
+        if (mDebugLog) {
+            Log.d("wangmin", "candidates before nms: " + detector.getCandidates().size()
+                    + ", after nms: " + detections.size());
+        }
+
+        return detections;
+    }
+
+    /**
+     * Like {@link #detect(Bitmap, InputTransform)}, but copies the detections into the
+     * caller's reusable {@code dst}, so the result can be read after the classifier moved on
+     * without allocating per box.
+     */
+    public synchronized void detect(Bitmap bitmap, InputTransform transform, DetectionBatch dst) {
+        dst.set(detect(bitmap, transform), mLabelList);
+    }
+
+    /**
+     * Runs detection on several images, up to {@code mMaxBatchSize} of them per interpreter
+     * invocation. The interpreter input is resized to {@code [B, size, size, 3]}, all images of
+     * a batch are packed in one pass, and every batch slot is decoded and suppressed on its own.
+     *
+     * @return One result list per bitmap, in the same order.
+     */
+    public synchronized List<List<Recognition>> RecognizeImages(List<Bitmap> bitmaps) {
+        final List<List<Recognition>> results = new ArrayList<>(bitmaps.size());
+        for (int start = 0; start < bitmaps.size(); start += mMaxBatchSize) {
+            final int batch = runBatch(bitmaps, start);
+            final YoloDetector detector = getDetector();
+            for (int j = 0; j < batch; j++) {
+                final Bitmap bitmap = bitmaps.get(start + j);
+                final CandidateBuffer detections =
+                        detector.detect(mOutputs.slot(j), bitmap.getWidth(), bitmap.getHeight());
+                results.add(toRecognitions(detections));
             }
-            Log.d("wangmin", "out[" + i + "] detect end");
         }
+        return results;
+    }
 
-        final ArrayList<Recognition> recognitions = nms(detections);
+    /**
+     * Like {@link #RecognizeImages(List)}, for model-sized bitmaps rendered from larger images
+     * through {@code transforms}, e.g. by an {@link ImageIngestor}. The detections of every
+     * bitmap are copied into the {@code dst} batch at its index, in source image coordinates.
+     */
+    public synchronized void detect(List<Bitmap> bitmaps, List<InputTransform> transforms,
+                                    List<DetectionBatch> dst) {
+        for (int start = 0; start < bitmaps.size(); start += mMaxBatchSize) {
+            final int batch = runBatch(bitmaps, start);
+            final YoloDetector detector = getDetector();
+            for (int j = 0; j < batch; j++) {
+                dst.get(start + j).set(detector.detect(mOutputs.slot(j), transforms.get(start + j)), mLabelList);
+            }
+        }
+    }
 
-        return recognitions;
+    // packs up to mMaxBatchSize bitmaps from start on into one invocation; returns how many
+    private int runBatch(List<Bitmap> bitmaps, int start) {
+        final int batch = Math.min(mMaxBatchSize, bitmaps.size() - start);
+        resizeBatch(batch);
+
+        long stageStart = startStage();
+        final InputPreprocessor preprocessor = getPreprocessor();
+        for (int j = 0; j < batch; j++) {
+            final Bitmap bitmap = bitmaps.get(start + j);
+            bitmap.getPixels(preprocessor.getPixels(), 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+            preprocessor.pack(j);
+        }
+        stopStage(Instrumentation.Stage.PREPROCESS, stageStart);
+        prepareOutputBuffers(batch);
+
+        stageStart = startStage();
+        mBackend.run(preprocessor.getInput(batch), mOutputArray);
+        stopStage(Instrumentation.Stage.INVOKE, stageStart);
+        if (mDebugLog) {
+            Log.d("wangmin", "batch of " + batch + " done");
+        }
+        return batch;
     }
 
-    protected List<String> loadLabelList(AssetManager assetManager, String labelPath) throws IOException {
+    protected static List<String> loadLabelList(AssetManager assetManager, String labelPath) throws IOException {
         List<String> labelList = new ArrayList<>();
         BufferedReader reader = new BufferedReader(new InputStreamReader(assetManager.open(labelPath)));
         String line;
@@ -369,5 +635,13 @@ public abstract class Classifier {
         return mInputSize;
     }
 
+    /**
+     * Identifies the model and every setting that changes its detections, to key cached
+     * results with {@link DetectionCache#key}.
+     */
+    public String getCacheKey() {
+        return getClass().getName() + " input=" + mInputSize + " obj=" + getObjThresh();
+    }
+
     protected abstract float getObjThresh();
 }
@@ -0,0 +1,171 @@
+package com.amitshekhar.tflite;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A fixed set of classifiers, each with its own interpreter and preallocated input and output
+ * buffers, all sharing one memory-mapped model. Callers check a classifier out of a bounded
+ * queue, so at most {@code size} images are in flight and further callers block; once
+ * {@code maxWaiting} callers are already blocked, new requests are rejected instead of piling up.
+ */
+public class ClassifierPool {
+
+    public interface Factory {
+        Classifier create(MappedByteBuffer model, List<String> labels, int numThreads);
+    }
+
+    private final BlockingQueue<Classifier> mIdle;
+    private final List<Classifier> mAll;
+    private final Semaphore mAdmission;
+    private final int mInputSize;
+
+    public ClassifierPool(AssetManager assetManager, String modelPath, String labelPath,
+                          int size, int numThreads, int maxWaiting, Factory factory) throws IOException {
+        final MappedByteBuffer model = Classifier.loadModelFile(assetManager, modelPath);
+        final List<String> labels = Classifier.loadLabelList(assetManager, labelPath);
+
+        mIdle = new ArrayBlockingQueue<>(size);
+        mAll = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final Classifier classifier = factory.create(model, labels, numThreads);
+            mAll.add(classifier);
+            mIdle.add(classifier);
+        }
+        mAdmission = new Semaphore(size + maxWaiting);
+        mInputSize = mAll.get(0).getInputSize();
+    }
+
+    /**
+     * A pool of {@link YoloClassifier}s for the model a descriptor asset describes.
+     */
+    public ClassifierPool(AssetManager assetManager, String descriptorPath,
+                          int size, int numThreads, int maxWaiting) throws IOException {
+        this(assetManager, YoloClassifier.loadDescriptor(assetManager, descriptorPath),
+                size, numThreads, maxWaiting);
+    }
+
+    private ClassifierPool(AssetManager assetManager, final ModelDescriptor descriptor,
+                           int size, int numThreads, int maxWaiting) throws IOException {
+        this(assetManager, descriptor.getModelFile(), descriptor.getLabelFile(), size, numThreads, maxWaiting,
+                new Factory() {
+                    @Override
+                    public Classifier create(MappedByteBuffer model, List<String> labels, int numThreads) {
+                        return new YoloClassifier(model, labels, descriptor, numThreads);
+                    }
+                });
+    }
+
+    public int getInputSize() {
+        return mInputSize;
+    }
+
+    public List<String> getLabels() {
+        return mAll.get(0).getLabels();
+    }
+
+    /** {@link Classifier#getCacheKey()} of the pooled classifiers, which all run the same model. */
+    public String getCacheKey() {
+        return mAll.get(0).getCacheKey();
+    }
+
+    public int size() {
+        return mAll.size();
+    }
+
+    /**
+     * Checks out an idle classifier, blocking while all of them are busy. Every successful
+     * call must be paired with {@link #release(Classifier)}.
+     *
+     * @throws RejectedExecutionException if too many callers are already waiting.
+     */
+    public Classifier acquire() throws InterruptedException {
+        if (!mAdmission.tryAcquire()) {
+            throw new RejectedExecutionException("Classifier pool saturated");
+        }
+        try {
+            return mIdle.take();
+        } catch (InterruptedException e) {
+            mAdmission.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks out an idle classifier without blocking, or returns null when all are busy.
+     * A classifier that was returned must be paired with {@link #release(Classifier)}.
+     */
+    public Classifier tryAcquire() {
+        if (!mAdmission.tryAcquire()) {
+            return null;
+        }
+        final Classifier classifier = mIdle.poll();
+        if (classifier == null) {
+            mAdmission.release();
+        }
+        return classifier;
+    }
+
+    public void release(Classifier classifier) {
+        mIdle.add(classifier);
+        mAdmission.release();
+    }
+
+    public List<Classifier.Recognition> recognizeImage(Bitmap bitmap) throws InterruptedException {
+        final Classifier classifier = acquire();
+        try {
+            return classifier.RecognizeImage(bitmap);
+        } finally {
+            release(classifier);
+        }
+    }
+
+    public List<Classifier.Recognition> recognizeImage(Bitmap bitmap, InputTransform transform)
+            throws InterruptedException {
+        final Classifier classifier = acquire();
+        try {
+            return classifier.RecognizeImage(bitmap, transform);
+        } finally {
+            release(classifier);
+        }
+    }
+
+    /** Detects on {@code bitmap} with the next free classifier, into the caller's {@code dst}. */
+    public void detect(Bitmap bitmap, InputTransform transform, DetectionBatch dst) throws InterruptedException {
+        final Classifier classifier = acquire();
+        try {
+            classifier.detect(bitmap, transform, dst);
+        } finally {
+            release(classifier);
+        }
+    }
+
+    /** Instruments every classifier of the pool into {@code instrumentation}, or none when null. */
+    public void setInstrumentation(Instrumentation instrumentation) {
+        for (Classifier classifier : mAll) {
+            classifier.setInstrumentation(instrumentation);
+        }
+    }
+
+    /** Decodes on all cores in every classifier of the pool, see {@link Classifier#setParallelDecode}. */
+    public void setParallelDecode(boolean parallel) {
+        for (Classifier classifier : mAll) {
+            classifier.setParallelDecode(parallel);
+        }
+    }
+
+    public void close() {
+        for (Classifier classifier : mAll) {
+            classifier.close();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.amitshekhar.tflite;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+/**
+ * Turns an image file into a model-sized input bitmap without ever holding the full resolution
+ * image in memory. The file bounds are read first and the decoder subsamples by the largest
+ * power of two that keeps both sides at or above the size they are drawn at, so a 12 MP photo is
+ * decoded at roughly 1000x750 instead of 4000x3000. Both the decoded image and the model-sized
+ * bitmap come from {@link BitmapPool}s, so steady-state ingestion allocates no pixel memory.
+ *
+ * In letterbox mode the image keeps its aspect ratio and is centered on a gray background;
+ * the {@link InputTransform} filled in by {@link #load} lets the detector report boxes in the
+ * coordinates of the original file.
+ */
+public class ImageIngestor {
+
+    private static final Paint FILTER_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+    // the 0.5 gray darknet pads letterboxed images with
+    private static final int PAD_COLOR = Color.rgb(128, 128, 128);
+
+    private final int mInputSize;
+    private final BitmapPool mDecodePool;
+    private final BitmapPool mInputPool;
+    private volatile boolean mLetterbox;
+    private volatile Instrumentation mInstrumentation;
+
+    /**
+     * @param inputSize   side of the square model input.
+     * @param concurrency number of images decoded at the same time. One extra input bitmap is
+     *                    kept so the image on screen can be released while the next is rendered.
+     */
+    public ImageIngestor(int inputSize, int concurrency) {
+        mInputSize = inputSize;
+        mDecodePool = new BitmapPool(concurrency);
+        mInputPool = new BitmapPool(concurrency + 1);
+    }
+
+    public int getInputSize() {
+        return mInputSize;
+    }
+
+    /**
+     * Keeps the aspect ratio and pads instead of stretching the image over the whole input.
+     */
+    public void setLetterbox(boolean letterbox) {
+        mLetterbox = letterbox;
+    }
+
+    public boolean isLetterbox() {
+        return mLetterbox;
+    }
+
+    /** Times every successful {@link #load} as the decode-bitmap stage, or nothing when null. */
+    public void setInstrumentation(Instrumentation instrumentation) {
+        mInstrumentation = instrumentation;
+    }
+
+    /**
+     * Decodes {@code path} and scales it into a pooled {@code inputSize x inputSize} bitmap.
+     * The caller owns the result until it is handed back through {@link #release(Bitmap)}.
+     *
+     * @param transform receives the mapping from the file's full-resolution coordinates into
+     *                  the returned bitmap.
+     * @return the input bitmap, or null if the file could not be decoded.
+     */
+    public Bitmap load(String path, InputTransform transform) {
+        final Instrumentation instrumentation = mInstrumentation;
+        final long start = instrumentation != null ? instrumentation.start() : 0;
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        if (mLetterbox) {
+            transform.setLetterbox(options.outWidth, options.outHeight, mInputSize);
+        } else {
+            transform.setStretch(options.outWidth, options.outHeight, mInputSize);
+        }
+        final int contentWidth = Math.round(options.outWidth * transform.getScaleX());
+        final int contentHeight = Math.round(options.outHeight * transform.getScaleY());
+        final int sampleSize = computeInSampleSize(options.outWidth, options.outHeight,
+                contentWidth, contentHeight);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        // reusing a bitmap needs the exact decoded size before KitKat, which is only known
+        // without subsampling; the upper bound below is what KitKat and later check against
+        options.inBitmap = mDecodePool.getReusable(
+                (options.outWidth + sampleSize - 1) / sampleSize,
+                (options.outHeight + sampleSize - 1) / sampleSize);
+
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            // the decoder refused the pooled bitmap, decode into a fresh one
+            mDecodePool.put(options.inBitmap);
+            options.inBitmap = null;
+            decoded = BitmapFactory.decodeFile(path, options);
+        }
+        if (decoded == null) {
+            mDecodePool.put(options.inBitmap);
+            return null;
+        }
+
+        final Bitmap input = mInputPool.get(mInputSize, mInputSize);
+        render(decoded, input, transform);
+        mDecodePool.put(decoded);
+        if (instrumentation != null) {
+            instrumentation.stop(Instrumentation.Stage.DECODE_BITMAP, start);
+        }
+        return input;
+    }
+
+    /**
+     * Hands an input bitmap returned by {@link #load(String, InputTransform)} back for reuse.
+     */
+    public void release(Bitmap input) {
+        mInputPool.put(input);
+    }
+
+    public void clear() {
+        mDecodePool.clear();
+        mInputPool.clear();
+    }
+
+    /**
+     * Stretches {@code source} over the whole of {@code target} with bilinear filtering.
+     */
+    public static void render(Bitmap source, Bitmap target) {
+        final Matrix matrix = new Matrix();
+        matrix.setScale(target.getWidth() / (float) source.getWidth(),
+                target.getHeight() / (float) source.getHeight());
+        new Canvas(target).drawBitmap(source, matrix, FILTER_PAINT);
+    }
+
+    /**
+     * Draws {@code source}, a possibly subsampled decode of the whole source image, into the
+     * content rect {@code transform} places it at, padding the rest of {@code target}.
+     */
+    public static void render(Bitmap source, Bitmap target, InputTransform transform) {
+        final Canvas canvas = new Canvas(target);
+        final RectF content = new RectF(transform.getOffsetX(), transform.getOffsetY(),
+                transform.getContentRight(), transform.getContentBottom());
+        if (content.left > 0 || content.top > 0) {
+            canvas.drawColor(PAD_COLOR);
+        }
+        canvas.drawBitmap(source, null, content, FILTER_PAINT);
+    }
+
+    /**
+     * Largest power of two that keeps a {@code width x height} image at least
+     * {@code targetWidth x targetHeight} after subsampling.
+     */
+    static int computeInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
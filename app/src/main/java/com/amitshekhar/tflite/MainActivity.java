@@ -1,16 +1,18 @@
 package com.amitshekhar.tflite;
 
+import android.Manifest;
 import android.content.ContentUris;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.RectF;
+import android.graphics.SurfaceTexture;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.provider.DocumentsContract;
@@ -19,28 +21,121 @@ import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
 import android.text.method.ScrollingMovementMethod;
 import android.util.Log;
+import android.view.Surface;
+import android.view.TextureView;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 public class MainActivity extends AppCompatActivity {
 
-    private Classifier classifier;
+    // interpreters kept alive over the shared model, and intra-op threads for each of them
+    private static final int POOL_SIZE = 2;
+    private static final int THREADS_PER_INTERPRETER = 2;
+    // picks that may wait for a free interpreter before new ones are rejected
+    private static final int MAX_WAITING = 4;
+    // cascade: tiny detections scoring in the band, or none on a busy scene, go to YOLOv3. It
+    // runs on whole photos only: the tiny model's site classes are not COCO's, so its boxes
+    // cannot be merged with YOLOv3 detections of a region
+    private static final float CASCADE_BAND_LOW = 0.1f;
+    private static final float CASCADE_BAND_HIGH = 0.5f;
+    private static final float CASCADE_BUSY_THRESH = 20.0f;
+    // a pick that has not started detecting by then is dropped rather than shown late
+    private static final long PHOTO_DEADLINE_MS = 10000;
+    // time given to running photo detections on destroy, a cascade of two full inferences
+    private static final long PHOTO_DRAIN_MS = 10000;
+    // results of re-opened photos: about 90 photos of 100 boxes in memory, 8 MB on disk
+    private static final long PHOTO_CACHE_MEMORY_BYTES = 256 * 1024;
+    private static final long PHOTO_CACHE_DISK_BYTES = 8 * 1024 * 1024;
+    // back-fill: up to four stored photos per inference, and as many again decoded ahead
+    private static final int BACKFILL_BATCH = 4;
+    private static final int BACKFILL_QUEUE = 2 * BACKFILL_BATCH;
+
+    private ClassifierPool classifierPool;
 
     private Executor executor = Executors.newSingleThreadExecutor();
+    // photo detections: the latest pick cancels the ones still queued
+    private DetectionService<String, Bitmap> mPhotoService;
     private TextView textViewResult;
     private Button btnDetectObject;
-    private Bitmap resized_image;
     private Handler mHandler = new Handler();
     private ImageView mContentView;
+    private ImageIngestor mIngestor;
+    private TiledDetector mTiledDetector;
+    private ClassifierPool mFullPool;
+    private CascadeDetector mCascade;
+    private DetectionCache mDetectionCache;
+    // model-sized bitmap currently on screen, handed back to the ingestor once replaced
+    private Bitmap mShownImage;
+    // path of the latest pick, the only one whose result is shown; main thread only
+    private String mLatestPhoto;
+    // gallery back-fill: one interpreter of the pool batching stored photos into the cache
+    private BatchingDetector<String, DetectionBatch> mBackfill;
+    private Classifier mBackfillClassifier;
+    private ImageIngestor mBackfillIngestor;
+    private Thread mBackfillProducer;
+
+    // frames in flight in live mode: one being filled plus one per pipeline stage
+    private static final int LIVE_RING_SIZE = 4;
+    // input sizes live mode may drop to when inference falls behind the p95 budget
+    private static final int[] LIVE_INPUT_SIZES = {320, 416, 512, 608};
+    private static final long LIVE_P95_BUDGET_MS = 150;
+    private static final int LIVE_LATENCY_WINDOW = 30;
+    // run the model on every third frame and let the tracker predict the two in between
+    private static final int LIVE_DETECTION_INTERVAL = 3;
+    private static final float LIVE_TRACK_IOU = 0.3f;
+    private static final int LIVE_TRACK_MAX_MISSES = 2;
+    // 16 x 12 blocks of luminance compared before each detection, a region is redetected alone
+    // while it covers at most half of the frame, and every 30th gated detection runs in full
+    private static final int LIVE_GATE_COLUMNS = 16;
+    private static final int LIVE_GATE_ROWS = 12;
+    private static final int LIVE_GATE_BLOCK_THRESH = 12;
+    private static final float LIVE_GATE_MAX_REGION = 0.5f;
+    private static final int LIVE_GATE_REFRESH = 30;
+
+    private TextureView mPreviewView;
+    private OverlayView mOverlayView;
+    private CameraFrameSource mCameraSource;
+    private DetectionPipeline mPipeline;
+    private Classifier mLiveClassifier;
+    private MotionGate mMotionGate;
+    private int mCameraRotation;
+    private boolean mLiveMode;
 
     public static final int CHOOSE_PHOTO = 2;
+    public static final int REQUEST_CAMERA = 3;
+    public static final String EXTRA_MODEL = "model";
+    /** Boolean extra: detect on full-resolution tiles instead of one downscaled image. */
+    public static final String EXTRA_TILED = "tiled";
+    /** Boolean extra: screen photos with YOLOv3-tiny and escalate uncertain ones to YOLOv3. */
+    public static final String EXTRA_CASCADE = "cascade";
+    /**
+     * Boolean extra: record per-stage latency histograms and log their percentiles, which also
+     * needs debug logging, see {@link #mDebugLog}.
+     */
+    public static final String EXTRA_INSTRUMENT = "instrument";
+    /** Boolean extra, default true: decode output heads on all cores. */
+    public static final String EXTRA_PARALLEL_DECODE = "parallel_decode";
+    /** Boolean extra: detect every stored photo not yet cached, several per inference. */
+    public static final String EXTRA_BACKFILL = "backfill";
+
+    // stage timings of the photo and live paths, logged after each photo and live session
+    private final Instrumentation mInstrumentation = new Instrumentation(false);
+    // per-photo debug logging, off unless "adb shell setprop log.tag.wangmin DEBUG" before start
+    private final boolean mDebugLog = Log.isLoggable("wangmin", Log.DEBUG);
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -59,55 +154,183 @@ public class MainActivity extends AppCompatActivity {
             }
         });
         mContentView = (ImageView) findViewById(R.id.content);
+        mPreviewView = findViewById(R.id.cameraPreview);
+        mOverlayView = findViewById(R.id.overlay);
+
+        Button btnToggleCamera = findViewById(R.id.btnToggleCamera);
+        btnToggleCamera.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                toggleLiveMode();
+            }
+        });
+
+        mPhotoService = new DetectionService<>(POOL_SIZE, MAX_WAITING, mPhotoDetector, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mHandler.post(command);
+            }
+        });
+        mPhotoService.setCancelStale(true);
 
         initTensorFlowAndLoadModel();
 
     }
 
-    private class DetectThread extends Thread{
-        private String mImagePath;
+    /**
+     * Decodes a picked photo, detects on it, or takes its cached detections, and returns the
+     * model-sized preview with the boxes drawn in. Runs on the workers of {@link #mPhotoService}.
+     */
+    private final DetectionService.Detector<String, Bitmap> mPhotoDetector = new DetectionService.Detector<String, Bitmap>() {
+        @Override
+        public Bitmap detect(String imagePath) throws Exception {
+            if (mDebugLog) {
+                Log.d("wangmin", "start detect, input size: " + classifierPool.getInputSize());
+            }
+            final InputTransform transform = new InputTransform();
+            final Bitmap result_image = mIngestor.load(imagePath, transform);
+            if (result_image == null) {
+                throw new IOException("cannot decode " + imagePath);
+            }
+
+            // one batch per photo, since several workers detect at the same time
+            final DetectionBatch results = new DetectionBatch();
+            final long key = photoKey(imagePath);
+            // escalated cascade results are in the full model's labels, so they are kept apart
+            final long escalatedKey = mCascade != null ? photoKey(imagePath, " escalated") : 0;
+
+            try {
+                if (loadCached(key, classifierPool.getLabels(), results)
+                        || (mCascade != null && loadCached(escalatedKey, mFullPool.getLabels(), results))) {
+                    if (mDebugLog) {
+                        Log.d("wangmin", "cached detections of " + imagePath);
+                    }
+                } else {
+                    if (mTiledDetector != null) {
+                        // the preview above only shows the result, tiles are decoded from the file
+                        mTiledDetector.detect(imagePath, results);
+                    } else if (mCascade != null) {
+                        mCascade.detect(imagePath, result_image, transform, results);
+                    } else {
+                        classifierPool.detect(result_image, transform, results);
+                    }
+                    final boolean escalated = mCascade != null
+                            && !results.getLabels().equals(classifierPool.getLabels());
+                    storeCached(escalated ? escalatedKey : key, results);
+                }
+            } catch (Exception e) {
+                mIngestor.release(result_image);
+                throw e;
+            }
 
-        public DetectThread(String path) {
-            mImagePath = path;
+            // the input has been copied into the interpreter, so draw straight onto it
+            final Canvas canvas = new Canvas(result_image);
+            final Paint paint = new Paint();
+            paint.setColor(Color.RED);
+            paint.setStyle(Paint.Style.STROKE);
+            paint.setStrokeWidth(2.0f);
+
+            // locations are in the coordinates of the original photo
+            for (int i = 0; i < results.size(); i++) {
+                if (results.getScore(i) >= 0.1) {
+                    canvas.drawRect(transform.toInputX(results.getLeft(i)), transform.toInputY(results.getTop(i)),
+                            transform.toInputX(results.getRight(i)), transform.toInputY(results.getBottom(i)), paint);
+                }
+            }
+            return result_image;
         }
+    };
 
+    /** Shows the preview of the latest pick on the main thread; older ones are dropped. */
+    private final DetectionService.Callback<String, Bitmap> mPhotoCallback = new DetectionService.Callback<String, Bitmap>() {
         @Override
-        public void run() {
-            if (!TextUtils.isEmpty(mImagePath)) {
-                Log.d("wangmin", "start detect, input size: " + classifier.getInputSize());
-                Bitmap bitmap = BitmapFactory.decodeFile(mImagePath);
-
-                resized_image = processBitmap(bitmap,classifier.getInputSize());
-
-                ArrayList<Classifier.Recognition> results = null;
+        public void onResult(String imagePath, Bitmap image) {
+            // a repeated pick that joined this request is not called back again, so every
+            // image arrives here once and is either shown or released, never both
+            if (!imagePath.equals(mLatestPhoto)) {
+                mIngestor.release(image);
+                return;
+            }
+            mContentView.setImageBitmap(image);
+            if (mShownImage != null) {
+                mIngestor.release(mShownImage);
+            }
+            mShownImage = image;
 
-                results = classifier.RecognizeImage(resized_image);
+            if (mDebugLog && mInstrumentation.isEnabled()) {
+                Log.d("wangmin", "detect end\n" + mInstrumentation.report() + mDetectionCache + "\n" + mPhotoService
+                        + (mCascade != null ? "\n" + mCascade.getPolicy().report() : ""));
+            }
+        }
 
-                resized_image = Bitmap.createBitmap(resized_image);
-                final Canvas canvas = new Canvas(resized_image);
-                final Paint paint = new Paint();
-                paint.setColor(Color.RED);
-                paint.setStyle(Paint.Style.STROKE);
-                paint.setStrokeWidth(2.0f);
+        @Override
+        public void onFailure(String imagePath, Exception error) {
+            if (error instanceof CancellationException) {
+                if (mDebugLog) {
+                    Log.d("wangmin", "superseded, dropping " + imagePath);
+                }
+            } else if (error instanceof TimeoutException) {
+                Log.w("wangmin", "waited too long, dropping " + imagePath);
+            } else if (error instanceof RejectedExecutionException) {
+                Log.w("wangmin", "detector busy, dropping " + imagePath);
+            } else {
+                Log.w("wangmin", "cannot detect " + imagePath, error);
+            }
+        }
+    };
 
-                for (final Classifier.Recognition result : results) {
-                    final RectF location = result.getLocation();
-                    if (location != null && result.getConfidence() >= 0.1) {
-                        canvas.drawRect(location, paint);
+    /**
+     * Decodes a batch of stored photos and detects on all of them in one interpreter
+     * invocation. A photo that cannot be decoded gets a null result instead of failing the
+     * rest of the batch. Runs on the thread of {@link #mBackfill}.
+     */
+    private final BatchingDetector.Detector<String, DetectionBatch> mBackfillDetector =
+            new BatchingDetector.Detector<String, DetectionBatch>() {
+        @Override
+        public List<DetectionBatch> detect(List<String> paths) throws Exception {
+            final List<DetectionBatch> results = new ArrayList<>(paths.size());
+            final List<Bitmap> bitmaps = new ArrayList<>(paths.size());
+            final List<InputTransform> transforms = new ArrayList<>(paths.size());
+            final List<DetectionBatch> detected = new ArrayList<>(paths.size());
+            try {
+                for (String path : paths) {
+                    final InputTransform transform = new InputTransform();
+                    final Bitmap bitmap = mBackfillIngestor.load(path, transform);
+                    final DetectionBatch batch = bitmap != null ? new DetectionBatch() : null;
+                    results.add(batch);
+                    if (bitmap != null) {
+                        bitmaps.add(bitmap);
+                        transforms.add(transform);
+                        detected.add(batch);
                     }
                 }
+                mBackfillClassifier.detect(bitmaps, transforms, detected);
+            } finally {
+                for (Bitmap bitmap : bitmaps) {
+                    mBackfillIngestor.release(bitmap);
+                }
+            }
+            return results;
+        }
+    };
 
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        mContentView.setImageBitmap(resized_image);
-                    }
-                });
+    /** Caches back-filled detections under the key a later pick of the same photo looks up. */
+    private final DetectionService.Callback<String, DetectionBatch> mBackfillCallback =
+            new DetectionService.Callback<String, DetectionBatch>() {
+        @Override
+        public void onResult(String imagePath, DetectionBatch detections) {
+            if (detections != null) {
+                storeCached(photoKey(imagePath), detections);
+            }
+        }
 
-                Log.d("wangmin", "detect end");
+        @Override
+        public void onFailure(String imagePath, Exception error) {
+            if (!(error instanceof CancellationException)) {
+                Log.w("wangmin", "cannot back-fill " + imagePath, error);
             }
         }
-    }
+    };
 
     /**
      * Returns a transformation matrix from one reference frame into another.
@@ -173,18 +396,8 @@ public class MainActivity extends AppCompatActivity {
 
     public static Bitmap processBitmap(Bitmap source,int size){
 
-        int image_height = source.getHeight();
-        int image_width = source.getWidth();
-
         Bitmap croppedBitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
-
-        Matrix frameToCropTransformations = getTransformationMatrix(image_width,image_height,size,size,0,false);
-        Matrix cropToFrameTransformations = new Matrix();
-        frameToCropTransformations.invert(cropToFrameTransformations);
-
-        final Canvas canvas = new Canvas(croppedBitmap);
-        canvas.drawBitmap(source, frameToCropTransformations, null);
-
+        ImageIngestor.render(source, croppedBitmap);
         return croppedBitmap;
 
 
@@ -193,32 +406,273 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
-        //cameraView.start();
+        if (mLiveMode) {
+            startLive();
+        }
     }
 
     @Override
     protected void onPause() {
-        //cameraView.stop();
+        stopLive();
         super.onPause();
     }
 
+    private void toggleLiveMode() {
+        if (classifierPool == null) {
+            return;
+        }
+        mLiveMode = !mLiveMode;
+        mPreviewView.setVisibility(mLiveMode ? View.VISIBLE : View.GONE);
+        mOverlayView.setVisibility(mLiveMode ? View.VISIBLE : View.GONE);
+        mContentView.setVisibility(mLiveMode ? View.GONE : View.VISIBLE);
+        if (!mLiveMode) {
+            stopLive();
+        } else if (Build.VERSION.SDK_INT >= 23
+                && checkSelfPermission(Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+            requestPermissions(new String[]{Manifest.permission.CAMERA}, REQUEST_CAMERA);
+        } else {
+            startLive();
+        }
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode == REQUEST_CAMERA && grantResults.length > 0
+                && grantResults[0] == PackageManager.PERMISSION_GRANTED && mLiveMode) {
+            startLive();
+        }
+    }
+
+    private void startLive() {
+        if (mPipeline != null || classifierPool == null) {
+            return;
+        }
+        if (!mPreviewView.isAvailable()) {
+            mPreviewView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+                @Override
+                public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+                    startLive();
+                }
+
+                @Override
+                public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+                }
+
+                @Override
+                public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+                    return true;
+                }
+
+                @Override
+                public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+                }
+            });
+            return;
+        }
+
+        // keep one interpreter of the pool for the whole live session
+        mLiveClassifier = classifierPool.tryAcquire();
+        if (mLiveClassifier == null) {
+            textViewResult.setText("detector busy");
+            return;
+        }
+        mCameraSource = new CameraFrameSource();
+        try {
+            mCameraSource.open(classifierPool.getInputSize());
+            mCameraRotation = cameraRotation(mCameraSource.getSensorOrientation());
+            mMotionGate = new MotionGate(LIVE_GATE_COLUMNS, LIVE_GATE_ROWS,
+                    LIVE_GATE_BLOCK_THRESH, LIVE_GATE_MAX_REGION);
+            mMotionGate.setRefreshInterval(LIVE_GATE_REFRESH);
+            mPipeline = new DetectionPipeline(
+                    new YoloFrameProcessor(mLiveClassifier, newResolutionController(), newTracker(), mMotionGate),
+                    mLiveListener,
+                    LIVE_RING_SIZE, mCameraSource.getFrameBytes());
+            mPipeline.start();
+            mCameraSource.start(mPreviewView.getSurfaceTexture(), mCameraRotation, mPipeline);
+        } catch (IOException | RuntimeException e) {
+            Log.e("wangmin", "failed to start camera", e);
+            stopLive();
+        }
+    }
+
+    private void stopLive() {
+        if (mCameraSource != null) {
+            mCameraSource.stop();
+            mCameraSource = null;
+        }
+        if (mPipeline != null) {
+            try {
+                mPipeline.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Log.d("wangmin", "live: " + mPipeline.getCompletedFrames() + " frames, "
+                    + mPipeline.getDroppedFrames() + " dropped");
+            mPipeline = null;
+        }
+        if (mMotionGate != null) {
+            Log.d("wangmin", "live gate: " + mMotionGate.getSkippedFrames() + " of "
+                    + mMotionGate.getFrames() + " detections skipped, "
+                    + mMotionGate.getRegionFrames() + " cropped to a region");
+            mMotionGate = null;
+        }
+        if (mDebugLog && mInstrumentation.isEnabled()) {
+            Log.d("wangmin", "live stages:\n" + mInstrumentation.report());
+        }
+        if (mLiveClassifier != null) {
+            mLiveClassifier.setInputSize(classifierPool.getInputSize());
+            classifierPool.release(mLiveClassifier);
+            mLiveClassifier = null;
+        }
+    }
+
+    private ResolutionController newResolutionController() {
+        final int maxSize = classifierPool.getInputSize();
+        int count = 0;
+        final int[] sizes = new int[LIVE_INPUT_SIZES.length + 1];
+        for (int size : LIVE_INPUT_SIZES) {
+            if (size < maxSize) {
+                sizes[count++] = size;
+            }
+        }
+        sizes[count++] = maxSize;
+        return new ResolutionController(Arrays.copyOf(sizes, count), maxSize,
+                LIVE_P95_BUDGET_MS * 1000000, LIVE_LATENCY_WINDOW);
+    }
+
+    private BoxTracker newTracker() {
+        final BoxTracker tracker = new BoxTracker(LIVE_TRACK_IOU, LIVE_TRACK_MAX_MISSES);
+        tracker.setDetectionInterval(LIVE_DETECTION_INTERVAL);
+        // detect early once a track has lost half of the confidence it needs to be reported
+        tracker.setMinConfidence(mLiveClassifier.getObjThresh() / 2);
+        return tracker;
+    }
+
+    private int cameraRotation(int sensorOrientation) {
+        int degrees = 0;
+        switch (getWindowManager().getDefaultDisplay().getRotation()) {
+            case Surface.ROTATION_90:
+                degrees = 90;
+                break;
+            case Surface.ROTATION_180:
+                degrees = 180;
+                break;
+            case Surface.ROTATION_270:
+                degrees = 270;
+                break;
+        }
+        return (sensorOrientation - degrees + 360) % 360;
+    }
+
+    private final DetectionPipeline.Listener mLiveListener = new DetectionPipeline.Listener() {
+        @Override
+        public void onResult(Frame frame) {
+            final int count = frame.detections.size();
+            final float[] boxes = Arrays.copyOf(frame.detections.boxes, 4 * count);
+            final long latencyMillis = frame.getLatencyNanos() / 1000000;
+            final int frameSize = classifierPool.getInputSize();
+            final int rotation = mCameraRotation;
+            final MotionGate gate = mMotionGate;
+            final int skippedPercent = gate != null ? Math.round(100 * gate.getHitRate()) : 0;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mOverlayView.setDetections(boxes, count, frameSize, rotation);
+                    textViewResult.setText(count + " objects, " + latencyMillis + " ms, "
+                            + skippedPercent + "% unchanged");
+                }
+            });
+        }
+    };
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        mPhotoService.shutdown();
         executor.execute(new Runnable() {
             @Override
             public void run() {
-                classifier.close();
+                // photo workers and the back-fill batch still running use everything closed below
+                try {
+                    if (!mPhotoService.awaitTermination(PHOTO_DRAIN_MS) || !stopBackfill()) {
+                        Log.w("wangmin", "detections still running, models left open");
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (mTiledDetector != null) {
+                    mTiledDetector.shutdown();
+                }
+                classifierPool.close();
+                if (mCascade != null) {
+                    mFullPool.close();
+                    mCascade.clear();
+                }
+                mIngestor.clear();
+                try {
+                    mDetectionCache.close();
+                } catch (IOException e) {
+                    Log.w("wangmin", "cannot close detection cache", e);
+                }
             }
         });
     }
 
+    /**
+     * The descriptor asset of the model to run. It can be switched without a rebuild, e.g.
+     * {@code adb shell am start -n com.amitshekhar.tflite/.MainActivity -e model yolov3_tiny_pb.properties}.
+     */
+    private String modelDescriptorPath() {
+        final String model = getIntent().getStringExtra(EXTRA_MODEL);
+        return TextUtils.isEmpty(model) ? Yolov3Classifier.DESCRIPTOR_FILE : model;
+    }
+
     private void initTensorFlowAndLoadModel() {
         executor.execute(new Runnable() {
             @Override
             public void run() {
                 try {
-                    classifier = new Yolov3Classifier(getAssets());
+                    final boolean cascade = getIntent().getBooleanExtra(EXTRA_CASCADE, false);
+                    classifierPool = new ClassifierPool(getAssets(),
+                            cascade ? TinyClassifier.DESCRIPTOR_FILE : modelDescriptorPath(),
+                            POOL_SIZE, THREADS_PER_INTERPRETER, MAX_WAITING);
+                    if (cascade) {
+                        // the tiny pool screens every photo, so it gets the ingestor and preview
+                        mFullPool = new ClassifierPool(getAssets(), Yolov3Classifier.DESCRIPTOR_FILE,
+                                POOL_SIZE, THREADS_PER_INTERPRETER, MAX_WAITING);
+                        mCascade = new CascadeDetector(classifierPool, mFullPool,
+                                new CascadePolicy(CASCADE_BAND_LOW, CASCADE_BAND_HIGH)
+                                        .setBusyThresh(CASCADE_BUSY_THRESH));
+                    }
+                    mIngestor = new ImageIngestor(classifierPool.getInputSize(), POOL_SIZE);
+                    mIngestor.setLetterbox(true);
+                    mInstrumentation.setEnabled(getIntent().getBooleanExtra(EXTRA_INSTRUMENT, false));
+                    classifierPool.setInstrumentation(mInstrumentation);
+                    if (mFullPool != null) {
+                        mFullPool.setInstrumentation(mInstrumentation);
+                    }
+                    mIngestor.setInstrumentation(mInstrumentation);
+                    final boolean parallelDecode = getIntent().getBooleanExtra(EXTRA_PARALLEL_DECODE, true);
+                    classifierPool.setParallelDecode(parallelDecode);
+                    if (mFullPool != null) {
+                        mFullPool.setParallelDecode(parallelDecode);
+                    }
+                    if (getIntent().getBooleanExtra(EXTRA_TILED, false)) {
+                        mTiledDetector = new TiledDetector(classifierPool, TiledDetector.DEFAULT_OVERLAP);
+                    }
+                    try {
+                        mDetectionCache = new DetectionCache(PHOTO_CACHE_MEMORY_BYTES,
+                                new File(getCacheDir(), "detections"), PHOTO_CACHE_DISK_BYTES);
+                    } catch (IOException e) {
+                        Log.w("wangmin", "detection cache kept in memory only", e);
+                        mDetectionCache = new DetectionCache(PHOTO_CACHE_MEMORY_BYTES);
+                    }
+                    if (getIntent().getBooleanExtra(EXTRA_BACKFILL, false)) {
+                        startBackfill();
+                    }
                     makeButtonVisible();
                 } catch (final Exception e) {
                     throw new RuntimeException("Error initializing TensorFlow!", e);
@@ -227,6 +681,119 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * Detects every stored photo that is not cached yet into the detection cache, so picking it
+     * later is a cache hit. Photos are queued newest first and batched by {@link #mBackfill}
+     * as deep as its queue is, which amortizes the per-invoke overhead over thousands of
+     * photos. Only plain detection is back-filled, since tiled and cascade results are keyed
+     * and computed differently. Runs on {@link #executor} once the model has loaded.
+     */
+    private void startBackfill() {
+        if (mTiledDetector != null || mCascade != null) {
+            Log.w("wangmin", "back-fill only runs without tiles or cascade");
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= 23
+                && checkSelfPermission(Manifest.permission.READ_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
+            Log.w("wangmin", "back-fill needs storage permission");
+            return;
+        }
+        mBackfillClassifier = classifierPool.tryAcquire();
+        if (mBackfillClassifier == null) {
+            return;
+        }
+        mBackfillClassifier.setMaxBatchSize(BACKFILL_BATCH);
+        mBackfillIngestor = new ImageIngestor(classifierPool.getInputSize(), BACKFILL_BATCH);
+        mBackfillIngestor.setLetterbox(true);
+        // the producer may still be between two photos once stopBackfill() dropped the field
+        final BatchingDetector<String, DetectionBatch> backfill =
+                new BatchingDetector<>(mBackfillDetector, BACKFILL_BATCH, BACKFILL_QUEUE);
+        mBackfill = backfill;
+        mBackfillProducer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final Cursor cursor = getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                        new String[]{MediaStore.Images.Media.DATA}, null, null,
+                        MediaStore.Images.Media.DATE_ADDED + " DESC");
+                if (cursor == null) {
+                    return;
+                }
+                int queued = 0;
+                try {
+                    while (cursor.moveToNext() && !Thread.currentThread().isInterrupted()) {
+                        final String path = cursor.getString(0);
+                        if (!TextUtils.isEmpty(path) && !mDetectionCache.contains(photoKey(path))) {
+                            // blocks while the batcher is a full queue ahead
+                            backfill.submit(path, mBackfillCallback);
+                            queued++;
+                        }
+                    }
+                } catch (InterruptedException | RejectedExecutionException e) {
+                    // stopped
+                } finally {
+                    cursor.close();
+                }
+                Log.d("wangmin", "back-fill queued " + queued + " photos");
+            }
+        }, "backfill");
+        mBackfillProducer.start();
+    }
+
+    /**
+     * Stops queueing stored photos and waits for the running batch, then hands the
+     * interpreter back; returns false if the batch did not finish in time.
+     */
+    private boolean stopBackfill() throws InterruptedException {
+        if (mBackfill == null) {
+            return true;
+        }
+        mBackfillProducer.interrupt();
+        mBackfill.shutdown();
+        if (!mBackfill.awaitTermination(PHOTO_DRAIN_MS)) {
+            return false;
+        }
+        Log.d("wangmin", "back-fill: " + mBackfill);
+        mBackfillIngestor.clear();
+        mBackfillClassifier.setMaxBatchSize(1);
+        classifierPool.release(mBackfillClassifier);
+        mBackfill = null;
+        return true;
+    }
+
+    /**
+     * Cache key of a photo file: path, size and modification time, so an edited photo is
+     * detected again, plus the model, its settings and whether it is tiled. Reads the file's
+     * metadata, so it is only called off the main thread.
+     */
+    private long photoKey(String path) {
+        return photoKey(path, "");
+    }
+
+    private long photoKey(String path, String variant) {
+        final File file = new File(path);
+        return DetectionCache.key(file.getAbsolutePath(), file.length(), file.lastModified(),
+                (mTiledDetector != null ? classifierPool.getCacheKey() + " tiled"
+                        : mCascade != null ? mCascade.getCacheKey() : classifierPool.getCacheKey()) + variant);
+    }
+
+    // a cache that cannot be read or written only costs a detection
+    private boolean loadCached(long key, List<String> labels, DetectionBatch dst) {
+        try {
+            return mDetectionCache.get(key, labels, dst);
+        } catch (IOException e) {
+            Log.w("wangmin", "cannot read cached detections", e);
+            return false;
+        }
+    }
+
+    private void storeCached(long key, DetectionBatch detections) {
+        try {
+            mDetectionCache.put(key, detections);
+        } catch (IOException e) {
+            Log.w("wangmin", "cannot cache detections", e);
+        }
+    }
+
     private void makeButtonVisible() {
         runOnUiThread(new Runnable() {
             @Override
@@ -271,9 +838,19 @@ public class MainActivity extends AppCompatActivity {
             imagePath = uri.getPath();
         }
 
-        Log.d("wangmin", "get Image path: " + imagePath);
+        if (mDebugLog) {
+            Log.d("wangmin", "get Image path: " + imagePath);
+        }
         if (!TextUtils.isEmpty(imagePath)) {
-            new DetectThread(imagePath).start();
+            mLatestPhoto = imagePath;
+            try {
+                // picks coalesce on the path alone, so the main thread never stats the file;
+                // the worker reads its size and time for the cache key
+                mPhotoService.submit(DetectionCache.key(imagePath, 0, 0, ""), imagePath, PHOTO_DEADLINE_MS,
+                        mPhotoCallback);
+            } catch (RejectedExecutionException e) {
+                Log.w("wangmin", "too many photos waiting, dropping " + imagePath);
+            }
         }
     }
 
@@ -0,0 +1,67 @@
+package com.amitshekhar.tflite;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Draws live detections on top of the camera preview. Boxes come in model input coordinates
+ * of the unrotated sensor frame and are rotated and scaled onto the view.
+ */
+public class OverlayView extends View {
+
+    private final Paint mPaint = new Paint();
+    private final RectF mRect = new RectF();
+    private float[] mBoxes = new float[0];
+    private int mCount;
+    private int mFrameSize = 1;
+    private int mRotation;
+
+    public OverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mPaint.setColor(Color.RED);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeWidth(4.0f);
+    }
+
+    /** Must be called on the UI thread; {@code boxes} holds {@code count} left, top, right, bottom quadruples. */
+    public void setDetections(float[] boxes, int count, int frameSize, int rotation) {
+        mBoxes = boxes;
+        mCount = count;
+        mFrameSize = frameSize;
+        mRotation = rotation;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        final float w = getWidth();
+        final float h = getHeight();
+        for (int i = 0; i < mCount; i++) {
+            final float l = mBoxes[4 * i] / mFrameSize;
+            final float t = mBoxes[4 * i + 1] / mFrameSize;
+            final float r = mBoxes[4 * i + 2] / mFrameSize;
+            final float b = mBoxes[4 * i + 3] / mFrameSize;
+            switch (mRotation) {
+                case 90:
+                    mRect.set((1 - b) * w, l * h, (1 - t) * w, r * h);
+                    break;
+                case 180:
+                    mRect.set((1 - r) * w, (1 - b) * h, (1 - l) * w, (1 - t) * h);
+                    break;
+                case 270:
+                    mRect.set(t * w, (1 - r) * h, b * w, (1 - l) * h);
+                    break;
+                default:
+                    mRect.set(l * w, t * h, r * w, b * h);
+                    break;
+            }
+            canvas.drawRect(mRect, mPaint);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.amitshekhar.tflite;
+
+import java.util.AbstractList;
+
+/**
+ * Read-only {@code List<Recognition>} over a {@link DetectionBatch} for callers written against
+ * {@link Classifier.Recognition}. Each recognition is created the first time its index is read
+ * and kept, so iterating twice allocates once and unread boxes cost nothing. The view reads the
+ * batch as it is, so it must not be used after the batch has been refilled.
+ */
+public class RecognitionList extends AbstractList<Classifier.Recognition> {
+
+    private final DetectionBatch mBatch;
+    private final Classifier.Recognition[] mRecognitions;
+
+    public RecognitionList(DetectionBatch batch) {
+        mBatch = batch;
+        mRecognitions = new Classifier.Recognition[batch.size()];
+    }
+
+    @Override
+    public Classifier.Recognition get(int index) {
+        Classifier.Recognition recognition = mRecognitions[index];
+        if (recognition == null) {
+            recognition = new Classifier.Recognition(mBatch, index);
+            mRecognitions[index] = recognition;
+        }
+        return recognition;
+    }
+
+    @Override
+    public int size() {
+        return mRecognitions.length;
+    }
+}
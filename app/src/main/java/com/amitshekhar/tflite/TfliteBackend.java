@@ -0,0 +1,91 @@
+package com.amitshekhar.tflite;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link InferenceBackend} over a TensorFlow Lite {@link Interpreter}. Not thread-safe, like
+ * the interpreter itself.
+ */
+public class TfliteBackend implements InferenceBackend {
+
+    private Interpreter mInterpreter;
+    private final Object[] mInputs = new Object[1];
+    private final Map<Integer, Object> mOutputs = new HashMap<>();
+
+    /**
+     * @param model      a loaded .tflite model, which may be shared by several backends.
+     * @param numThreads intra-op threads, or -1 for the runtime default.
+     */
+    public TfliteBackend(ByteBuffer model, int numThreads) {
+        Interpreter.Options options = new Interpreter.Options();
+        if (numThreads > 0) {
+            options.setNumThreads(numThreads);
+        }
+        mInterpreter = new Interpreter(model, options);
+    }
+
+    @Override
+    public int[] getInputShape(int index) {
+        return mInterpreter.getInputTensor(index).shape();
+    }
+
+    @Override
+    public Quantization getInputQuantization(int index) {
+        return quantization(mInterpreter.getInputTensor(index));
+    }
+
+    @Override
+    public int getOutputCount() {
+        return mInterpreter.getOutputTensorCount();
+    }
+
+    @Override
+    public int[] getOutputShape(int index) {
+        return mInterpreter.getOutputTensor(index).shape();
+    }
+
+    @Override
+    public Quantization getOutputQuantization(int index) {
+        return quantization(mInterpreter.getOutputTensor(index));
+    }
+
+    /**
+     * The quantization of an 8 bit {@code tensor}, or null for any other type. Only uint8 and
+     * int8 tensors are run without conversion; other types are left to the runtime as floats.
+     */
+    private static Quantization quantization(Tensor tensor) {
+        final DataType type = tensor.dataType();
+        if (type != DataType.UINT8 && type != DataType.INT8) {
+            return null;
+        }
+        final Tensor.QuantizationParams params = tensor.quantizationParams();
+        return new Quantization(params.getScale(), params.getZeroPoint(), type == DataType.INT8);
+    }
+
+    @Override
+    public void resizeInput(int index, int[] shape) {
+        mInterpreter.resizeInput(index, shape);
+        mInterpreter.allocateTensors();
+    }
+
+    @Override
+    public void run(ByteBuffer input, ByteBuffer[] outputs) {
+        mInputs[0] = input;
+        for (int i = 0; i < outputs.length; i++) {
+            mOutputs.put(i, outputs[i]);
+        }
+        mInterpreter.runForMultipleInputsOutputs(mInputs, mOutputs);
+    }
+
+    @Override
+    public void close() {
+        mInterpreter.close();
+        mInterpreter = null;
+    }
+}
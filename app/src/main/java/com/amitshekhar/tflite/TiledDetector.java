@@ -0,0 +1,178 @@
+package com.amitshekhar.tflite;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.os.Build;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Detects small objects in large images by running the model over overlapping full-resolution
+ * tiles instead of one downscaled square. Tiles are decoded one at a time straight from the
+ * file with a {@link BitmapRegionDecoder}, so the full-resolution image is never in memory;
+ * each worker holds one classifier of the pool and one tile bitmap, and pulls tiles until none
+ * are left. Detections are mapped back to image coordinates by the decoder and merged across
+ * tile seams by a {@link TileMerger}.
+ */
+public class TiledDetector {
+
+    /** Overlap between neighbouring tiles; an object up to this size fits whole in some tile. */
+    public static final int DEFAULT_OVERLAP = 64;
+
+    private static final int PAD_COLOR = Color.rgb(128, 128, 128);
+
+    private final ClassifierPool mPool;
+    private final int mTileSize;
+    private final int mOverlap;
+    private final ExecutorService mExecutor;
+    private final BitmapPool mTiles;
+
+    public TiledDetector(ClassifierPool pool, int overlap) {
+        mPool = pool;
+        mTileSize = pool.getInputSize();
+        mOverlap = overlap;
+        mExecutor = Executors.newFixedThreadPool(pool.size());
+        mTiles = new BitmapPool(pool.size());
+    }
+
+    /**
+     * Runs tiled detection over the image file at {@code path} using every classifier of the
+     * pool in parallel.
+     *
+     * @return Recognitions in the coordinates of the full-resolution image.
+     */
+    public List<Classifier.Recognition> detect(String path) throws IOException, InterruptedException {
+        final DetectionBatch detections = new DetectionBatch();
+        detect(path, detections);
+        return new RecognitionList(detections);
+    }
+
+    /**
+     * Like {@link #detect(String)}, but writes the detections into the caller's reusable
+     * {@code dst}.
+     */
+    public void detect(String path, DetectionBatch dst) throws IOException, InterruptedException {
+        final BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(path, false);
+        try {
+            final TilePlan plan = new TilePlan(decoder.getWidth(), decoder.getHeight(), mTileSize, mOverlap);
+            final Job job = new Job(decoder, new TileMerger(plan), Math.min(mPool.size(), plan.size()), dst);
+
+            final List<Future<Void>> workers = new ArrayList<>(job.mWorkers);
+            for (int i = 0; i < job.mWorkers; i++) {
+                workers.add(mExecutor.submit(new TileWorker(job)));
+            }
+            try {
+                for (Future<Void> worker : workers) {
+                    worker.get();
+                }
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new RuntimeException(cause);
+            } finally {
+                for (Future<Void> worker : workers) {
+                    worker.cancel(true);
+                }
+            }
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+        mTiles.clear();
+    }
+
+    private static class Job {
+        final BitmapRegionDecoder mDecoder;
+        final TileMerger mMerger;
+        final int mWorkers;
+        final AtomicInteger mNextTile = new AtomicInteger();
+        final AtomicInteger mRunning;
+        final DetectionBatch mResult;
+
+        Job(BitmapRegionDecoder decoder, TileMerger merger, int workers, DetectionBatch result) {
+            mDecoder = decoder;
+            mResult = result;
+            mMerger = merger;
+            mWorkers = workers;
+            mRunning = new AtomicInteger(workers);
+        }
+    }
+
+    private class TileWorker implements Callable<Void> {
+        private final Job mJob;
+
+        TileWorker(Job job) {
+            mJob = job;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            final TilePlan plan = mJob.mMerger.getPlan();
+            final InputTransform transform = new InputTransform();
+            final Bitmap tile = mTiles.get(mTileSize, mTileSize);
+            final Classifier classifier = mPool.acquire();
+            try {
+                int index;
+                while ((index = mJob.mNextTile.getAndIncrement()) < plan.size()) {
+                    final Bitmap input = decodeTile(plan, index, tile);
+                    // the classifier's buffer is reused by its next call, copy out while holding it
+                    mJob.mMerger.add(index, classifier.detect(input, plan.transform(index, transform)));
+                    if (input != tile) {
+                        input.recycle();
+                    }
+                }
+                // the last worker to finish merges, with its classifier's suppression and labels
+                if (mJob.mRunning.decrementAndGet() == 0) {
+                    mJob.mResult.set(mJob.mMerger.merge(classifier.createSuppressionStrategy()),
+                            classifier.getLabels());
+                }
+            } finally {
+                mPool.release(classifier);
+                mTiles.put(tile);
+            }
+            return null;
+        }
+
+        // returns a tileSize x tileSize bitmap holding the tile at its top left corner
+        private Bitmap decodeTile(TilePlan plan, int index, Bitmap tile) {
+            final Rect region = new Rect(plan.getLeft(index), plan.getTop(index),
+                    plan.getRight(index), plan.getBottom(index));
+            final boolean full = region.width() == mTileSize && region.height() == mTileSize;
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            if (full && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                options.inBitmap = tile;
+                return mJob.mDecoder.decodeRegion(region, options);
+            }
+
+            final Bitmap decoded = mJob.mDecoder.decodeRegion(region, options);
+            if (full) {
+                return decoded;
+            }
+            // an image smaller than a tile: pad it like a letterbox
+            tile.eraseColor(PAD_COLOR);
+            new Canvas(tile).drawBitmap(decoded, 0, 0, null);
+            decoded.recycle();
+            return tile;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.amitshekhar.tflite;
+
+import android.content.res.AssetManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A classifier for any YOLO variant described by a {@link ModelDescriptor}, so adding a model
+ * means shipping a {@code .tflite}, its labels and a {@code .properties} descriptor instead of
+ * writing a subclass. Input size and grid widths missing from the descriptor are read from the
+ * interpreter's tensor shapes.
+ */
+public class YoloClassifier extends Classifier {
+
+    protected final ModelDescriptor mDescriptor;
+
+    public YoloClassifier(AssetManager assetManager, String descriptorPath) throws IOException {
+        this(assetManager, loadDescriptor(assetManager, descriptorPath));
+    }
+
+    public YoloClassifier(AssetManager assetManager, ModelDescriptor descriptor) throws IOException {
+        this(loadModelFile(assetManager, descriptor.getModelFile()),
+                loadLabelList(assetManager, descriptor.getLabelFile()), descriptor, -1);
+    }
+
+    public YoloClassifier(ByteBuffer model, List<String> labels, ModelDescriptor descriptor, int numThreads) {
+        this(new TfliteBackend(model, numThreads), labels, descriptor);
+    }
+
+    /** A classifier running {@code descriptor} on any backend, such as a {@link ReplayBackend}. */
+    public YoloClassifier(InferenceBackend backend, List<String> labels, ModelDescriptor descriptor) {
+        super(backend, labels, descriptor.getInputSize());
+        mDescriptor = descriptor;
+        if (descriptor.getInputSize() <= 0) {
+            descriptor.setInputSize(mInputSize);
+        }
+        if (descriptor.getOutWidth() == null) {
+            descriptor.setOutWidth(readOutWidth(labels.size()));
+        }
+        mAnchors = descriptor.getAnchors();
+        mMasks = descriptor.getMasks();
+        mOutWidth = descriptor.getOutWidth();
+        mNumBoxesPerBlock = descriptor.getNumBoxesPerBlock();
+        mNmsThresh = descriptor.getNmsThresh();
+    }
+
+    public static ModelDescriptor loadDescriptor(AssetManager assetManager, String descriptorPath) throws IOException {
+        InputStream in = assetManager.open(descriptorPath);
+        try {
+            return ModelDescriptor.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public ModelDescriptor getDescriptor() {
+        return mDescriptor;
+    }
+
+    // grid width of every [1, W, W, boxes * (5 + classes)] output, in output tensor order
+    private int[] readOutWidth(int numClasses) {
+        final int[] outWidth = new int[mBackend.getOutputCount()];
+        final int channels = mDescriptor.getNumBoxesPerBlock() * (5 + numClasses);
+        for (int i = 0; i < outWidth.length; i++) {
+            final int[] shape = mBackend.getOutputShape(i);
+            if (shape.length != 4 || shape[1] != shape[2] || shape[3] != channels) {
+                throw new IllegalArgumentException("output " + i + " of " + mDescriptor.getModelFile()
+                        + " is not a [1, W, W, " + channels + "] YOLO head");
+            }
+            outWidth[i] = shape[1];
+        }
+        return outWidth;
+    }
+
+    @Override
+    protected SuppressionStrategy createSuppressionStrategy() {
+        return mDescriptor.createSuppression();
+    }
+
+    @Override
+    public String getCacheKey() {
+        return mDescriptor.getCacheKey() + " input=" + mInputSize;
+    }
+
+    @Override
+    protected float getObjThresh() {
+        return mDescriptor.getObjThresh();
+    }
+}
@@ -0,0 +1,233 @@
+package com.amitshekhar.tflite;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Runs one {@link Classifier} as the three stages of a {@link DetectionPipeline}: NV21 frames
+ * are scaled and packed into each frame's own input tensor, inference goes through the
+ * classifier's interpreter, and decoding uses a detector owned by the postprocess thread.
+ *
+ * With a {@link ResolutionController} every frame is prepared at the size the controller
+ * currently asks for, and the measured inference latency is fed back to it. Buffers of each
+ * size are kept per stage, so frames moving between sizes do not allocate after the first
+ * round. Boxes are always reported in the coordinates of the classifier's original input size.
+ *
+ * With a {@link BoxTracker} only the frames it schedules go through the model; the others skip
+ * preprocessing and inference and get the tracker's predicted boxes. Detections then carry the
+ * track id in place of the anchor offset.
+ *
+ * With a {@link MotionGate} the frames the model would run on are gated first. Frames without
+ * change reuse the detections of the last frame the model saw; frames whose change is confined
+ * to a region are cropped to it, and the new detections centered in the region replace the
+ * previous ones centered there. The gate's reference only takes a frame's change once the
+ * frame is detected, so a frame dropped on the way leaves its change to the next one.
+ */
+public class YoloFrameProcessor implements FrameProcessor {
+
+    private final Classifier mClassifier;
+    private final ResolutionController mController;
+    private final BoxTracker mTracker;
+    private final MotionGate mGate;
+    private final int mInputSize;
+
+    // each map is only touched by the thread of its stage
+    private final Map<Integer, ArrayDeque<InputPreprocessor>> mSpareInputs = new HashMap<>();
+    private final Map<Integer, ArrayDeque<OutputTensors>> mSpareOutputs = new HashMap<>();
+    private final Map<OutputTensors, Integer> mOutputSizes = new IdentityHashMap<>();
+    private final Map<Integer, YoloDetector> mDetectors = new HashMap<>();
+    private final Map<Integer, InputTransform> mTransforms = new HashMap<>();
+    // last model detections and the merge target for region frames, postprocess thread only
+    private CandidateBuffer mLastDetections = new CandidateBuffer();
+    private CandidateBuffer mMerged = new CandidateBuffer();
+    private final InputTransform mRegionTransform = new InputTransform();
+
+    public YoloFrameProcessor(Classifier classifier) {
+        this(classifier, null, null, null);
+    }
+
+    public YoloFrameProcessor(Classifier classifier, ResolutionController controller, BoxTracker tracker) {
+        this(classifier, controller, tracker, null);
+    }
+
+    /**
+     * @param controller picks the input size per frame, or null to keep the classifier's size.
+     * @param tracker    decides which frames to detect on and predicts the others, or null to
+     *                   detect on every frame.
+     * @param gate       skips or crops the frames to detect on by how much they changed, or
+     *                   null to detect on whole frames.
+     */
+    public YoloFrameProcessor(Classifier classifier, ResolutionController controller, BoxTracker tracker,
+                              MotionGate gate) {
+        mClassifier = classifier;
+        mController = controller;
+        mTracker = tracker;
+        mGate = gate;
+        mInputSize = classifier.getInputSize();
+    }
+
+    @Override
+    public void preprocess(Frame frame) {
+        frame.predicted = mTracker != null && !mTracker.scheduleDetection();
+        if (frame.predicted) {
+            return;
+        }
+        if (mGate != null) {
+            if (frame.gateSignature == null) {
+                frame.gateSignature = mGate.newSignature();
+            }
+            // the reference only moves in postprocess, as the frame may still be dropped
+            frame.gateDecision = mGate.evaluate(frame.data, frame.width, frame.height,
+                    frame.gateSignature, frame.changedRegion);
+        } else {
+            frame.gateDecision = MotionGate.FULL;
+        }
+        if (frame.gateDecision == MotionGate.SKIP) {
+            return;
+        }
+        final Instrumentation instrumentation = mClassifier.getInstrumentation();
+        final long start = instrumentation != null ? instrumentation.start() : 0;
+        final int size = mController != null ? mController.getInputSize() : mInputSize;
+        if (frame.input == null || frame.input.getInputSize() != size) {
+            if (frame.input != null) {
+                spares(mSpareInputs, frame.input.getInputSize()).add(frame.input);
+            }
+            final InputPreprocessor input = spares(mSpareInputs, size).poll();
+            frame.input = input != null ? input : mClassifier.newInputPreprocessor(size);
+        }
+        if (frame.gateDecision == MotionGate.REGION) {
+            // snap the region to whole pixels and report back the rect actually converted
+            final float[] region = frame.changedRegion;
+            final int left = (int) (region[0] * frame.width);
+            final int top = (int) (region[1] * frame.height);
+            final int right = Math.max(left + 1, (int) Math.ceil(region[2] * frame.width));
+            final int bottom = Math.max(top + 1, (int) Math.ceil(region[3] * frame.height));
+            region[0] = left / (float) frame.width;
+            region[1] = top / (float) frame.height;
+            region[2] = right / (float) frame.width;
+            region[3] = bottom / (float) frame.height;
+            Nv21Converter.toArgb(frame.data, frame.width, frame.height,
+                    left, top, right - left, bottom - top, frame.input.getPixels(), size);
+        } else {
+            Nv21Converter.toArgb(frame.data, frame.width, frame.height, frame.input.getPixels(), size);
+        }
+        frame.input.pack(0);
+        if (instrumentation != null) {
+            instrumentation.stop(Instrumentation.Stage.PREPROCESS, start);
+        }
+    }
+
+    @Override
+    public void infer(Frame frame) {
+        if (frame.predicted || frame.gateDecision == MotionGate.SKIP) {
+            return;
+        }
+        final int size = frame.input.getInputSize();
+        final Integer outputSize = frame.outputs != null ? mOutputSizes.get(frame.outputs) : null;
+        if (outputSize == null || outputSize != size) {
+            if (outputSize != null) {
+                spares(mSpareOutputs, outputSize).add(frame.outputs);
+            }
+            OutputTensors outputs = spares(mSpareOutputs, size).poll();
+            if (outputs == null) {
+                outputs = mClassifier.newOutputTensors(size);
+                mOutputSizes.put(outputs, size);
+            }
+            frame.outputs = outputs;
+        }
+
+        mClassifier.setInputSize(size);
+        final long start = System.nanoTime();
+        mClassifier.runInference(frame.input.getInput(1), frame.outputs);
+        if (mController != null) {
+            mController.record(size, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void postprocess(Frame frame) {
+        if (frame.predicted) {
+            mTracker.predict(frame.timestampNanos);
+            mTracker.getBoxes(frame.detections);
+            return;
+        }
+        final CandidateBuffer kept = frame.gateDecision == MotionGate.SKIP ? mLastDetections : detect(frame);
+        if (mGate != null) {
+            mGate.accept(frame.gateSignature, frame.gateDecision, frame.changedRegion);
+        }
+        if (mTracker != null) {
+            mTracker.update(kept, frame.timestampNanos);
+            mTracker.getBoxes(frame.detections);
+            return;
+        }
+        frame.detections.clear();
+        for (int i = 0; i < kept.size(); i++) {
+            frame.detections.add(kept, i);
+        }
+    }
+
+    private CandidateBuffer detect(Frame frame) {
+        final int size = frame.input.getInputSize();
+        YoloDetector detector = mDetectors.get(size);
+        InputTransform transform = mTransforms.get(size);
+        if (detector == null) {
+            detector = mClassifier.newDetector(size);
+            transform = InputTransform.stretch(mInputSize, mInputSize, size);
+            mDetectors.put(size, detector);
+            mTransforms.put(size, transform);
+        }
+        if (mGate == null) {
+            return detector.detect(frame.outputs, transform);
+        }
+        if (frame.gateDecision == MotionGate.FULL) {
+            final CandidateBuffer kept = detector.detect(frame.outputs, transform);
+            mLastDetections.clear();
+            for (int i = 0; i < kept.size(); i++) {
+                mLastDetections.add(kept, i);
+            }
+            return mLastDetections;
+        }
+
+        final float[] region = frame.changedRegion;
+        final float left = region[0] * mInputSize;
+        final float top = region[1] * mInputSize;
+        final float right = region[2] * mInputSize;
+        final float bottom = region[3] * mInputSize;
+        mRegionTransform.setRegion(left, top, right, bottom, mInputSize, mInputSize, size);
+        final CandidateBuffer detected = detector.detect(frame.outputs, mRegionTransform);
+        mMerged.clear();
+        for (int i = 0; i < mLastDetections.size(); i++) {
+            if (!centeredIn(mLastDetections, i, left, top, right, bottom)) {
+                mMerged.add(mLastDetections, i);
+            }
+        }
+        // boxes centered outside the region are cut by the crop and still held by the previous set
+        for (int i = 0; i < detected.size(); i++) {
+            if (centeredIn(detected, i, left, top, right, bottom)) {
+                mMerged.add(detected, i);
+            }
+        }
+        final CandidateBuffer previous = mLastDetections;
+        mLastDetections = mMerged;
+        mMerged = previous;
+        return mLastDetections;
+    }
+
+    private static boolean centeredIn(CandidateBuffer detections, int i,
+                                      float left, float top, float right, float bottom) {
+        final float centerX = (detections.boxes[4 * i] + detections.boxes[4 * i + 2]) / 2;
+        final float centerY = (detections.boxes[4 * i + 1] + detections.boxes[4 * i + 3]) / 2;
+        return centerX >= left && centerX < right && centerY >= top && centerY < bottom;
+    }
+
+    private static <T> ArrayDeque<T> spares(Map<Integer, ArrayDeque<T>> spares, int size) {
+        ArrayDeque<T> queue = spares.get(size);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            spares.put(size, queue);
+        }
+        return queue;
+    }
+}
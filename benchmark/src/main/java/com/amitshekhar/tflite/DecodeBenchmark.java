@@ -0,0 +1,146 @@
+package com.amitshekhar.tflite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding all output heads of one frame into candidates, at several candidate densities.
+ * {@code softmaxDecode} is the expit + softmax-per-anchor loop the decoder replaced, and
+ * {@code quantizedDecode} decodes the same heads quantized to uint8 over [-16, 16), and
+ * {@code parallelDecode} splits the float decode into row ranges on a pool of one worker per
+ * core; tiny's heads are below the split threshold and stay on the calling thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"YOLOV3", "TINY"})
+    public YoloFixture.Layout layout;
+
+    @Param({"0.001", "0.01", "0.1"})
+    public double density;
+
+    private OutputTensors mOutputs;
+    private OutputTensors mQuantizedOutputs;
+    private final InputTransform mTransform = new InputTransform();
+    private YoloDecoder mDecoder;
+    private final CandidateBuffer mCandidates = new CandidateBuffer();
+    private float[] mClasses;
+    private ParallelDecoder mParallel;
+
+    @Setup
+    public void setup() throws IOException {
+        mOutputs = YoloFixture.load(layout, density, 1);
+        mDecoder = YoloFixture.decoder(layout);
+        mQuantizedOutputs = YoloFixture.quantized(layout, mOutputs, new Quantization(0.125f, 128, false));
+        mTransform.setIdentity(layout.inputSize, layout.inputSize);
+        mClasses = new float[layout.numClasses];
+        mParallel = new ParallelDecoder(mDecoder, ParallelDecoder.sharedPool(),
+                ParallelDecoder.DEFAULT_MIN_ANCHORS_PER_TASK);
+    }
+
+    @Benchmark
+    public CandidateBuffer decode() {
+        mCandidates.clear();
+        for (int i = 0; i < mOutputs.size(); i++) {
+            mDecoder.decodeHead(i, mOutputs.getOutput(i), layout.inputSize, layout.inputSize, mCandidates);
+        }
+        return mCandidates;
+    }
+
+    @Benchmark
+    public CandidateBuffer quantizedDecode() {
+        mCandidates.clear();
+        for (int i = 0; i < mQuantizedOutputs.size(); i++) {
+            mDecoder.decodeHead(i, mQuantizedOutputs.getQuantizedOutput(i), mQuantizedOutputs.getQuantization(i),
+                    mTransform, mCandidates);
+        }
+        return mCandidates;
+    }
+
+    @Benchmark
+    public CandidateBuffer parallelDecode() {
+        mCandidates.clear();
+        mParallel.decode(mOutputs, mTransform, mCandidates);
+        return mCandidates;
+    }
+
+    @Benchmark
+    public CandidateBuffer softmaxDecode() {
+        mCandidates.clear();
+        final int numClasses = layout.numClasses;
+        final float[] classes = mClasses;
+        for (int i = 0; i < mOutputs.size(); i++) {
+            final int gridWidth = layout.outWidth[i];
+            final FloatBuffer out = mOutputs.getOutput(i);
+            for (int y = 0; y < gridWidth; ++y) {
+                for (int x = 0; x < gridWidth; ++x) {
+                    for (int b = 0; b < YoloFixture.NUM_BOXES_PER_BLOCK; ++b) {
+                        final int offset = ((y * gridWidth + x) * YoloFixture.NUM_BOXES_PER_BLOCK + b) * (numClasses + 5);
+                        final float confidence = expit(out.get(offset + 4));
+                        int detectedClass = -1;
+                        float maxClass = 0;
+                        for (int c = 0; c < numClasses; ++c) {
+                            classes[c] = out.get(offset + 5 + c);
+                        }
+                        softmax(classes);
+                        for (int c = 0; c < numClasses; ++c) {
+                            if (classes[c] > maxClass) {
+                                detectedClass = c;
+                                maxClass = classes[c];
+                            }
+                        }
+                        final float confidenceInClass = maxClass * confidence;
+                        if (confidenceInClass > layout.objThresh) {
+                            final int scale = layout.inputSize / gridWidth;
+                            final float xPos = (x + expit(out.get(offset))) * scale;
+                            final float yPos = (y + expit(out.get(offset + 1))) * scale;
+                            final int anchor = 2 * layout.masks[i][b];
+                            final float w = (float) (Math.exp(out.get(offset + 2)) * layout.anchors[anchor]);
+                            final float h = (float) (Math.exp(out.get(offset + 3)) * layout.anchors[anchor + 1]);
+                            mCandidates.add(xPos - w / 2, yPos - h / 2, xPos + w / 2, yPos + h / 2,
+                                    confidenceInClass, detectedClass, offset);
+                        }
+                    }
+                }
+            }
+        }
+        return mCandidates;
+    }
+
+    private static void softmax(final float[] vals) {
+        float max = Float.NEGATIVE_INFINITY;
+        for (final float val : vals) {
+            max = Math.max(max, val);
+        }
+        float sum = 0.0f;
+        for (int i = 0; i < vals.length; ++i) {
+            vals[i] = (float) Math.exp(vals[i] - max);
+            sum += vals[i];
+        }
+        for (int i = 0; i < vals.length; ++i) {
+            vals[i] = vals[i] / sum;
+        }
+    }
+
+    private static float expit(final float x) {
+        return (float) (1. / (1. + Math.exp(-x)));
+    }
+}
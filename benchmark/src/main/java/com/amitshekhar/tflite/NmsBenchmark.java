@@ -0,0 +1,70 @@
+package com.amitshekhar.tflite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Suppressing the decoded candidates of one frame with each strategy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NmsBenchmark {
+
+    @Param({"YOLOV3", "TINY"})
+    public YoloFixture.Layout layout;
+
+    @Param({"0.001", "0.01", "0.1"})
+    public double density;
+
+    @Param({"hard", "agnostic", "diou", "soft"})
+    public String strategy;
+
+    private final CandidateBuffer mCandidates = new CandidateBuffer();
+    private final CandidateBuffer mKept = new CandidateBuffer();
+    private SuppressionStrategy mSuppression;
+
+    @Setup
+    public void setup() throws IOException {
+        final OutputTensors outputs = YoloFixture.load(layout, density, 1);
+        final YoloDecoder decoder = YoloFixture.decoder(layout);
+        for (int i = 0; i < outputs.size(); i++) {
+            decoder.decodeHead(i, outputs.getOutput(i), layout.inputSize, layout.inputSize, mCandidates);
+        }
+        mSuppression = create(strategy, layout.objThresh);
+    }
+
+    static SuppressionStrategy create(String strategy, float scoreThresh) {
+        if ("hard".equals(strategy)) {
+            return new HardNms(0.5f, Integer.MAX_VALUE);
+        } else if ("agnostic".equals(strategy)) {
+            return new ClassAgnosticNms(0.5f, Integer.MAX_VALUE);
+        } else if ("diou".equals(strategy)) {
+            return new DiouNms(0.5f, Integer.MAX_VALUE);
+        } else if ("soft".equals(strategy)) {
+            return new SoftNms(SoftNms.Method.GAUSSIAN, 0.5f, 0.5f, scoreThresh, Integer.MAX_VALUE);
+        }
+        throw new IllegalArgumentException("Unknown strategy: " + strategy);
+    }
+
+    @Benchmark
+    public CandidateBuffer suppress() {
+        mSuppression.suppress(mCandidates, mKept);
+        return mKept;
+    }
+}
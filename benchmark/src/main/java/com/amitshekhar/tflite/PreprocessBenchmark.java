@@ -0,0 +1,80 @@
+package com.amitshekhar.tflite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packing ARGB pixels into the float input tensor, pooled against the per-image allocation
+ * it replaced, and into the uint8 input tensor of a quantized model.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreprocessBenchmark {
+
+    @Param({"YOLOV3", "TINY"})
+    public YoloFixture.Layout layout;
+
+    private InputPreprocessor mPreprocessor;
+    private InputPreprocessor mQuantizedPreprocessor;
+    private int[] mPixels;
+
+    @Setup
+    public void setup() {
+        mPreprocessor = new InputPreprocessor(layout.inputSize, 3);
+        mPixels = mPreprocessor.getPixels();
+        final Random random = new Random(1);
+        for (int i = 0; i < mPixels.length; i++) {
+            mPixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        mQuantizedPreprocessor = new InputPreprocessor(layout.inputSize, 3, 1,
+                new Quantization(1 / 255.0f, 0, false));
+        System.arraycopy(mPixels, 0, mQuantizedPreprocessor.getPixels(), 0, mPixels.length);
+    }
+
+    @Benchmark
+    public ByteBuffer pooled() {
+        return mPreprocessor.pack();
+    }
+
+    @Benchmark
+    public ByteBuffer quantized() {
+        return mQuantizedPreprocessor.pack();
+    }
+
+    @Benchmark
+    public ByteBuffer allocatePerImage() {
+        final int size = layout.inputSize;
+        final ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * size * size * 3);
+        byteBuffer.order(ByteOrder.nativeOrder());
+        final int[] intValues = new int[size * size];
+        System.arraycopy(mPixels, 0, intValues, 0, intValues.length);
+        int pixel = 0;
+        for (int i = 0; i < size; ++i) {
+            for (int j = 0; j < size; ++j) {
+                final int val = intValues[pixel++];
+                byteBuffer.putFloat(((val >> 16) & 0xFF) / 255.0f);
+                byteBuffer.putFloat(((val >> 8) & 0xFF) / 255.0f);
+                byteBuffer.putFloat((val & 0xFF) / 255.0f);
+            }
+        }
+        return byteBuffer;
+    }
+}
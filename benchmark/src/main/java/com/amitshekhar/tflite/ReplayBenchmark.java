@@ -0,0 +1,99 @@
+package com.amitshekhar.tflite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole frame through everything but the model: packing the input, a {@link ReplayBackend}
+ * run standing in for the interpreter, decode and suppression. Replays the recording
+ * {@code -Dyolo.replay.dir}/&lt;layout&gt;.yrp when set, e.g. pulled from a device running a
+ * {@link RecordingBackend}, otherwise one frame of synthetic heads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayBenchmark {
+
+    @Param({"YOLOV3", "TINY"})
+    public YoloFixture.Layout layout;
+
+    private InputPreprocessor mPreprocessor;
+    private ReplayBackend mBackend;
+    private OutputTensors mOutputs;
+    private ByteBuffer[] mOutputArray;
+    private YoloDetector mDetector;
+
+    @Setup
+    public void setup() throws IOException {
+        mPreprocessor = new InputPreprocessor(layout.inputSize, 3);
+        final int[] pixels = mPreprocessor.getPixels();
+        final Random random = new Random(1);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        mBackend = new ReplayBackend(recording(layout));
+        mOutputs = new OutputTensors(layout.outWidth, YoloFixture.NUM_BOXES_PER_BLOCK, layout.numClasses);
+        mOutputArray = new ByteBuffer[mOutputs.size()];
+        for (int i = 0; i < mOutputArray.length; i++) {
+            mOutputArray[i] = mOutputs.getBuffer(i);
+        }
+        mDetector = new YoloDetector(layout.numClasses, YoloFixture.NUM_BOXES_PER_BLOCK, layout.inputSize,
+                layout.anchors, layout.masks, layout.outWidth, new HardNms(0.5f, 100));
+        mDetector.setObjThresh(layout.objThresh);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mBackend.close();
+    }
+
+    @Benchmark
+    public CandidateBuffer frame() {
+        mBackend.run(mPreprocessor.pack(), mOutputArray);
+        return mDetector.detect(mOutputs, layout.inputSize, layout.inputSize);
+    }
+
+    private static File recording(YoloFixture.Layout layout) throws IOException {
+        final String dir = System.getProperty("yolo.replay.dir");
+        if (dir != null) {
+            return new File(dir, layout.name().toLowerCase() + ".yrp");
+        }
+        final OutputTensors outputs = YoloFixture.synthetic(layout, 0.01, 1);
+        final int[][] shapes = new int[outputs.size()][];
+        final ByteBuffer[] buffers = new ByteBuffer[outputs.size()];
+        for (int i = 0; i < shapes.length; i++) {
+            final int width = layout.outWidth[i];
+            shapes[i] = new int[]{1, width, width, YoloFixture.NUM_BOXES_PER_BLOCK * (5 + layout.numClasses)};
+            buffers[i] = outputs.getBuffer(i);
+        }
+        final File file = File.createTempFile(layout.name().toLowerCase(), ".yrp");
+        file.deleteOnExit();
+        final ReplayBackend.Writer writer = new ReplayBackend.Writer(file,
+                new int[]{1, layout.inputSize, layout.inputSize, 3}, null, shapes, new Quantization[shapes.length]);
+        try {
+            writer.append(buffers);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,152 @@
+package com.amitshekhar.tflite;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Output tensors for the two head layouts shipped with the app, either synthesized at a
+ * controllable candidate density or loaded from recorded interpreter outputs.
+ */
+public final class YoloFixture {
+
+    public enum Layout {
+        /** darknet53 on coco: 608 input, 19/38/76 heads, 80 classes. */
+        YOLOV3(608, new int[]{19, 38, 76}, 80, 0.6f,
+                new int[]{10,13,  16,30,  33,23,  30,61,  62,45,  59,119,  116,90,  156,198,  373,326},
+                new int[][]{{6,7,8},{3,4,5},{0,1,2}}),
+        /** yolov3-tiny on my_tiny.txt: 416 input, 13/26 heads, 7 classes. */
+        TINY(416, new int[]{13, 26}, 7, 0.1f,
+                new int[]{10,14,  23,27,  37,58, 81,82,  135,169,  344,319},
+                new int[][]{{3,4,5},{0,1,2}});
+
+        public final int inputSize;
+        public final int[] outWidth;
+        public final int numClasses;
+        public final float objThresh;
+        public final int[] anchors;
+        public final int[][] masks;
+
+        Layout(int inputSize, int[] outWidth, int numClasses, float objThresh, int[] anchors, int[][] masks) {
+            this.inputSize = inputSize;
+            this.outWidth = outWidth;
+            this.numClasses = numClasses;
+            this.objThresh = objThresh;
+            this.anchors = anchors;
+            this.masks = masks;
+        }
+
+        public int numAnchors() {
+            int anchors = 0;
+            for (int width : outWidth) {
+                anchors += width * width * NUM_BOXES_PER_BLOCK;
+            }
+            return anchors;
+        }
+    }
+
+    public static final int NUM_BOXES_PER_BLOCK = 3;
+
+    private YoloFixture() {
+    }
+
+    public static YoloDecoder decoder(Layout layout) {
+        final YoloDecoder decoder = new YoloDecoder(layout.numClasses, NUM_BOXES_PER_BLOCK, layout.inputSize,
+                layout.anchors, layout.masks, layout.outWidth);
+        decoder.setObjThresh(layout.objThresh);
+        return decoder;
+    }
+
+    /**
+     * Synthesizes output heads in which roughly {@code density} of all anchors pass the
+     * layout's threshold; every other anchor has a clearly negative objectness logit.
+     */
+    public static OutputTensors synthetic(Layout layout, double density, long seed) {
+        final Random random = new Random(seed);
+        final OutputTensors outputs = new OutputTensors(layout.outWidth, NUM_BOXES_PER_BLOCK, layout.numClasses);
+        final float cutoff = (float) Math.log(layout.objThresh / (1.0 - layout.objThresh));
+        final int stride = 5 + layout.numClasses;
+        for (int i = 0; i < outputs.size(); i++) {
+            final FloatBuffer out = outputs.getOutput(i);
+            for (int offset = 0; offset < out.capacity(); offset += stride) {
+                out.put(offset, (float) random.nextGaussian());
+                out.put(offset + 1, (float) random.nextGaussian());
+                out.put(offset + 2, (float) (random.nextGaussian() * 0.5));
+                out.put(offset + 3, (float) (random.nextGaussian() * 0.5));
+                for (int c = 0; c < layout.numClasses; c++) {
+                    out.put(offset + 5 + c, (float) random.nextGaussian());
+                }
+                if (random.nextDouble() < density) {
+                    out.put(offset + 4, cutoff + 1.0f + 5.0f * random.nextFloat());
+                    out.put(offset + 5 + random.nextInt(layout.numClasses), 12.0f);
+                } else {
+                    out.put(offset + 4, (float) (-8.0 + 2.0 * random.nextGaussian()));
+                }
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * Loads heads recorded from a real interpreter run: {@code head0.bin}, {@code head1.bin}, ...
+     * in {@code dir}, each holding the raw little-endian float32 output tensor.
+     */
+    public static OutputTensors recorded(Layout layout, File dir) throws IOException {
+        final OutputTensors outputs = new OutputTensors(layout.outWidth, NUM_BOXES_PER_BLOCK, layout.numClasses);
+        for (int i = 0; i < outputs.size(); i++) {
+            final File file = new File(dir, "head" + i + ".bin");
+            final ByteBuffer buffer = outputs.getBuffer(i);
+            if (file.length() != buffer.capacity()) {
+                throw new IOException(file + " holds " + file.length() + " bytes, expected " + buffer.capacity());
+            }
+            final byte[] bytes = new byte[buffer.capacity()];
+            final DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+            final FloatBuffer src = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            final FloatBuffer dst = outputs.getOutput(i);
+            dst.clear();
+            dst.put(src);
+            dst.clear();
+        }
+        return outputs;
+    }
+
+    /**
+     * Quantizes float heads into new uint8 heads with {@code quantization}, as the outputs of
+     * a quantized export of the same model would look.
+     */
+    public static OutputTensors quantized(Layout layout, OutputTensors outputs, Quantization quantization) {
+        final Quantization[] heads = new Quantization[outputs.size()];
+        for (int i = 0; i < heads.length; i++) {
+            heads[i] = quantization;
+        }
+        final OutputTensors quantized =
+                new OutputTensors(layout.outWidth, NUM_BOXES_PER_BLOCK, layout.numClasses, 1, heads);
+        for (int i = 0; i < heads.length; i++) {
+            final FloatBuffer src = outputs.getOutput(i);
+            final ByteBuffer dst = quantized.getQuantizedOutput(i);
+            for (int j = 0; j < src.capacity(); j++) {
+                dst.put(j, (byte) quantization.quantize(src.get(j)));
+            }
+        }
+        return quantized;
+    }
+
+    /** Loads recorded heads from {@code -Dyolo.fixture.dir} when set, otherwise synthesizes them. */
+    public static OutputTensors load(Layout layout, double density, long seed) throws IOException {
+        final String dir = System.getProperty("yolo.fixture.dir");
+        if (dir != null) {
+            return recorded(layout, new File(dir, layout.name().toLowerCase()));
+        }
+        return synthetic(layout, density, seed);
+    }
+}
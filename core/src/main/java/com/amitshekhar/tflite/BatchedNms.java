@@ -0,0 +1,133 @@
+package com.amitshekhar.tflite;
+
+import java.util.Arrays;
+
+/**
+ * Greedy non maximum suppression over a {@link CandidateBuffer}.
+ *
+ * Candidates are sorted once by score (as packed primitive keys), then bucketed by class with a
+ * stable counting pass so every bucket is already in descending score order. Boxes are kept in
+ * global score order and each kept box only scans the rest of its own bucket, which gives
+ * O(N log N + kept * N) overall and lets the loop stop once the cap has been reached.
+ * Subclasses decide when a kept box suppresses another one.
+ */
+public abstract class BatchedNms implements SuppressionStrategy {
+
+    private final int mMaxDetections;
+    private final boolean mClassAgnostic;
+
+    private long[] mKeys = new long[0];
+    private int[] mOrder = new int[0];
+    private int[] mPosition = new int[0];
+    private boolean[] mSuppressed = new boolean[0];
+    private int[] mBucketStart = new int[0];
+
+    protected BatchedNms(int maxDetections, boolean classAgnostic) {
+        mMaxDetections = maxDetections;
+        mClassAgnostic = classAgnostic;
+    }
+
+    /** Returns true when kept candidate {@code kept} suppresses candidate {@code other}. */
+    protected abstract boolean suppresses(float[] boxes, int kept, int other);
+
+    @Override
+    public void suppress(CandidateBuffer in, CandidateBuffer out) {
+        out.clear();
+        final int n = in.size();
+        if (n == 0 || mMaxDetections <= 0) {
+            return;
+        }
+        ensureCapacity(n);
+
+        int numClasses = 1;
+        if (!mClassAgnostic) {
+            for (int i = 0; i < n; i++) {
+                numClasses = Math.max(numClasses, in.classes[i] + 1);
+            }
+        }
+        sortAndBucket(in, n, numClasses);
+
+        final long[] keys = mKeys;
+        final int[] order = mOrder;
+        final int[] position = mPosition;
+        final int[] start = mBucketStart;
+        final float[] boxes = in.boxes;
+        final boolean[] suppressed = mSuppressed;
+        Arrays.fill(suppressed, 0, n, false);
+        for (int s = 0; s < n; s++) {
+            final int max = (int) keys[s];
+            final int p = position[max];
+            if (suppressed[p]) {
+                continue;
+            }
+            out.add(in, max);
+            if (out.size() == mMaxDetections) {
+                return;
+            }
+            final int end = start[bucketOf(in, max) + 1];
+            for (int t = p + 1; t < end; t++) {
+                if (!suppressed[t] && suppresses(boxes, max, order[t])) {
+                    suppressed[t] = true;
+                }
+            }
+        }
+    }
+
+    private int bucketOf(CandidateBuffer in, int i) {
+        return mClassAgnostic ? 0 : in.classes[i];
+    }
+
+    /**
+     * Sorts candidate indices by descending score into {@code mKeys}, then stably buckets them
+     * by class: bucket k covers {@code mOrder[mBucketStart[k] .. mBucketStart[k + 1])} and
+     * {@code mPosition[i]} is the slot of candidate i in {@code mOrder}.
+     */
+    private void sortAndBucket(CandidateBuffer in, int n, int numClasses) {
+        final long[] keys = mKeys;
+        for (int i = 0; i < n; i++) {
+            // high word orders by descending score, low word keeps equal scores in input order
+            keys[i] = ((long) ~sortableBits(in.scores[i]) << 32) | i;
+        }
+        Arrays.sort(keys, 0, n);
+
+        if (mBucketStart.length < numClasses + 1) {
+            mBucketStart = new int[numClasses + 1];
+        }
+        final int[] start = mBucketStart;
+        Arrays.fill(start, 0, numClasses + 1, 0);
+        for (int i = 0; i < n; i++) {
+            start[bucketOf(in, i) + 1]++;
+        }
+        for (int k = 0; k < numClasses; k++) {
+            start[k + 1] += start[k];
+        }
+
+        final int[] order = mOrder;
+        final int[] position = mPosition;
+        for (int s = 0; s < n; s++) {
+            final int index = (int) keys[s];
+            final int p = start[bucketOf(in, index)]++;
+            order[p] = index;
+            position[index] = p;
+        }
+        for (int k = numClasses; k > 0; k--) {
+            start[k] = start[k - 1];
+        }
+        start[0] = 0;
+    }
+
+    static int sortableBits(float value) {
+        final int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    private void ensureCapacity(int n) {
+        if (mKeys.length < n) {
+            final int capacity = Math.max(n, 2 * mKeys.length);
+            mKeys = new long[capacity];
+            mOrder = new int[capacity];
+            mPosition = new int[capacity];
+            mSuppressed = new boolean[capacity];
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.amitshekhar.tflite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Feeds queued inputs to a batch detector in batches whose size follows the queue depth: a
+ * lone request runs as a batch of one, while a backlog, such as a gallery back-fill, is drained
+ * up to {@code maxBatch} inputs per invocation so the per-invoke overhead is amortized over
+ * the batch. The queue is bounded, so {@link #submit} blocks producers that run ahead.
+ *
+ * Callbacks run on the batching thread. When the detector throws, every input of the batch
+ * fails with its exception; inputs still queued on {@link #shutdown()} fail with a
+ * {@link CancellationException}.
+ *
+ * @param <I> input of a detection, such as an image path.
+ * @param <R> its result.
+ */
+public class BatchingDetector<I, R> {
+
+    public interface Detector<I, R> {
+        /** Detects on all {@code inputs} at once and returns one result per input, in order. */
+        List<R> detect(List<I> inputs) throws Exception;
+    }
+
+    private static class Request<I, R> {
+        final I input;
+        final DetectionService.Callback<I, R> callback;
+
+        Request(I input, DetectionService.Callback<I, R> callback) {
+            this.input = input;
+            this.callback = callback;
+        }
+    }
+
+    private final Detector<I, R> mDetector;
+    private final int mMaxBatch;
+    private final BlockingQueue<Request<I, R>> mQueue;
+    private final Thread mWorker;
+    // wakes the worker on shutdown without interrupting a running batch
+    private final Request<I, R> mStop = new Request<>(null, null);
+    private volatile boolean mShutdown;
+
+    private final Object mLock = new Object();
+    private long mBatches;
+    private long mInputs;
+    private long mFailed;
+
+    /**
+     * @param maxBatch      inputs handed to the detector at most at once.
+     * @param queueCapacity inputs that may wait before {@link #submit} blocks.
+     */
+    public BatchingDetector(Detector<I, R> detector, int maxBatch, int queueCapacity) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("maxBatch must be at least 1: " + maxBatch);
+        }
+        mDetector = detector;
+        mMaxBatch = maxBatch;
+        mQueue = new ArrayBlockingQueue<>(queueCapacity);
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "BatchingDetector");
+        mWorker.start();
+    }
+
+    public int getMaxBatch() {
+        return mMaxBatch;
+    }
+
+    /**
+     * Queues {@code input}, blocking while the queue is full.
+     *
+     * @throws RejectedExecutionException if the detector shut down.
+     */
+    public void submit(I input, DetectionService.Callback<I, R> callback) throws InterruptedException {
+        if (mShutdown) {
+            throw new RejectedExecutionException("BatchingDetector shut down");
+        }
+        final Request<I, R> request = new Request<>(input, callback);
+        mQueue.put(request);
+        // a request the worker did not drain before exiting would never be answered
+        if (mShutdown && mQueue.remove(request)) {
+            throw new RejectedExecutionException("BatchingDetector shut down");
+        }
+    }
+
+    /**
+     * Fails what is still queued and stops once the running batch has finished, which is
+     * never interrupted, without waiting for it; see {@link #awaitTermination}.
+     */
+    public void shutdown() {
+        mShutdown = true;
+        // a full queue keeps the worker from blocking until it sees the flag
+        mQueue.offer(mStop);
+    }
+
+    /**
+     * Waits up to {@code timeoutMillis} after {@link #shutdown()} for the running batch to
+     * finish; returns false on timeout.
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        mWorker.join(timeoutMillis);
+        return !mWorker.isAlive();
+    }
+
+    /** Detector invocations so far. */
+    public long getBatches() {
+        synchronized (mLock) {
+            return mBatches;
+        }
+    }
+
+    /** Inputs detected on so far, successfully or not. */
+    public long getInputs() {
+        synchronized (mLock) {
+            return mInputs;
+        }
+    }
+
+    /** Inputs whose batch the detector threw on. */
+    public long getFailed() {
+        synchronized (mLock) {
+            return mFailed;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "BatchingDetector{batches=" + mBatches + ", inputs=" + mInputs + ", failed=" + mFailed
+                    + ", queued=" + mQueue.size() + "}";
+        }
+    }
+
+    private void loop() {
+        final List<Request<I, R>> batch = new ArrayList<>(mMaxBatch);
+        final List<I> inputs = new ArrayList<>(mMaxBatch);
+        while (!mShutdown) {
+            try {
+                batch.add(mQueue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            mQueue.drainTo(batch, mMaxBatch - 1);
+            batch.remove(mStop);
+            if (batch.isEmpty()) {
+                continue;
+            }
+            for (Request<I, R> request : batch) {
+                inputs.add(request.input);
+            }
+            run(batch, inputs);
+            batch.clear();
+            inputs.clear();
+        }
+        mQueue.drainTo(batch);
+        batch.remove(mStop);
+        final CancellationException cancelled = new CancellationException("BatchingDetector shut down");
+        for (Request<I, R> request : batch) {
+            request.callback.onFailure(request.input, cancelled);
+        }
+    }
+
+    private void run(List<Request<I, R>> batch, List<I> inputs) {
+        List<R> results = null;
+        Exception error = null;
+        try {
+            results = mDetector.detect(inputs);
+            if (results.size() != inputs.size()) {
+                throw new IllegalStateException(results.size() + " results for " + inputs.size() + " inputs");
+            }
+        } catch (Exception e) {
+            error = e;
+        }
+        synchronized (mLock) {
+            mBatches++;
+            mInputs += batch.size();
+            if (error != null) {
+                mFailed += batch.size();
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            final Request<I, R> request = batch.get(i);
+            if (error == null) {
+                request.callback.onResult(request.input, results.get(i));
+            } else {
+                request.callback.onFailure(request.input, error);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.amitshekhar.tflite;
+
+/**
+ * IoU helpers over boxes packed as left, top, right, bottom quadruples, so suppression can
+ * run on primitive arrays instead of copying a {@code RectF} for every pair.
+ */
+public final class BoxMath {
+
+    private BoxMath() {
+    }
+
+    public static float area(float[] boxes, int i) {
+        final int a = 4 * i;
+        return (boxes[a + 2] - boxes[a]) * (boxes[a + 3] - boxes[a + 1]);
+    }
+
+    public static float intersection(float[] boxes, int i, int j) {
+        final int a = 4 * i;
+        final int b = 4 * j;
+        final float w = Math.min(boxes[a + 2], boxes[b + 2]) - Math.max(boxes[a], boxes[b]);
+        final float h = Math.min(boxes[a + 3], boxes[b + 3]) - Math.max(boxes[a + 1], boxes[b + 1]);
+        if (w < 0 || h < 0) return 0;
+        return w * h;
+    }
+
+    public static float iou(float[] boxes, int i, int j) {
+        final float intersection = intersection(boxes, i, j);
+        return intersection / (area(boxes, i) + area(boxes, j) - intersection);
+    }
+
+    /**
+     * Distance-IoU: the IoU minus the squared distance between the box centers, normalized by
+     * the squared diagonal of the smallest box enclosing both.
+     */
+    public static float diou(float[] boxes, int i, int j) {
+        final int a = 4 * i;
+        final int b = 4 * j;
+        final float dx = (boxes[a] + boxes[a + 2]) - (boxes[b] + boxes[b + 2]);
+        final float dy = (boxes[a + 1] + boxes[a + 3]) - (boxes[b + 1] + boxes[b + 3]);
+        final float cw = Math.max(boxes[a + 2], boxes[b + 2]) - Math.min(boxes[a], boxes[b]);
+        final float ch = Math.max(boxes[a + 3], boxes[b + 3]) - Math.min(boxes[a + 1], boxes[b + 1]);
+        final float diagonal = cw * cw + ch * ch;
+        final float iou = iou(boxes, i, j);
+        if (diagonal <= 0) return iou;
+        // dx and dy are twice the center distance, hence the factor 4 on the diagonal
+        return iou - (dx * dx + dy * dy) / (4 * diagonal);
+    }
+}
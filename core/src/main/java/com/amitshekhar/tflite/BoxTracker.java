@@ -0,0 +1,279 @@
+package com.amitshekhar.tflite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Gives detections stable track ids across frames and predicts boxes on the frames in
+ * between detections, so the model only has to run every few frames.
+ *
+ * Each track moves with constant velocity from its last matched detection. On a detection frame
+ * all tracks are predicted to the frame time and matched to the detections of the same class by
+ * minimum total (1 - IoU) with {@link Hungarian}; pairs below the IoU threshold are not
+ * matched. Matched tracks take the detected box and blend the measured velocity into their
+ * estimate, unmatched detections start new tracks, and tracks left unmatched for
+ * {@code maxMisses} detection frames in a row are dropped. A track's confidence is its last
+ * detection score, halving every {@code confidenceHalfLifeNanos} while it is only predicted.
+ *
+ * {@link #scheduleDetection()} decides per frame whether to run the model: every
+ * {@code detectionInterval} frames, or as soon as any track's confidence has decayed below
+ * {@code minConfidence}. All methods are synchronized, so the decision can be taken on another
+ * thread than the updates.
+ */
+public class BoxTracker {
+
+    /** Share of a new velocity measurement blended into the estimate. */
+    static final float VELOCITY_GAIN = 0.5f;
+    // cost of pairs that must not be matched, larger than any real 1 - IoU
+    private static final double NO_MATCH = 1e6;
+
+    private final float mIouThresh;
+    private final int mMaxMisses;
+    private int mDetectionInterval = 1;
+    private float mMinConfidence;
+    private long mConfidenceHalfLifeNanos = 1000000000L;
+
+    private final List<Track> mTracks = new ArrayList<>();
+    private int mNextId;
+    private int mFramesSinceDetection;
+    private boolean mStarted;
+
+    /**
+     * A tracked object. Coordinates are those of the detections it was built from.
+     */
+    public static final class Track {
+        final int mId;
+        final int mClass;
+        // box and time of the last matched detection, and center velocity in pixels per second
+        float mLeft, mTop, mRight, mBottom;
+        long mTimestamp;
+        float mVx, mVy;
+        boolean mHasVelocity;
+        float mScore;
+        int mMisses;
+        int mHits;
+        // current prediction
+        float mPredLeft, mPredTop, mPredRight, mPredBottom;
+        float mConfidence;
+
+        Track(int id, CandidateBuffer detections, int i, long timestamp, long halfLifeNanos) {
+            mId = id;
+            mClass = detections.classes[i];
+            set(detections, i, timestamp);
+            predict(timestamp, halfLifeNanos);
+        }
+
+        void set(CandidateBuffer detections, int i, long timestamp) {
+            mLeft = detections.boxes[4 * i];
+            mTop = detections.boxes[4 * i + 1];
+            mRight = detections.boxes[4 * i + 2];
+            mBottom = detections.boxes[4 * i + 3];
+            mScore = detections.scores[i];
+            mTimestamp = timestamp;
+            mHits++;
+        }
+
+        void predict(long timestamp, long halfLifeNanos) {
+            final float dt = (timestamp - mTimestamp) / 1e9f;
+            final float dx = mVx * dt;
+            final float dy = mVy * dt;
+            mPredLeft = mLeft + dx;
+            mPredTop = mTop + dy;
+            mPredRight = mRight + dx;
+            mPredBottom = mBottom + dy;
+            mConfidence = (float) (mScore * Math.pow(0.5, (timestamp - mTimestamp) / (double) halfLifeNanos));
+        }
+
+        public int getId() {
+            return mId;
+        }
+
+        public int getDetectedClass() {
+            return mClass;
+        }
+
+        public float getLeft() {
+            return mPredLeft;
+        }
+
+        public float getTop() {
+            return mPredTop;
+        }
+
+        public float getRight() {
+            return mPredRight;
+        }
+
+        public float getBottom() {
+            return mPredBottom;
+        }
+
+        public float getConfidence() {
+            return mConfidence;
+        }
+
+        /** Number of detections matched to this track, including the one that started it. */
+        public int getHits() {
+            return mHits;
+        }
+    }
+
+    /**
+     * @param iouThresh minimum IoU between a predicted track and a detection to match them.
+     * @param maxMisses detection frames a track survives without being matched.
+     */
+    public BoxTracker(float iouThresh, int maxMisses) {
+        mIouThresh = iouThresh;
+        mMaxMisses = maxMisses;
+    }
+
+    /** Run the model on every {@code interval}-th frame; 1 detects on every frame. */
+    public synchronized void setDetectionInterval(int interval) {
+        mDetectionInterval = Math.max(1, interval);
+    }
+
+    /** Detect early once a track's decayed confidence drops below {@code minConfidence}. */
+    public synchronized void setMinConfidence(float minConfidence) {
+        mMinConfidence = minConfidence;
+    }
+
+    public synchronized void setConfidenceHalfLife(long halfLifeNanos) {
+        mConfidenceHalfLifeNanos = halfLifeNanos;
+    }
+
+    /**
+     * Decides whether the next frame is run through the model. Call exactly once per frame,
+     * then pass the frame to {@link #update} if it returned true and to {@link #predict}
+     * otherwise.
+     */
+    public synchronized boolean scheduleDetection() {
+        boolean detect = ++mFramesSinceDetection >= mDetectionInterval || !mStarted;
+        for (int i = 0; i < mTracks.size() && !detect; i++) {
+            detect = mTracks.get(i).mConfidence < mMinConfidence;
+        }
+        if (detect) {
+            mFramesSinceDetection = 0;
+            mStarted = true;
+        }
+        return detect;
+    }
+
+    /** Moves every track to {@code timestampNanos} without new detections. */
+    public synchronized void predict(long timestampNanos) {
+        for (int i = 0; i < mTracks.size(); i++) {
+            mTracks.get(i).predict(timestampNanos, mConfidenceHalfLifeNanos);
+        }
+    }
+
+    /**
+     * Associates the detections of a frame taken at {@code timestampNanos} with the tracks.
+     */
+    public synchronized void update(CandidateBuffer detections, long timestampNanos) {
+        predict(timestampNanos);
+        final int numTracks = mTracks.size();
+        final int numDetections = detections.size();
+        final int[] match = new int[numDetections];
+        Arrays.fill(match, -1);
+
+        if (numTracks > 0 && numDetections > 0) {
+            final double[][] cost = new double[numTracks][numDetections];
+            final float[] pair = new float[8];
+            for (int t = 0; t < numTracks; t++) {
+                final Track track = mTracks.get(t);
+                pair[0] = track.mPredLeft;
+                pair[1] = track.mPredTop;
+                pair[2] = track.mPredRight;
+                pair[3] = track.mPredBottom;
+                for (int d = 0; d < numDetections; d++) {
+                    if (detections.classes[d] != track.mClass) {
+                        cost[t][d] = NO_MATCH;
+                        continue;
+                    }
+                    System.arraycopy(detections.boxes, 4 * d, pair, 4, 4);
+                    final float iou = BoxMath.iou(pair, 0, 1);
+                    cost[t][d] = iou >= mIouThresh ? 1.0 - iou : NO_MATCH;
+                }
+            }
+            final int[] assignment = Hungarian.assign(cost);
+            for (int t = 0; t < numTracks; t++) {
+                final int d = assignment[t];
+                if (d >= 0 && cost[t][d] < NO_MATCH) {
+                    match[d] = t;
+                }
+            }
+        }
+
+        final boolean[] matched = new boolean[numTracks];
+        for (int d = 0; d < numDetections; d++) {
+            if (match[d] >= 0) {
+                final Track track = mTracks.get(match[d]);
+                matched[match[d]] = true;
+                correct(track, detections, d, timestampNanos);
+            }
+        }
+
+        for (int t = numTracks - 1; t >= 0; t--) {
+            if (!matched[t] && ++mTracks.get(t).mMisses > mMaxMisses) {
+                mTracks.remove(t);
+            }
+        }
+        for (int d = 0; d < numDetections; d++) {
+            if (match[d] < 0) {
+                mTracks.add(new Track(mNextId++, detections, d, timestampNanos, mConfidenceHalfLifeNanos));
+            }
+        }
+    }
+
+    private void correct(Track track, CandidateBuffer detections, int d, long timestampNanos) {
+        final float dt = (timestampNanos - track.mTimestamp) / 1e9f;
+        final float centerX = (track.mLeft + track.mRight) / 2;
+        final float centerY = (track.mTop + track.mBottom) / 2;
+        track.set(detections, d, timestampNanos);
+        if (dt > 0) {
+            final float vx = ((track.mLeft + track.mRight) / 2 - centerX) / dt;
+            final float vy = ((track.mTop + track.mBottom) / 2 - centerY) / dt;
+            if (track.mHasVelocity) {
+                track.mVx += VELOCITY_GAIN * (vx - track.mVx);
+                track.mVy += VELOCITY_GAIN * (vy - track.mVy);
+            } else {
+                track.mVx = vx;
+                track.mVy = vy;
+                track.mHasVelocity = true;
+            }
+        }
+        track.mMisses = 0;
+        track.predict(timestampNanos, mConfidenceHalfLifeNanos);
+    }
+
+    /** Number of live tracks. */
+    public synchronized int size() {
+        return mTracks.size();
+    }
+
+    /**
+     * The live tracks. The list is a copy, but the tracks in it keep moving with later calls.
+     */
+    public synchronized List<Track> getTracks() {
+        return new ArrayList<>(mTracks);
+    }
+
+    /**
+     * Writes the current prediction of every track into {@code dst}: the box, the decayed
+     * confidence as score, the class, and the track id as offset.
+     */
+    public synchronized void getBoxes(CandidateBuffer dst) {
+        dst.clear();
+        for (int i = 0; i < mTracks.size(); i++) {
+            final Track track = mTracks.get(i);
+            dst.add(track.mPredLeft, track.mPredTop, track.mPredRight, track.mPredBottom,
+                    track.mConfidence, track.mClass, track.mId);
+        }
+    }
+
+    public synchronized void clear() {
+        mTracks.clear();
+        mFramesSinceDetection = 0;
+        mStarted = false;
+    }
+}
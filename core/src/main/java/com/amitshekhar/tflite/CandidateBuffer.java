@@ -0,0 +1,81 @@
+package com.amitshekhar.tflite;
+
+import java.util.Arrays;
+
+/**
+ * Growable struct-of-arrays holding decoded boxes before suppression. Boxes are stored as
+ * left, top, right, bottom quadruples so they line up with {@code RectF}.
+ */
+public class CandidateBuffer {
+
+    public float[] boxes;
+    public float[] scores;
+    public int[] classes;
+    public int[] offsets;
+
+    private int mSize;
+
+    public CandidateBuffer() {
+        this(64);
+    }
+
+    public CandidateBuffer(int capacity) {
+        capacity = Math.max(1, capacity);
+        boxes = new float[4 * capacity];
+        scores = new float[capacity];
+        classes = new int[capacity];
+        offsets = new int[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    public void add(float left, float top, float right, float bottom,
+                    float score, int detectedClass, int offset) {
+        if (mSize == scores.length) {
+            grow();
+        }
+        final int b = 4 * mSize;
+        boxes[b] = left;
+        boxes[b + 1] = top;
+        boxes[b + 2] = right;
+        boxes[b + 3] = bottom;
+        scores[mSize] = score;
+        classes[mSize] = detectedClass;
+        offsets[mSize] = offset;
+        mSize++;
+    }
+
+    /** Appends candidate {@code i} of {@code src}. */
+    public void add(CandidateBuffer src, int i) {
+        final int b = 4 * i;
+        add(src.boxes[b], src.boxes[b + 1], src.boxes[b + 2], src.boxes[b + 3],
+                src.scores[i], src.classes[i], src.offsets[i]);
+    }
+
+    /** Appends every candidate of {@code src}. */
+    public void addAll(CandidateBuffer src) {
+        final int size = src.mSize;
+        while (mSize + size > scores.length) {
+            grow();
+        }
+        System.arraycopy(src.boxes, 0, boxes, 4 * mSize, 4 * size);
+        System.arraycopy(src.scores, 0, scores, mSize, size);
+        System.arraycopy(src.classes, 0, classes, mSize, size);
+        System.arraycopy(src.offsets, 0, offsets, mSize, size);
+        mSize += size;
+    }
+
+    private void grow() {
+        final int capacity = scores.length * 2;
+        boxes = Arrays.copyOf(boxes, 4 * capacity);
+        scores = Arrays.copyOf(scores, capacity);
+        classes = Arrays.copyOf(classes, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+    }
+}
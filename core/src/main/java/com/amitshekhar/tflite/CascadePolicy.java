@@ -0,0 +1,234 @@
+package com.amitshekhar.tflite;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when the result of a cheap screening model, such as YOLOv3-tiny, is good enough and
+ * when a full model has to look at the image, and keeps count of how often each happens.
+ *
+ * A cheap detection scoring at or above the band's upper bound is trusted, one below its lower
+ * bound is dropped as noise, and one inside the band is uncertain. The decision is:
+ * <ul>
+ * <li>{@link #ACCEPT} when no detection is uncertain, unless the cheap model found nothing on
+ * a busy scene, where it more likely missed objects than the scene is empty;</li>
+ * <li>{@link #REGION} when the uncertain detections, grown by half their size on every side
+ * for context, cover at most the given share of the image: only that rect goes through the
+ * full model;</li>
+ * <li>{@link #FULL} otherwise.</li>
+ * </ul>
+ * How busy a scene is comes from {@link #busyness}, the mean luminance gradient of the image.
+ * Decisions keep no state, so one policy can serve any number of threads.
+ */
+public class CascadePolicy {
+
+    public static final int ACCEPT = 0;
+    public static final int REGION = 1;
+    public static final int FULL = 2;
+
+    private static final String[] PATHS = {"accept", "region", "full"};
+
+    /** Distance in pixels between the samples of {@link #busyness}. */
+    static final int SAMPLE_STEP = 4;
+
+    private final float mBandLow;
+    private final float mBandHigh;
+    private volatile float mBusyThresh = Float.MAX_VALUE;
+    private volatile float mMaxRegionArea;
+
+    private final Histogram[] mLatency = {new Histogram(), new Histogram(), new Histogram()};
+    private final AtomicLong mBusyEscalations = new AtomicLong();
+
+    /**
+     * @param bandLow  cheap detections scoring below are dropped.
+     * @param bandHigh cheap detections scoring at or above are trusted.
+     */
+    public CascadePolicy(float bandLow, float bandHigh) {
+        if (!(bandLow <= bandHigh)) {
+            throw new IllegalArgumentException("band: " + bandLow + " > " + bandHigh);
+        }
+        mBandLow = bandLow;
+        mBandHigh = bandHigh;
+    }
+
+    /**
+     * Escalate an empty cheap result when {@link #busyness} reaches {@code thresh}, out of 255;
+     * by default empty results are accepted.
+     */
+    public CascadePolicy setBusyThresh(float thresh) {
+        mBusyThresh = thresh;
+        return this;
+    }
+
+    /**
+     * Largest share of the image the full model is run on as a region rather than whole; 0,
+     * the default, always runs it on the whole image, as needed when the two models do not
+     * share their labels.
+     */
+    public CascadePolicy setMaxRegionArea(float maxRegionArea) {
+        mMaxRegionArea = maxRegionArea;
+        return this;
+    }
+
+    public float getMaxRegionArea() {
+        return mMaxRegionArea;
+    }
+
+    public float getBandLow() {
+        return mBandLow;
+    }
+
+    public float getBandHigh() {
+        return mBandHigh;
+    }
+
+    /**
+     * Decides on the final detections {@code cheap} of the screening model.
+     *
+     * @param width    width of the image the detections are in.
+     * @param height   height of the image the detections are in.
+     * @param busyness {@link #busyness} of the image, only needed when {@link #needsBusyness}.
+     * @param region   receives the rect to run the full model on as fractions of the image,
+     *                 left, top, right, bottom, when the decision is {@link #REGION}.
+     */
+    public int decide(CandidateBuffer cheap, float width, float height, float busyness, float[] region) {
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        int uncertain = 0;
+        int kept = 0;
+        final float[] boxes = cheap.boxes;
+        for (int i = 0; i < cheap.size(); i++) {
+            final float score = cheap.scores[i];
+            if (score >= mBandHigh) {
+                kept++;
+            } else if (score >= mBandLow) {
+                uncertain++;
+                left = Math.min(left, boxes[4 * i]);
+                top = Math.min(top, boxes[4 * i + 1]);
+                right = Math.max(right, boxes[4 * i + 2]);
+                bottom = Math.max(bottom, boxes[4 * i + 3]);
+            }
+        }
+        if (uncertain == 0) {
+            if (kept == 0 && busyness >= mBusyThresh) {
+                mBusyEscalations.incrementAndGet();
+                return FULL;
+            }
+            return ACCEPT;
+        }
+
+        final float padX = (right - left) / 2;
+        final float padY = (bottom - top) / 2;
+        region[0] = Math.max(0.0f, (left - padX) / width);
+        region[1] = Math.max(0.0f, (top - padY) / height);
+        region[2] = Math.min(1.0f, (right + padX) / width);
+        region[3] = Math.min(1.0f, (bottom + padY) / height);
+        final float area = (region[2] - region[0]) * (region[3] - region[1]);
+        return area > 0 && area <= mMaxRegionArea ? REGION : FULL;
+    }
+
+    /**
+     * True when {@link #decide} reads the busyness of the image for {@code cheap}: when no
+     * detection scores at or above the band's lower bound, so callers can skip measuring it
+     * otherwise.
+     */
+    public boolean needsBusyness(CandidateBuffer cheap) {
+        for (int i = 0; i < cheap.size(); i++) {
+            if (cheap.scores[i] >= mBandLow) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the detections of {@code cheap} that are trusted without escalation to {@code dst}.
+     */
+    public void addConfident(CandidateBuffer cheap, CandidateBuffer dst) {
+        for (int i = 0; i < cheap.size(); i++) {
+            if (cheap.scores[i] >= mBandHigh) {
+                dst.add(cheap, i);
+            }
+        }
+    }
+
+    /**
+     * Mean absolute luminance difference, out of 255, between neighbouring samples
+     * {@link #SAMPLE_STEP} pixels apart across and down {@code argb}: near 0 for a blank wall,
+     * 20 and more for a cluttered street.
+     */
+    public static float busyness(int[] argb, int width, int height) {
+        long sum = 0;
+        int count = 0;
+        for (int y = 0; y + SAMPLE_STEP < height; y += SAMPLE_STEP) {
+            final int row = y * width;
+            for (int x = 0; x + SAMPLE_STEP < width; x += SAMPLE_STEP) {
+                final int luma = luma(argb[row + x]);
+                sum += Math.abs(luma - luma(argb[row + x + SAMPLE_STEP]));
+                sum += Math.abs(luma - luma(argb[row + SAMPLE_STEP * width + x]));
+                count += 2;
+            }
+        }
+        return count > 0 ? sum / (float) count : 0.0f;
+    }
+
+    // BT.601 luma in fixed point
+    private static int luma(int argb) {
+        return (77 * ((argb >> 16) & 0xff) + 150 * ((argb >> 8) & 0xff) + 29 * (argb & 0xff)) >> 8;
+    }
+
+    /** Records the end-to-end latency of one image that took {@code path}. */
+    public void record(int path, long nanos) {
+        mLatency[path].record(nanos);
+    }
+
+    /** Latencies of the images that took {@code path}, one of {@link #ACCEPT}, {@link #REGION}, {@link #FULL}. */
+    public Histogram.Snapshot snapshot(int path) {
+        return mLatency[path].snapshot();
+    }
+
+    /** Share of the recorded images that went through the full model, whole or as a region. */
+    public float getEscalationRate() {
+        final long accepted = mLatency[ACCEPT].snapshot().getCount();
+        final long escalated = mLatency[REGION].snapshot().getCount() + mLatency[FULL].snapshot().getCount();
+        final long total = accepted + escalated;
+        return total > 0 ? escalated / (float) total : 0.0f;
+    }
+
+    /** Escalations of empty results on busy scenes, counted on every such decision. */
+    public long getBusyEscalations() {
+        return mBusyEscalations.get();
+    }
+
+    public void reset() {
+        for (Histogram histogram : mLatency) {
+            histogram.reset();
+        }
+        mBusyEscalations.set(0);
+    }
+
+    /** The escalation rate, then count, p50, p95 and p99 in milliseconds of every path taken. */
+    public String report() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "escalated: %.1f%% (busy: %d)%n",
+                100 * getEscalationRate(), getBusyEscalations()));
+        for (int path = ACCEPT; path <= FULL; path++) {
+            final Histogram.Snapshot snapshot = snapshot(path);
+            if (snapshot.getCount() > 0) {
+                builder.append(String.format(Locale.US, "%s: n=%d p50=%.2fms p95=%.2fms p99=%.2fms%n",
+                        PATHS[path], snapshot.getCount(), snapshot.getP50() / 1e6,
+                        snapshot.getP95() / 1e6, snapshot.getP99() / 1e6));
+            }
+        }
+        return builder.toString();
+    }
+
+    /** The band and thresholds, to key cached results of a cascade. */
+    @Override
+    public String toString() {
+        return "CascadePolicy{band=" + mBandLow + ".." + mBandHigh + ", busy=" + mBusyThresh
+                + ", maxRegion=" + mMaxRegionArea + "}";
+    }
+}
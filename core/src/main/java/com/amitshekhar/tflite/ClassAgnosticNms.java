@@ -0,0 +1,12 @@
+package com.amitshekhar.tflite;
+
+/**
+ * Hard NMS that ignores class ids, so overlapping boxes of different classes also suppress each
+ * other. Together with a small cap this bounds post-processing time on cluttered scenes.
+ */
+public class ClassAgnosticNms extends HardNms {
+
+    public ClassAgnosticNms(float iouThresh, int maxDetections) {
+        super(iouThresh, maxDetections, true);
+    }
+}
@@ -0,0 +1,73 @@
+package com.amitshekhar.tflite;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Final detections of one image as parallel primitive arrays: boxes as left, top, right, bottom
+ * quadruples, scores, class ids and anchor offsets, plus the label list the class ids index.
+ *
+ * A batch is meant to be kept by the caller and refilled for every image, so reading thousands
+ * of boxes allocates nothing once the arrays have grown to the largest result seen.
+ */
+public class DetectionBatch extends CandidateBuffer {
+
+    private List<String> mLabels = Collections.emptyList();
+
+    public DetectionBatch() {
+        super();
+    }
+
+    public DetectionBatch(int capacity) {
+        super(capacity);
+    }
+
+    /** Replaces the contents with {@code detections}, whose class ids index {@code labels}. */
+    public void set(CandidateBuffer detections, List<String> labels) {
+        clear();
+        addAll(detections);
+        mLabels = labels;
+    }
+
+    /** Sets the list the class ids index, e.g. after filling the batch with {@link #add}. */
+    public void setLabels(List<String> labels) {
+        mLabels = labels;
+    }
+
+    public List<String> getLabels() {
+        return mLabels;
+    }
+
+    public float getLeft(int i) {
+        return boxes[4 * i];
+    }
+
+    public float getTop(int i) {
+        return boxes[4 * i + 1];
+    }
+
+    public float getRight(int i) {
+        return boxes[4 * i + 2];
+    }
+
+    public float getBottom(int i) {
+        return boxes[4 * i + 3];
+    }
+
+    public float getScore(int i) {
+        return scores[i];
+    }
+
+    public int getDetectedClass(int i) {
+        return classes[i];
+    }
+
+    /** Offset of the anchor the detection was decoded from, or its track id when tracked. */
+    public int getOffset(int i) {
+        return offsets[i];
+    }
+
+    public String getLabel(int i) {
+        return mLabels.get(classes[i]);
+    }
+}
@@ -0,0 +1,324 @@
+package com.amitshekhar.tflite;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Final detections of images seen before, so opening the same photo again skips decode,
+ * preprocessing and the model. Results are keyed by {@link #key}, a 64 bit hash of the image
+ * identity and of everything that changes the result, such as the model and its thresholds.
+ *
+ * Results are held in two tiers. In memory, an LRU of compact records bounded in bytes. On
+ * disk, optionally, an append-only data file plus an index of (key, offset) pairs, which is
+ * memory-mapped and read once on open. A result evicted from memory stays on disk and is
+ * promoted back on its next hit. Writes append a record and then its index entry; an entry
+ * whose record was torn by a crash is ignored on open. A write that would take the data file
+ * past its bound drops the disk tier first, which then starts over; so does opening a data
+ * file already past it.
+ *
+ * A record is the detection count followed by left, top, right, bottom, score, class and
+ * offset of every detection. Labels are not stored; the caller supplies the list the class
+ * ids index. All methods are synchronized, so one cache can serve several detect threads.
+ */
+public class DetectionCache implements Closeable {
+
+    private static final int DETECTION_BYTES = 7 * 4;
+    private static final int INDEX_ENTRY_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 8 + 4;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final LinkedHashMap<Long, byte[]> mMemory = new LinkedHashMap<>(16, 0.75f, true);
+    private final long mMaxMemoryBytes;
+    private long mMemoryBytes;
+
+    private final Map<Long, Long> mDiskIndex = new HashMap<>();
+    private FileChannel mData;
+    private FileChannel mIndex;
+    private long mMaxDiskBytes;
+
+    private long mHits;
+    private long mDiskHits;
+    private long mMisses;
+    private long mEvictions;
+
+    /** A cache held in memory only. */
+    public DetectionCache(long maxMemoryBytes) {
+        mMaxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * A cache that also persists results in {@code dir}, which is created if needed.
+     *
+     * @param maxDiskBytes size the data file is kept within; a result larger than that is
+     *                     only held in memory.
+     */
+    public DetectionCache(long maxMemoryBytes, File dir, long maxDiskBytes) throws IOException {
+        this(maxMemoryBytes);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        final File dataFile = new File(dir, "detections.dat");
+        final File indexFile = new File(dir, "detections.idx");
+        if (dataFile.length() > maxDiskBytes) {
+            dataFile.delete();
+            indexFile.delete();
+        }
+        mMaxDiskBytes = maxDiskBytes;
+        mData = new RandomAccessFile(dataFile, "rw").getChannel();
+        mIndex = new RandomAccessFile(indexFile, "rw").getChannel();
+        loadIndex();
+    }
+
+    private void loadIndex() throws IOException {
+        final long dataSize = mData.size();
+        final long entries = mIndex.size() / INDEX_ENTRY_BYTES;
+        final MappedByteBuffer mapped = mIndex.map(FileChannel.MapMode.READ_ONLY, 0, entries * INDEX_ENTRY_BYTES);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long valid = 0;
+        for (long i = 0; i < entries; i++) {
+            final long key = mapped.getLong();
+            final long offset = mapped.getLong();
+            if (offset < 0 || offset + RECORD_HEADER_BYTES > dataSize) {
+                break;
+            }
+            header.clear();
+            readFully(header, offset);
+            final int count = header.getInt(8);
+            if (header.getLong(0) != key || count < 0
+                    || offset + RECORD_HEADER_BYTES + recordBytes(count) > dataSize) {
+                break;
+            }
+            mDiskIndex.put(key, offset);
+            valid++;
+        }
+        // drop a torn tail so new entries append right after the last good one
+        mIndex.truncate(valid * INDEX_ENTRY_BYTES);
+        mIndex.position(valid * INDEX_ENTRY_BYTES);
+    }
+
+    /**
+     * Key of an image file, identified by path, size and modification time, for the model and
+     * settings {@code model} describes, e.g. {@link ModelDescriptor#getCacheKey()}.
+     */
+    public static long key(String path, long length, long lastModified, String model) {
+        long hash = hash(FNV_OFFSET, path);
+        hash = hash(hash, length);
+        hash = hash(hash, lastModified);
+        return mix(hash(hash, model));
+    }
+
+    /** Key of an image given by its encoded bytes, for {@code model} as in {@link #key(String, long, long, String)}. */
+    public static long key(byte[] content, String model) {
+        long hash = FNV_OFFSET;
+        for (byte b : content) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        hash = hash(hash, content.length);
+        return mix(hash(hash, model));
+    }
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        // separator, so ("ab", "c") and ("a", "bc") differ
+        return (hash ^ 0xff) * FNV_PRIME;
+    }
+
+    private static long hash(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ ((value >>> (8 * i)) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    // final avalanche so keys differing in their last bytes spread over the whole word
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Fills {@code dst} with the detections stored under {@code key}, whose class ids index
+     * {@code labels}, and returns true; returns false and leaves {@code dst} alone on a miss.
+     */
+    public synchronized boolean get(long key, List<String> labels, DetectionBatch dst) throws IOException {
+        byte[] record = mMemory.get(key);
+        if (record != null) {
+            mHits++;
+        } else {
+            record = readDisk(key);
+            if (record == null) {
+                mMisses++;
+                return false;
+            }
+            mDiskHits++;
+            putMemory(key, record);
+        }
+        decode(record, dst);
+        dst.setLabels(labels);
+        return true;
+    }
+
+    /**
+     * True when {@code key} is stored in either tier. Neither counts as a hit or miss nor
+     * promotes the result into memory, so a back-fill can skip what is cached cheaply.
+     */
+    public synchronized boolean contains(long key) {
+        return mMemory.containsKey(key) || mDiskIndex.containsKey(key);
+    }
+
+    /** Stores {@code detections} under {@code key}, replacing anything stored before. */
+    public synchronized void put(long key, CandidateBuffer detections) throws IOException {
+        final byte[] record = encode(detections);
+        putMemory(key, record);
+        if (mData != null && RECORD_HEADER_BYTES + record.length <= mMaxDiskBytes) {
+            if (mData.size() + RECORD_HEADER_BYTES + record.length > mMaxDiskBytes) {
+                mData.truncate(0);
+                mIndex.truncate(0);
+                mIndex.position(0);
+                mDiskIndex.clear();
+            }
+            final long offset = mData.size();
+            final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(key).putInt(detections.size()).flip();
+            writeFully(mData, header, offset);
+            writeFully(mData, ByteBuffer.wrap(record), offset + RECORD_HEADER_BYTES);
+            final ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            entry.putLong(key).putLong(offset).flip();
+            writeFully(mIndex, entry, mIndex.position());
+            mIndex.position(mIndex.position() + INDEX_ENTRY_BYTES);
+            mDiskIndex.put(key, offset);
+        }
+    }
+
+    private void putMemory(long key, byte[] record) {
+        final byte[] previous = mMemory.put(key, record);
+        mMemoryBytes += record.length - (previous != null ? previous.length : 0);
+        while (mMemoryBytes > mMaxMemoryBytes && !mMemory.isEmpty()) {
+            final Map.Entry<Long, byte[]> eldest = mMemory.entrySet().iterator().next();
+            mMemoryBytes -= eldest.getValue().length;
+            mMemory.remove(eldest.getKey());
+            mEvictions++;
+        }
+    }
+
+    private byte[] readDisk(long key) throws IOException {
+        final Long offset = mDiskIndex.get(key);
+        if (offset == null) {
+            return null;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, offset);
+        final byte[] record = new byte[(int) recordBytes(header.getInt(8))];
+        readFully(ByteBuffer.wrap(record), offset + RECORD_HEADER_BYTES);
+        return record;
+    }
+
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            final int read = mData.read(dst, position);
+            if (read < 0) {
+                throw new IOException("detection record at " + position + " is truncated");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+
+    // a record carries its own count ahead of the detections
+    private static long recordBytes(int count) {
+        return 4 + (long) count * DETECTION_BYTES;
+    }
+
+    private static byte[] encode(CandidateBuffer detections) {
+        final int size = detections.size();
+        final ByteBuffer record = ByteBuffer.allocate((int) recordBytes(size)).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(size);
+        for (int i = 0; i < size; i++) {
+            final int b = 4 * i;
+            record.putFloat(detections.boxes[b]).putFloat(detections.boxes[b + 1])
+                    .putFloat(detections.boxes[b + 2]).putFloat(detections.boxes[b + 3])
+                    .putFloat(detections.scores[i]).putInt(detections.classes[i]).putInt(detections.offsets[i]);
+        }
+        return record.array();
+    }
+
+    private static void decode(byte[] bytes, DetectionBatch dst) {
+        final ByteBuffer record = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        final int size = record.getInt();
+        dst.clear();
+        for (int i = 0; i < size; i++) {
+            dst.add(record.getFloat(), record.getFloat(), record.getFloat(), record.getFloat(),
+                    record.getFloat(), record.getInt(), record.getInt());
+        }
+    }
+
+    /** Lookups answered from memory. */
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    /** Lookups answered from disk, after missing in memory. */
+    public synchronized long getDiskHits() {
+        return mDiskHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    /** Records dropped from memory to stay within its bound. */
+    public synchronized long getEvictions() {
+        return mEvictions;
+    }
+
+    /** Share of lookups answered from either tier, or 0 before the first lookup. */
+    public synchronized float getHitRate() {
+        final long lookups = mHits + mDiskHits + mMisses;
+        return lookups > 0 ? (mHits + mDiskHits) / (float) lookups : 0.0f;
+    }
+
+    public synchronized long getMemoryBytes() {
+        return mMemoryBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DetectionCache{hits=" + mHits + ", diskHits=" + mDiskHits + ", misses=" + mMisses
+                + ", evictions=" + mEvictions + ", memoryBytes=" + mMemoryBytes
+                + ", diskEntries=" + mDiskIndex.size() + "}";
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mData != null) {
+            mData.close();
+            mIndex.close();
+            mData = null;
+            mIndex = null;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.amitshekhar.tflite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streaming detection over a bounded ring of reusable frames, with preprocess, inference and
+ * postprocess each on their own thread.
+ *
+ * Stages are connected by {@link LatestFrameSlot}s: when a stage is slower than its producer
+ * the waiting frame is replaced by the newer one and recycled, so there is never more than one
+ * frame waiting per stage and end-to-end latency stays bounded by roughly one pass through the
+ * three stages; only a frame the model runs on is kept over a newer predicted one. Results are
+ * delivered in submission order with their source timestamps.
+ */
+public class DetectionPipeline implements FrameSink {
+
+    public interface Listener {
+        /**
+         * Called on the postprocess thread with a finished frame. The frame is recycled as soon
+         * as this returns, so copy out whatever is needed.
+         */
+        void onResult(Frame frame);
+    }
+
+    private static final int PREPROCESS = 0;
+    private static final int INFER = 1;
+    private static final int POSTPROCESS = 2;
+
+    private final FrameProcessor mProcessor;
+    private final Listener mListener;
+    private final BlockingQueue<Frame> mFree;
+    private final int mRingSize;
+
+    private final LatestFrameSlot mToPreprocess = new LatestFrameSlot();
+    private final LatestFrameSlot mToInfer = new LatestFrameSlot();
+    private final LatestFrameSlot mToPostprocess = new LatestFrameSlot();
+    private final List<Thread> mThreads = new ArrayList<>();
+
+    private final AtomicLong mSequence = new AtomicLong();
+    private final AtomicLong mSubmitted = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mCompleted = new AtomicLong();
+    private final AtomicLong mErrors = new AtomicLong();
+    private final AtomicLong mTotalLatencyNanos = new AtomicLong();
+    private volatile RuntimeException mLastError;
+
+    /**
+     * @param ringSize Number of frames in flight at most; at least 4 lets the source fill one
+     *                 while each stage works on another.
+     * @param frameBytes Size of the raw data of one frame.
+     */
+    public DetectionPipeline(FrameProcessor processor, Listener listener, int ringSize, int frameBytes) {
+        mProcessor = processor;
+        mListener = listener;
+        mRingSize = ringSize;
+        mFree = new ArrayBlockingQueue<>(ringSize);
+        for (int i = 0; i < ringSize; i++) {
+            mFree.add(new Frame(frameBytes));
+        }
+    }
+
+    public synchronized void start() {
+        if (!mThreads.isEmpty()) {
+            return;
+        }
+        mThreads.add(stage(PREPROCESS, "preprocess", mToPreprocess, mToInfer));
+        mThreads.add(stage(INFER, "infer", mToInfer, mToPostprocess));
+        mThreads.add(stage(POSTPROCESS, "postprocess", mToPostprocess, null));
+        for (Thread thread : mThreads) {
+            thread.start();
+        }
+    }
+
+    /** Stops the stage threads and returns every frame to the ring, dropping pending ones. */
+    public synchronized void stop() throws InterruptedException {
+        for (Thread thread : mThreads) {
+            thread.interrupt();
+        }
+        for (Thread thread : mThreads) {
+            thread.join();
+        }
+        mThreads.clear();
+        drop(mToPreprocess.clear());
+        drop(mToInfer.clear());
+        drop(mToPostprocess.clear());
+    }
+
+    @Override
+    public Frame acquireFrame() {
+        final Frame frame = mFree.poll();
+        if (frame == null) {
+            mDropped.incrementAndGet();
+        }
+        return frame;
+    }
+
+    @Override
+    public void submitFrame(Frame frame) {
+        // set again by the processor; a recycled frame must not keep its last verdict
+        frame.predicted = false;
+        frame.sequence = mSequence.getAndIncrement();
+        frame.submitNanos = System.nanoTime();
+        mSubmitted.incrementAndGet();
+        drop(mToPreprocess.offer(frame));
+    }
+
+    @Override
+    public void releaseFrame(Frame frame) {
+        recycle(frame);
+    }
+
+    public int getRingSize() {
+        return mRingSize;
+    }
+
+    /** Frames that are not in flight right now. */
+    public int getFreeFrames() {
+        return mFree.size();
+    }
+
+    public long getSubmittedFrames() {
+        return mSubmitted.get();
+    }
+
+    /** Frames skipped because a newer one overtook them, or because the ring was exhausted. */
+    public long getDroppedFrames() {
+        return mDropped.get();
+    }
+
+    public long getCompletedFrames() {
+        return mCompleted.get();
+    }
+
+    public long getErrors() {
+        return mErrors.get();
+    }
+
+    public RuntimeException getLastError() {
+        return mLastError;
+    }
+
+    public long getMeanLatencyNanos() {
+        final long completed = mCompleted.get();
+        return completed == 0 ? 0 : mTotalLatencyNanos.get() / completed;
+    }
+
+    private Thread stage(final int stage, String name, final LatestFrameSlot in, final LatestFrameSlot out) {
+        return new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        final Frame frame = in.take();
+                        try {
+                            process(stage, frame);
+                        } catch (RuntimeException e) {
+                            mErrors.incrementAndGet();
+                            mLastError = e;
+                            recycle(frame);
+                            continue;
+                        }
+                        if (out != null) {
+                            drop(out.offer(frame));
+                        } else {
+                            deliver(frame);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            }
+        }, "DetectionPipeline-" + name);
+    }
+
+    private void process(int stage, Frame frame) {
+        switch (stage) {
+            case PREPROCESS:
+                mProcessor.preprocess(frame);
+                break;
+            case INFER:
+                mProcessor.infer(frame);
+                break;
+            default:
+                mProcessor.postprocess(frame);
+                break;
+        }
+    }
+
+    private void deliver(Frame frame) {
+        frame.latencyNanos = System.nanoTime() - frame.submitNanos;
+        mCompleted.incrementAndGet();
+        mTotalLatencyNanos.addAndGet(frame.latencyNanos);
+        try {
+            mListener.onResult(frame);
+        } finally {
+            recycle(frame);
+        }
+    }
+
+    private void drop(Frame displaced) {
+        if (displaced != null) {
+            mDropped.incrementAndGet();
+            recycle(displaced);
+        }
+    }
+
+    private void recycle(Frame frame) {
+        if (frame != null) {
+            mFree.add(frame);
+        }
+    }
+}
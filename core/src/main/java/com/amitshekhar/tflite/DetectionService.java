@@ -0,0 +1,360 @@
+package com.amitshekhar.tflite;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs detections asynchronously on a fixed number of workers behind a bounded queue, so a
+ * burst of requests cannot pile up decodes and inferences. Every request is a {@link Future}
+ * and can also report to a {@link Callback}.
+ *
+ * Requests are keyed, e.g. by {@link DetectionCache#key}. A request for a key that is already
+ * queued or running is coalesced into it and shares its result; a callback joining with it
+ * again still hears about it once. A request that has not started by its deadline fails with
+ * a {@link TimeoutException} without running. With {@link #setCancelStale(boolean)} every new
+ * request cancels those still queued, so only the latest of several rapid selections runs;
+ * requests already running are left to finish, because their inference cannot be interrupted.
+ *
+ * @param <I> input of a detection, such as an image path.
+ * @param <R> its result.
+ */
+public class DetectionService<I, R> {
+
+    public interface Detector<I, R> {
+        R detect(I input) throws Exception;
+    }
+
+    /**
+     * Hears about a request once it is done. Failures are the detector's exception, a
+     * {@link CancellationException} or a {@link TimeoutException} for a missed deadline.
+     */
+    public interface Callback<I, R> {
+        void onResult(I input, R result);
+
+        void onFailure(I input, Exception error);
+    }
+
+    private final Detector<I, R> mDetector;
+    private final Executor mCallbackExecutor;
+    private final ThreadPoolExecutor mExecutor;
+    private final Object mLock = new Object();
+    private final Map<Long, Request> mInFlight = new HashMap<>();
+    private boolean mCancelStale;
+
+    private long mCompleted;
+    private long mCoalesced;
+    private long mCancelled;
+    private long mExpired;
+    private long mFailed;
+
+    /**
+     * @param workers          requests run at the same time.
+     * @param maxQueued        requests that may wait for a worker before new ones are rejected.
+     * @param callbackExecutor where callbacks run, e.g. the main thread, or null for the thread
+     *                         that completed the request.
+     */
+    public DetectionService(int workers, int maxQueued, Detector<I, R> detector, Executor callbackExecutor) {
+        mDetector = detector;
+        mCallbackExecutor = callbackExecutor;
+        mExecutor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(maxQueued), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "detect-" + mCount.incrementAndGet());
+                    }
+                });
+    }
+
+    /** When set, every new request cancels all requests that have not started yet. */
+    public void setCancelStale(boolean cancelStale) {
+        synchronized (mLock) {
+            mCancelStale = cancelStale;
+        }
+    }
+
+    /**
+     * Queues a detection of {@code input}, or joins the request already queued or running for
+     * {@code key}.
+     *
+     * @param timeoutMillis time the request may wait for a worker, or 0 to wait indefinitely.
+     * @param callback      told about the result, or null.
+     * @throws RejectedExecutionException if the queue is full or the service shut down.
+     */
+    public Request submit(long key, I input, long timeoutMillis, Callback<I, R> callback) {
+        final long deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        final Request request;
+        List<Request> stale = null;
+        synchronized (mLock) {
+            final Request existing = mInFlight.get(key);
+            // a request being cancelled is not joined but replaced
+            if (existing != null && (existing.mStarted || !existing.mClaimed)) {
+                existing.join(deadline, callback);
+                mCoalesced++;
+                return existing;
+            }
+            if (mCancelStale) {
+                stale = claimPending();
+            }
+            request = new Request(key, input, deadline, callback);
+            mInFlight.put(key, request);
+        }
+        if (stale != null) {
+            cancel(stale);
+        }
+        try {
+            mExecutor.execute(request);
+        } catch (RejectedExecutionException e) {
+            synchronized (mLock) {
+                mInFlight.remove(key);
+            }
+            throw e;
+        }
+        return request;
+    }
+
+    /** Cancels every request that has not started yet and returns how many there were. */
+    public int cancelPending() {
+        final List<Request> pending;
+        synchronized (mLock) {
+            pending = claimPending();
+        }
+        cancel(pending);
+        return pending.size();
+    }
+
+    // keeps every request that has not started from starting; caller holds mLock
+    private List<Request> claimPending() {
+        final List<Request> pending = new ArrayList<>();
+        for (Request request : mInFlight.values()) {
+            if (!request.mClaimed) {
+                request.mClaimed = true;
+                pending.add(request);
+            }
+        }
+        return pending;
+    }
+
+    // outside mLock, since cancelling runs the callbacks when there is no callback executor
+    private void cancel(List<Request> claimed) {
+        for (Request request : claimed) {
+            // frees the queue slot; done() drops the request from mInFlight
+            mExecutor.remove(request);
+            request.cancelClaimed();
+        }
+    }
+
+    /**
+     * Cancels what has not started and stops the workers once the rest has finished, without
+     * waiting for it; see {@link #awaitTermination}.
+     */
+    public void shutdown() {
+        cancelPending();
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Waits up to {@code timeoutMillis} after {@link #shutdown()} for the running requests to
+     * finish, so what their detector uses can be released; returns false on timeout.
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        return mExecutor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Requests that ran to a result. */
+    public long getCompleted() {
+        synchronized (mLock) {
+            return mCompleted;
+        }
+    }
+
+    /** Requests answered by joining one already queued or running. */
+    public long getCoalesced() {
+        synchronized (mLock) {
+            return mCoalesced;
+        }
+    }
+
+    public long getCancelled() {
+        synchronized (mLock) {
+            return mCancelled;
+        }
+    }
+
+    /** Requests dropped because they had not started by their deadline. */
+    public long getExpired() {
+        synchronized (mLock) {
+            return mExpired;
+        }
+    }
+
+    /** Requests the detector threw on. */
+    public long getFailed() {
+        synchronized (mLock) {
+            return mFailed;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "DetectionService{completed=" + mCompleted + ", coalesced=" + mCoalesced
+                    + ", cancelled=" + mCancelled + ", expired=" + mExpired + ", failed=" + mFailed
+                    + ", inFlight=" + mInFlight.size() + "}";
+        }
+    }
+
+    /** A queued or running detection, shared by every request coalesced into it. */
+    public final class Request extends FutureTask<R> {
+        private final long mKey;
+        private final I mInput;
+        // guarded by mLock
+        private long mDeadline;
+        private boolean mStarted;
+        // set once a worker starts the request or it is about to be cancelled
+        private boolean mClaimed;
+        private final List<Callback<I, R>> mCallbacks = new ArrayList<>(1);
+
+        Request(long key, final I input, long deadline, Callback<I, R> callback) {
+            super(new Callable<R>() {
+                @Override
+                public R call() throws Exception {
+                    return mDetector.detect(input);
+                }
+            });
+            mKey = key;
+            mInput = input;
+            mDeadline = deadline;
+            if (callback != null) {
+                mCallbacks.add(callback);
+            }
+        }
+
+        // a joining request can only extend the deadline; 0 means none. A callback already
+        // told about this request is not told twice, so it sees every result only once
+        private void join(long deadline, Callback<I, R> callback) {
+            if (mDeadline != 0 && (deadline == 0 || deadline - mDeadline > 0)) {
+                mDeadline = deadline;
+            }
+            if (callback != null && !mCallbacks.contains(callback)) {
+                mCallbacks.add(callback);
+            }
+        }
+
+        public I getInput() {
+            return mInput;
+        }
+
+        /** True once a worker has picked the request up; it can no longer be cancelled then. */
+        public boolean isStarted() {
+            synchronized (mLock) {
+                return mStarted;
+            }
+        }
+
+        @Override
+        public void run() {
+            final long deadline;
+            synchronized (mLock) {
+                if (mClaimed) {
+                    return;
+                }
+                mClaimed = true;
+                mStarted = true;
+                deadline = mDeadline;
+            }
+            if (deadline != 0 && System.nanoTime() - deadline > 0) {
+                setException(new TimeoutException("not started before its deadline"));
+                return;
+            }
+            super.run();
+        }
+
+        /** Cancels the request unless it has started; a running inference is never interrupted. */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (mLock) {
+                if (mClaimed) {
+                    return false;
+                }
+                mClaimed = true;
+            }
+            mExecutor.remove(this);
+            return super.cancel(false);
+        }
+
+        private void cancelClaimed() {
+            super.cancel(false);
+        }
+
+        @Override
+        protected void done() {
+            final List<Callback<I, R>> callbacks;
+            R result = null;
+            Exception error = null;
+            try {
+                result = get();
+            } catch (CancellationException e) {
+                error = e;
+            } catch (ExecutionException e) {
+                error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } catch (InterruptedException e) {
+                // not reached, the task is done
+                error = e;
+            }
+            synchronized (mLock) {
+                if (mInFlight.get(mKey) == this) {
+                    mInFlight.remove(mKey);
+                }
+                if (error == null) {
+                    mCompleted++;
+                } else if (error instanceof CancellationException) {
+                    mCancelled++;
+                } else if (error instanceof TimeoutException) {
+                    mExpired++;
+                } else {
+                    mFailed++;
+                }
+                callbacks = new ArrayList<>(mCallbacks);
+            }
+            if (callbacks.isEmpty()) {
+                return;
+            }
+            final R finalResult = result;
+            final Exception finalError = error;
+            final Runnable notify = new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback<I, R> callback : callbacks) {
+                        if (finalError == null) {
+                            callback.onResult(mInput, finalResult);
+                        } else {
+                            callback.onFailure(mInput, finalError);
+                        }
+                    }
+                }
+            };
+            if (mCallbackExecutor != null) {
+                mCallbackExecutor.execute(notify);
+            } else {
+                notify.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.amitshekhar.tflite;
+
+/**
+ * DIoU-NMS: like hard NMS but the IoU is penalized by the normalized distance between box
+ * centers, so boxes that overlap but sit on different objects are less likely to be dropped.
+ */
+public class DiouNms extends BatchedNms {
+
+    private final float mThresh;
+
+    public DiouNms(float thresh, int maxDetections) {
+        this(thresh, maxDetections, false);
+    }
+
+    public DiouNms(float thresh, int maxDetections, boolean classAgnostic) {
+        super(maxDetections, classAgnostic);
+        mThresh = thresh;
+    }
+
+    @Override
+    protected boolean suppresses(float[] boxes, int kept, int other) {
+        return !(BoxMath.diou(boxes, kept, other) < mThresh);
+    }
+}
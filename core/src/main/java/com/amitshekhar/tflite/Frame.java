@@ -0,0 +1,43 @@
+package com.amitshekhar.tflite;
+
+/**
+ * A reusable camera frame travelling through a {@link DetectionPipeline}. The raw bytes are
+ * filled by the frame source; the input tensor, output tensors and detections are allocated
+ * by the {@link FrameProcessor} the first time the frame is used and reused afterwards.
+ */
+public class Frame {
+
+    /** Raw frame bytes, for camera preview frames in NV21. */
+    public final byte[] data;
+    public int width;
+    public int height;
+
+    /** Timestamp given by the frame source, carried through to the result. */
+    public long timestampNanos;
+    /** Position of the frame in the submitted stream, starting at 0. */
+    public long sequence;
+
+    public InputPreprocessor input;
+    public OutputTensors outputs;
+    public final CandidateBuffer detections = new CandidateBuffer();
+    /** True when the model was skipped for this frame and its detections were predicted. */
+    public boolean predicted;
+    /** What a {@link MotionGate} decided for this frame, {@link MotionGate#FULL} without one. */
+    public int gateDecision = MotionGate.FULL;
+    /** Changed rect as fractions of the frame, left, top, right, bottom, for a region decision. */
+    public final float[] changedRegion = new float[4];
+    /** The gate's signature of the frame, accepted as its reference once the model has run. */
+    public int[] gateSignature;
+
+    long submitNanos;
+    long latencyNanos;
+
+    public Frame(int capacity) {
+        data = new byte[capacity];
+    }
+
+    /** Time from {@link DetectionPipeline#submitFrame(Frame)} to delivery of the result. */
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+}
@@ -0,0 +1,17 @@
+package com.amitshekhar.tflite;
+
+/**
+ * The three stages a {@link DetectionPipeline} runs on separate threads. Every stage only
+ * touches the frame it is given, so stages of different frames can run concurrently.
+ */
+public interface FrameProcessor {
+
+    /** Converts the raw frame data into the frame's input tensor. */
+    void preprocess(Frame frame);
+
+    /** Runs the model on the frame's input tensor into its output tensors. */
+    void infer(Frame frame);
+
+    /** Decodes and suppresses the frame's output tensors into its detections. */
+    void postprocess(Frame frame);
+}
@@ -0,0 +1,19 @@
+package com.amitshekhar.tflite;
+
+/**
+ * Where a frame source (camera, or a synthetic source in tests) puts its frames.
+ */
+public interface FrameSink {
+
+    /**
+     * Returns a free frame to fill, or null when every frame is in flight, in which case the
+     * source should drop the frame it has.
+     */
+    Frame acquireFrame();
+
+    /** Hands a filled frame over for detection. */
+    void submitFrame(Frame frame);
+
+    /** Gives back an acquired frame that will not be submitted. */
+    void releaseFrame(Frame frame);
+}
@@ -0,0 +1,24 @@
+package com.amitshekhar.tflite;
+
+/**
+ * Classic per-class NMS: a kept box suppresses every lower scored box of its class whose IoU
+ * with it is not below the threshold.
+ */
+public class HardNms extends BatchedNms {
+
+    private final float mIouThresh;
+
+    public HardNms(float iouThresh, int maxDetections) {
+        this(iouThresh, maxDetections, false);
+    }
+
+    protected HardNms(float iouThresh, int maxDetections, boolean classAgnostic) {
+        super(maxDetections, classAgnostic);
+        mIouThresh = iouThresh;
+    }
+
+    @Override
+    protected boolean suppresses(float[] boxes, int kept, int other) {
+        return !(BoxMath.iou(boxes, kept, other) < mIouThresh);
+    }
+}
@@ -0,0 +1,98 @@
+package com.amitshekhar.tflite;
+
+import java.util.Arrays;
+
+/**
+ * Minimum-cost assignment of rows to columns (Kuhn-Munkres with potentials, O(n^2 m)) for the
+ * small, dense cost matrices of track-to-detection association.
+ */
+public final class Hungarian {
+
+    private Hungarian() {
+    }
+
+    /**
+     * Assigns every row to a distinct column, or every column to a distinct row when there
+     * are more rows than columns, minimizing the total cost.
+     *
+     * @param cost {@code rows x columns} costs, all rows of the same length.
+     * @return the column assigned to each row, or -1 for rows left unassigned.
+     */
+    public static int[] assign(double[][] cost) {
+        final int rows = cost.length;
+        if (rows == 0) {
+            return new int[0];
+        }
+        final int columns = cost[0].length;
+        if (rows <= columns) {
+            return solve(cost, rows, columns, false);
+        }
+        final int[] columnToRow = solve(cost, columns, rows, true);
+        final int[] rowToColumn = new int[rows];
+        Arrays.fill(rowToColumn, -1);
+        for (int column = 0; column < columns; column++) {
+            rowToColumn[columnToRow[column]] = column;
+        }
+        return rowToColumn;
+    }
+
+    // n <= m; with transposed set, reads cost[j][i] for the logical cost of row i, column j
+    private static int[] solve(double[][] cost, int n, int m, boolean transposed) {
+        final double[] u = new double[n + 1];
+        final double[] v = new double[m + 1];
+        final int[] p = new int[m + 1];
+        final int[] way = new int[m + 1];
+        final double[] minv = new double[m + 1];
+        final boolean[] used = new boolean[m + 1];
+
+        for (int i = 1; i <= n; i++) {
+            p[0] = i;
+            int j0 = 0;
+            Arrays.fill(minv, Double.POSITIVE_INFINITY);
+            Arrays.fill(used, false);
+            do {
+                used[j0] = true;
+                final int i0 = p[j0];
+                double delta = Double.POSITIVE_INFINITY;
+                int j1 = 0;
+                for (int j = 1; j <= m; j++) {
+                    if (!used[j]) {
+                        final double c = transposed ? cost[j - 1][i0 - 1] : cost[i0 - 1][j - 1];
+                        final double cur = c - u[i0] - v[j];
+                        if (cur < minv[j]) {
+                            minv[j] = cur;
+                            way[j] = j0;
+                        }
+                        if (minv[j] < delta) {
+                            delta = minv[j];
+                            j1 = j;
+                        }
+                    }
+                }
+                for (int j = 0; j <= m; j++) {
+                    if (used[j]) {
+                        u[p[j]] += delta;
+                        v[j] -= delta;
+                    } else {
+                        minv[j] -= delta;
+                    }
+                }
+                j0 = j1;
+            } while (p[j0] != 0);
+            do {
+                final int j1 = way[j0];
+                p[j0] = p[j1];
+                j0 = j1;
+            } while (j0 != 0);
+        }
+
+        final int[] assignment = new int[n];
+        Arrays.fill(assignment, -1);
+        for (int j = 1; j <= m; j++) {
+            if (p[j] != 0) {
+                assignment[p[j] - 1] = j - 1;
+            }
+        }
+        return assignment;
+    }
+}
@@ -0,0 +1,37 @@
+package com.amitshekhar.tflite;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The model runtime behind a detector: tensor shapes and types, input resizing, and one
+ * buffer-based run over a single input and every output head. Preprocessing, decode and
+ * suppression only talk to this interface, so the runtime can be swapped, e.g. for
+ * {@link ReplayBackend} to run everything but the model off-device.
+ */
+public interface InferenceBackend {
+
+    /** Shape of input {@code index}, e.g. {@code [batch, size, size, 3]}. */
+    int[] getInputShape(int index);
+
+    /** Quantization of input {@code index}, or null when it is float. */
+    Quantization getInputQuantization(int index);
+
+    int getOutputCount();
+
+    /** Shape of output {@code index}, e.g. {@code [batch, W, W, boxes * (5 + classes)]}. */
+    int[] getOutputShape(int index);
+
+    /** Quantization of output {@code index}, or null when it is float. */
+    Quantization getOutputQuantization(int index);
+
+    /** Resizes input {@code index} to {@code shape} and reallocates the tensors. */
+    void resizeInput(int index, int[] shape);
+
+    /**
+     * Runs the model on {@code input} and writes output {@code i} into {@code outputs[i]}. The
+     * buffers are direct, native-ordered and sized exactly to the current tensor shapes.
+     */
+    void run(ByteBuffer input, ByteBuffer[] outputs);
+
+    void close();
+}
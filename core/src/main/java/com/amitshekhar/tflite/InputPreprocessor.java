@@ -0,0 +1,159 @@
+package com.amitshekhar.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Packs ARGB pixels into the float or quantized input tensor of one interpreter. The direct input buffer
+ * and the pixel scratch array are allocated once and reused for every image, because direct
+ * buffers are only freed lazily and allocating one per frame spikes native memory.
+ *
+ * The input buffer has room for {@code maxBatch} images; {@link #getInput(int)} hands out a
+ * view whose capacity matches a {@code [batch, size, size, 3]} tensor exactly.
+ *
+ * For an 8 bit input the channel bytes of the pixels are written straight into the tensor
+ * through a 256 entry table of their quantized values, which is the identity for the usual
+ * uint8 input with scale 1/255 and zero point 0, so nothing is normalized or converted to
+ * float and the buffer is a quarter of the size.
+ */
+public class InputPreprocessor {
+
+    private static final float[] NORMALIZE = new float[256];
+
+    static {
+        for (int i = 0; i < NORMALIZE.length; i++) {
+            NORMALIZE[i] = i / 255.0f;
+        }
+    }
+
+    private final int mInputSize;
+    private final int mImageValues;
+    private final int mBytesPerValue;
+    private final int[] mPixels;
+    private final float[] mRow;
+    private final ByteBuffer mInput;
+    private final FloatBuffer mInputFloats;
+    private final ByteBuffer mInputBytes;
+    // quantized value of every channel byte, null for a float input
+    private final byte[] mQuantized;
+    private final byte[] mRowBytes;
+    private final ByteBuffer[] mBatchInputs;
+
+    public InputPreprocessor(int inputSize, int pixelSize) {
+        this(inputSize, pixelSize, 1);
+    }
+
+    public InputPreprocessor(int inputSize, int pixelSize, int maxBatch) {
+        this(inputSize, pixelSize, maxBatch, null);
+    }
+
+    /**
+     * @param quantization quantization of an 8 bit input tensor, whose real values are the
+     *                     channels scaled to [0, 1], or null for a float input.
+     */
+    public InputPreprocessor(int inputSize, int pixelSize, int maxBatch, Quantization quantization) {
+        mInputSize = inputSize;
+        mImageValues = inputSize * inputSize * pixelSize;
+        mBytesPerValue = quantization != null ? 1 : 4;
+        mPixels = new int[inputSize * inputSize];
+        mInput = ByteBuffer.allocateDirect(mBytesPerValue * mImageValues * maxBatch);
+        mInput.order(ByteOrder.nativeOrder());
+        mBatchInputs = new ByteBuffer[maxBatch + 1];
+        if (quantization != null) {
+            mQuantized = new byte[256];
+            for (int i = 0; i < 256; i++) {
+                mQuantized[i] = (byte) quantization.quantize(NORMALIZE[i]);
+            }
+            mRowBytes = new byte[inputSize * pixelSize];
+            mInputBytes = mInput.duplicate();
+            mRow = null;
+            mInputFloats = null;
+        } else {
+            mQuantized = null;
+            mRowBytes = null;
+            mInputBytes = null;
+            mRow = new float[inputSize * pixelSize];
+            mInputFloats = mInput.asFloatBuffer();
+        }
+    }
+
+    public int getInputSize() {
+        return mInputSize;
+    }
+
+    /** True when the input tensor is 8 bit and packed from the channel bytes. */
+    public boolean isQuantized() {
+        return mQuantized != null;
+    }
+
+    public int getMaxBatch() {
+        return mBatchInputs.length - 1;
+    }
+
+    /** Scratch array the caller fills with {@code inputSize * inputSize} ARGB pixels. */
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    /** Normalizes the pixels in {@link #getPixels()} into the input buffer and returns it rewound. */
+    public ByteBuffer pack() {
+        pack(0);
+        return getInput(1);
+    }
+
+    /** Normalizes the pixels in {@link #getPixels()} into batch slot {@code slot}. */
+    public void pack(int slot) {
+        if (mQuantized != null) {
+            packQuantized(slot);
+            return;
+        }
+        final int[] pixels = mPixels;
+        final float[] row = mRow;
+        mInputFloats.clear();
+        mInputFloats.position(slot * mImageValues);
+        int pixel = 0;
+        for (int i = 0; i < mInputSize; ++i) {
+            int k = 0;
+            for (int j = 0; j < mInputSize; ++j) {
+                final int val = pixels[pixel++];
+                row[k++] = NORMALIZE[(val >> 16) & 0xFF];
+                row[k++] = NORMALIZE[(val >> 8) & 0xFF];
+                row[k++] = NORMALIZE[val & 0xFF];
+            }
+            mInputFloats.put(row);
+        }
+    }
+
+    private void packQuantized(int slot) {
+        final int[] pixels = mPixels;
+        final byte[] quantized = mQuantized;
+        final byte[] row = mRowBytes;
+        mInputBytes.clear();
+        mInputBytes.position(slot * mImageValues);
+        int pixel = 0;
+        for (int i = 0; i < mInputSize; ++i) {
+            int k = 0;
+            for (int j = 0; j < mInputSize; ++j) {
+                final int val = pixels[pixel++];
+                row[k++] = quantized[(val >> 16) & 0xFF];
+                row[k++] = quantized[(val >> 8) & 0xFF];
+                row[k++] = quantized[val & 0xFF];
+            }
+            mInputBytes.put(row);
+        }
+    }
+
+    /** The first {@code batch} slots of the input buffer, rewound. */
+    public ByteBuffer getInput(int batch) {
+        ByteBuffer input = mBatchInputs[batch];
+        if (input == null) {
+            final ByteBuffer buffer = mInput.duplicate();
+            buffer.limit(mBytesPerValue * mImageValues * batch);
+            input = buffer.slice().order(ByteOrder.nativeOrder());
+            mBatchInputs[batch] = input;
+        }
+        input.rewind();
+        return input;
+    }
+}
@@ -0,0 +1,138 @@
+package com.amitshekhar.tflite;
+
+/**
+ * Axis-aligned mapping from source image coordinates into the square model input,
+ * {@code input = source * scale + offset}. The decoder applies the inverse to every kept box,
+ * so detections come back in source coordinates whatever the image was scaled or padded to.
+ */
+public final class InputTransform {
+
+    private float mScaleX = 1.0f;
+    private float mScaleY = 1.0f;
+    private float mOffsetX;
+    private float mOffsetY;
+    private int mSourceWidth;
+    private int mSourceHeight;
+
+    public static InputTransform identity(int width, int height) {
+        return new InputTransform().setIdentity(width, height);
+    }
+
+    public static InputTransform stretch(int sourceWidth, int sourceHeight, int inputSize) {
+        return new InputTransform().setStretch(sourceWidth, sourceHeight, inputSize);
+    }
+
+    public static InputTransform letterbox(int sourceWidth, int sourceHeight, int inputSize) {
+        return new InputTransform().setLetterbox(sourceWidth, sourceHeight, inputSize);
+    }
+
+    /**
+     * The image already is the model input; boxes are only clipped to {@code width x height}.
+     */
+    public InputTransform setIdentity(int width, int height) {
+        return set(width, height, 1.0f, 1.0f, 0.0f, 0.0f);
+    }
+
+    /**
+     * An unscaled crop of the image starting at {@code (left, top)}, as used for tiles; boxes
+     * are clipped to the whole {@code sourceWidth x sourceHeight} image.
+     */
+    public InputTransform setTile(int left, int top, int sourceWidth, int sourceHeight) {
+        return set(sourceWidth, sourceHeight, 1.0f, 1.0f, -left, -top);
+    }
+
+    /**
+     * The whole image is scaled to fill the input, distorting its aspect ratio.
+     */
+    public InputTransform setStretch(int sourceWidth, int sourceHeight, int inputSize) {
+        return set(sourceWidth, sourceHeight,
+                inputSize / (float) sourceWidth, inputSize / (float) sourceHeight, 0.0f, 0.0f);
+    }
+
+    /**
+     * The rect from {@code (left, top)} to {@code (right, bottom)} of the image is scaled to
+     * fill the input, as for the changed region of a frame; boxes are clipped to the whole
+     * {@code sourceWidth x sourceHeight} image.
+     */
+    public InputTransform setRegion(float left, float top, float right, float bottom,
+                                    int sourceWidth, int sourceHeight, int inputSize) {
+        final float scaleX = inputSize / (right - left);
+        final float scaleY = inputSize / (bottom - top);
+        return set(sourceWidth, sourceHeight, scaleX, scaleY, -left * scaleX, -top * scaleY);
+    }
+
+    /**
+     * The image is scaled by one factor to fit the input and centered, leaving padding bands
+     * along the shorter side. The scaled size is rounded to whole pixels so the content rect
+     * lands on the pixel grid it is rendered to.
+     */
+    public InputTransform setLetterbox(int sourceWidth, int sourceHeight, int inputSize) {
+        final float scale = Math.min(inputSize / (float) sourceWidth, inputSize / (float) sourceHeight);
+        final int contentWidth = Math.max(1, Math.min(inputSize, Math.round(sourceWidth * scale)));
+        final int contentHeight = Math.max(1, Math.min(inputSize, Math.round(sourceHeight * scale)));
+        return set(sourceWidth, sourceHeight,
+                contentWidth / (float) sourceWidth, contentHeight / (float) sourceHeight,
+                (inputSize - contentWidth) / 2, (inputSize - contentHeight) / 2);
+    }
+
+    private InputTransform set(int sourceWidth, int sourceHeight,
+                               float scaleX, float scaleY, float offsetX, float offsetY) {
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        mScaleX = scaleX;
+        mScaleY = scaleY;
+        mOffsetX = offsetX;
+        mOffsetY = offsetY;
+        return this;
+    }
+
+    public int getSourceWidth() {
+        return mSourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return mSourceHeight;
+    }
+
+    public float getScaleX() {
+        return mScaleX;
+    }
+
+    public float getScaleY() {
+        return mScaleY;
+    }
+
+    public float getOffsetX() {
+        return mOffsetX;
+    }
+
+    public float getOffsetY() {
+        return mOffsetY;
+    }
+
+    public float toSourceX(float inputX) {
+        return (inputX - mOffsetX) / mScaleX;
+    }
+
+    public float toSourceY(float inputY) {
+        return (inputY - mOffsetY) / mScaleY;
+    }
+
+    public float toInputX(float sourceX) {
+        return sourceX * mScaleX + mOffsetX;
+    }
+
+    public float toInputY(float sourceY) {
+        return sourceY * mScaleY + mOffsetY;
+    }
+
+    /** Right edge of the image content inside the input. */
+    public float getContentRight() {
+        return toInputX(mSourceWidth);
+    }
+
+    /** Bottom edge of the image content inside the input. */
+    public float getContentBottom() {
+        return toInputY(mSourceHeight);
+    }
+}
@@ -0,0 +1,118 @@
+package com.amitshekhar.tflite;
+
+import java.util.Locale;
+
+/**
+ * Per-stage timers and counters of the detection hot path, each feeding a lock-free
+ * {@link Histogram}, so production builds get p50/p95/p99 figures instead of log lines.
+ *
+ * A stage is timed with {@code long start = start(); ...; stop(stage, start);}. While the
+ * instrumentation is switched off {@link #start()} returns 0 without reading the clock and
+ * {@link #stop} and {@link #count} return at once, so instrumented code costs one volatile read
+ * per call site; nothing is allocated either way.
+ */
+public class Instrumentation {
+
+    public enum Stage {
+        /** Decoding an image file into the model-sized bitmap. */
+        DECODE_BITMAP,
+        /** Packing pixels into the input tensor. */
+        PREPROCESS,
+        /** Running the interpreter. */
+        INVOKE,
+        /** Decoding the output heads into candidates. */
+        DECODE,
+        /** Suppressing the candidates. */
+        NMS
+    }
+
+    public enum Counter {
+        CANDIDATES_BEFORE_NMS,
+        CANDIDATES_AFTER_NMS
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final Counter[] COUNTERS = Counter.values();
+
+    private final Histogram[] mStages = new Histogram[STAGES.length];
+    private final Histogram[] mCounters = new Histogram[COUNTERS.length];
+    private volatile boolean mEnabled;
+
+    public Instrumentation(boolean enabled) {
+        mEnabled = enabled;
+        for (int i = 0; i < mStages.length; i++) {
+            mStages[i] = new Histogram();
+        }
+        for (int i = 0; i < mCounters.length; i++) {
+            mCounters[i] = new Histogram();
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /** Start time of a stage, or 0 when switched off. */
+    public long start() {
+        return mEnabled ? System.nanoTime() : 0;
+    }
+
+    /** Records the time since {@code startNanos} from {@link #start()} against {@code stage}. */
+    public void stop(Stage stage, long startNanos) {
+        if (startNanos != 0 && mEnabled) {
+            mStages[stage.ordinal()].record(System.nanoTime() - startNanos);
+        }
+    }
+
+    public void count(Counter counter, long value) {
+        if (mEnabled) {
+            mCounters[counter.ordinal()].record(value);
+        }
+    }
+
+    public Histogram.Snapshot snapshot(Stage stage) {
+        return mStages[stage.ordinal()].snapshot();
+    }
+
+    public Histogram.Snapshot snapshot(Counter counter) {
+        return mCounters[counter.ordinal()].snapshot();
+    }
+
+    public void reset() {
+        for (Histogram histogram : mStages) {
+            histogram.reset();
+        }
+        for (Histogram histogram : mCounters) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * One line per stage and counter with anything recorded: count, p50, p95, p99 and max, in
+     * milliseconds for stages.
+     */
+    public String report() {
+        final StringBuilder builder = new StringBuilder();
+        for (Stage stage : STAGES) {
+            final Histogram.Snapshot snapshot = snapshot(stage);
+            if (snapshot.getCount() > 0) {
+                builder.append(String.format(Locale.US, "%s: n=%d p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms%n",
+                        stage, snapshot.getCount(), snapshot.getP50() / 1e6, snapshot.getP95() / 1e6,
+                        snapshot.getP99() / 1e6, snapshot.getMax() / 1e6));
+            }
+        }
+        for (Counter counter : COUNTERS) {
+            final Histogram.Snapshot snapshot = snapshot(counter);
+            if (snapshot.getCount() > 0) {
+                builder.append(String.format(Locale.US, "%s: n=%d p50=%d p95=%d p99=%d max=%d%n",
+                        counter, snapshot.getCount(), snapshot.getP50(), snapshot.getP95(),
+                        snapshot.getP99(), snapshot.getMax()));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,42 @@
+package com.amitshekhar.tflite;
+
+/**
+ * Single-slot hand-off between two pipeline stages. Offering a frame replaces the one that is
+ * still waiting, so the consumer always gets the newest frame and stale ones are dropped
+ * instead of queued. The exception is a {@link Frame#predicted} frame, which never replaces a
+ * frame the model is run on: the detection frame was scheduled by the tracker and would not
+ * be scheduled again, while the next predicted frame is as good as this one.
+ */
+class LatestFrameSlot {
+
+    private Frame mFrame;
+
+    /**
+     * Puts {@code frame} in the slot and returns the frame it displaced, or null; a predicted
+     * {@code frame} that would displace a detection frame is returned itself instead.
+     */
+    synchronized Frame offer(Frame frame) {
+        if (frame.predicted && mFrame != null && !mFrame.predicted) {
+            return frame;
+        }
+        final Frame displaced = mFrame;
+        mFrame = frame;
+        notifyAll();
+        return displaced;
+    }
+
+    synchronized Frame take() throws InterruptedException {
+        while (mFrame == null) {
+            wait();
+        }
+        final Frame frame = mFrame;
+        mFrame = null;
+        return frame;
+    }
+
+    synchronized Frame clear() {
+        final Frame frame = mFrame;
+        mFrame = null;
+        return frame;
+    }
+}
@@ -0,0 +1,302 @@
+package com.amitshekhar.tflite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Everything needed to run a YOLO model besides its weights, read from a properties file that
+ * ships next to the {@code .tflite}:
+ *
+ * <pre>
+ * model=yolov3_pb.tflite
+ * labels=coco.txt
+ * # optional, otherwise read from the interpreter's input tensor
+ * input.size=608
+ * anchors=10,13, 16,30, 33,23, 30,61, 62,45, 59,119, 116,90, 156,198, 373,326
+ * # one group of anchor indices per output head, in output tensor order
+ * masks=6,7,8; 3,4,5; 0,1,2
+ * # optional, otherwise the grid widths are read from the output tensors
+ * strides=32,16,8
+ * obj.thresh=0.6
+ * nms=hard|agnostic|diou|soft-linear|soft-gaussian
+ * nms.thresh=0.5
+ * max.detections=100
+ * </pre>
+ *
+ * Input size and strides may be left out, in which case the classifier fills them in from the
+ * interpreter's tensor shapes through {@link #setInputSize} and {@link #setOutWidth}.
+ */
+public class ModelDescriptor {
+
+    public static final String NMS_HARD = "hard";
+    public static final String NMS_AGNOSTIC = "agnostic";
+    public static final String NMS_DIOU = "diou";
+    public static final String NMS_SOFT_LINEAR = "soft-linear";
+    public static final String NMS_SOFT_GAUSSIAN = "soft-gaussian";
+
+    private final String mModelFile;
+    private final String mLabelFile;
+    private final int[] mAnchors;
+    private final int[][] mMasks;
+    private int mInputSize;
+    private final int[] mStrides;
+    private int[] mOutWidth;
+
+    private float mObjThresh = 0.5f;
+    private String mNms = NMS_HARD;
+    private float mNmsThresh = 0.5f;
+    private int mMaxDetections = 100;
+    private float mSoftSigma = 0.5f;
+    private float mSoftScoreThresh = 0.001f;
+
+    /**
+     * @param inputSize side of the square input, or 0 to take it from the interpreter.
+     * @param strides   input pixels per grid cell of every head, or null to take the grid
+     *                  widths from the interpreter.
+     */
+    public ModelDescriptor(String modelFile, String labelFile, int inputSize,
+                           int[] anchors, int[][] masks, int[] strides) {
+        if (anchors.length % 2 != 0) {
+            throw new IllegalArgumentException("anchors: expected width,height pairs");
+        }
+        if (masks.length == 0) {
+            throw new IllegalArgumentException("masks: at least one head is required");
+        }
+        for (int[] mask : masks) {
+            if (mask.length != masks[0].length) {
+                throw new IllegalArgumentException("masks: every head needs the same number of boxes");
+            }
+            for (int anchor : mask) {
+                if (anchor < 0 || 2 * anchor + 1 >= anchors.length) {
+                    throw new IllegalArgumentException("masks: no anchor " + anchor);
+                }
+            }
+        }
+        if (strides != null && strides.length != masks.length) {
+            throw new IllegalArgumentException("strides: expected " + masks.length + " values");
+        }
+        mModelFile = modelFile;
+        mLabelFile = labelFile;
+        mAnchors = anchors;
+        mMasks = masks;
+        mStrides = strides;
+        setInputSize(inputSize);
+    }
+
+    public static ModelDescriptor load(InputStream in) throws IOException {
+        final Properties properties = new Properties();
+        properties.load(in);
+        return parse(properties);
+    }
+
+    public static ModelDescriptor parse(Properties properties) {
+        final String inputSize = properties.getProperty("input.size");
+        final String strides = properties.getProperty("strides");
+        final ModelDescriptor descriptor = new ModelDescriptor(
+                required(properties, "model"),
+                required(properties, "labels"),
+                inputSize == null ? 0 : parseInt("input.size", inputSize),
+                parseInts("anchors", required(properties, "anchors")),
+                parseMasks(required(properties, "masks")),
+                strides == null ? null : parseInts("strides", strides));
+
+        final String objThresh = properties.getProperty("obj.thresh");
+        if (objThresh != null) {
+            descriptor.mObjThresh = parseFloat("obj.thresh", objThresh);
+        }
+        final String nms = properties.getProperty("nms");
+        if (nms != null) {
+            descriptor.mNms = nms.trim();
+        }
+        final String nmsThresh = properties.getProperty("nms.thresh");
+        if (nmsThresh != null) {
+            descriptor.mNmsThresh = parseFloat("nms.thresh", nmsThresh);
+        }
+        final String maxDetections = properties.getProperty("max.detections");
+        if (maxDetections != null) {
+            descriptor.mMaxDetections = parseInt("max.detections", maxDetections);
+        }
+        final String sigma = properties.getProperty("soft.sigma");
+        if (sigma != null) {
+            descriptor.mSoftSigma = parseFloat("soft.sigma", sigma);
+        }
+        final String scoreThresh = properties.getProperty("soft.score.thresh");
+        if (scoreThresh != null) {
+            descriptor.mSoftScoreThresh = parseFloat("soft.score.thresh", scoreThresh);
+        }
+        // fail on load rather than on the first detection
+        descriptor.createSuppression();
+        return descriptor;
+    }
+
+    public String getModelFile() {
+        return mModelFile;
+    }
+
+    public String getLabelFile() {
+        return mLabelFile;
+    }
+
+    /** Side of the square input, or 0 while it is still unknown. */
+    public int getInputSize() {
+        return mInputSize;
+    }
+
+    /**
+     * Sets the input size read from the interpreter; grid widths follow from the strides, if
+     * the descriptor has them.
+     */
+    public void setInputSize(int inputSize) {
+        mInputSize = inputSize;
+        if (inputSize > 0 && mStrides != null) {
+            mOutWidth = new int[mStrides.length];
+            for (int i = 0; i < mStrides.length; i++) {
+                mOutWidth[i] = inputSize / mStrides[i];
+            }
+        }
+    }
+
+    public int[] getAnchors() {
+        return mAnchors;
+    }
+
+    public int[][] getMasks() {
+        return mMasks;
+    }
+
+    public int getNumBoxesPerBlock() {
+        return mMasks[0].length;
+    }
+
+    public int getNumHeads() {
+        return mMasks.length;
+    }
+
+    /** Grid width of every head, or null while it is still unknown. */
+    public int[] getOutWidth() {
+        return mOutWidth;
+    }
+
+    /**
+     * Sets the grid widths read from the interpreter's output tensors, for descriptors
+     * without strides.
+     */
+    public void setOutWidth(int[] outWidth) {
+        if (outWidth.length != mMasks.length) {
+            throw new IllegalArgumentException("model has " + outWidth.length
+                    + " outputs but the descriptor describes " + mMasks.length);
+        }
+        mOutWidth = outWidth;
+    }
+
+    public float getObjThresh() {
+        return mObjThresh;
+    }
+
+    public float getNmsThresh() {
+        return mNmsThresh;
+    }
+
+    public int getMaxDetections() {
+        return mMaxDetections;
+    }
+
+    public ModelDescriptor setObjThresh(float objThresh) {
+        mObjThresh = objThresh;
+        return this;
+    }
+
+    public ModelDescriptor setNms(String nms, float nmsThresh, int maxDetections) {
+        mNms = nms;
+        mNmsThresh = nmsThresh;
+        mMaxDetections = maxDetections;
+        return this;
+    }
+
+    /**
+     * The model file and every setting that changes its detections, except the input size,
+     * which a classifier may change at run time. Keys cached results, see {@link DetectionCache}.
+     */
+    public String getCacheKey() {
+        return mModelFile + " labels=" + mLabelFile + " anchors=" + Arrays.toString(mAnchors)
+                + " masks=" + Arrays.deepToString(mMasks) + " obj=" + mObjThresh + " nms=" + mNms
+                + " nms.thresh=" + mNmsThresh + " max=" + mMaxDetections
+                + " soft=" + mSoftSigma + "," + mSoftScoreThresh;
+    }
+
+    /**
+     * A new instance of the configured suppression strategy; strategies keep scratch state,
+     * so every detector needs its own.
+     */
+    public SuppressionStrategy createSuppression() {
+        if (NMS_HARD.equals(mNms)) {
+            return new HardNms(mNmsThresh, mMaxDetections);
+        } else if (NMS_AGNOSTIC.equals(mNms)) {
+            return new ClassAgnosticNms(mNmsThresh, mMaxDetections);
+        } else if (NMS_DIOU.equals(mNms)) {
+            return new DiouNms(mNmsThresh, mMaxDetections);
+        } else if (NMS_SOFT_LINEAR.equals(mNms)) {
+            return new SoftNms(SoftNms.Method.LINEAR, mNmsThresh, mSoftSigma, mSoftScoreThresh, mMaxDetections);
+        } else if (NMS_SOFT_GAUSSIAN.equals(mNms)) {
+            return new SoftNms(SoftNms.Method.GAUSSIAN, mNmsThresh, mSoftSigma, mSoftScoreThresh, mMaxDetections);
+        }
+        throw new IllegalArgumentException("nms: unknown strategy " + mNms);
+    }
+
+    /**
+     * A detector for this model; input size and grid widths must be known by now.
+     */
+    public YoloDetector newDetector(int numClasses) {
+        if (mInputSize <= 0 || mOutWidth == null) {
+            throw new IllegalStateException("input size and output grids of " + mModelFile + " are not known yet");
+        }
+        final YoloDetector detector = new YoloDetector(numClasses, getNumBoxesPerBlock(), mInputSize,
+                mAnchors, mMasks, mOutWidth, createSuppression());
+        detector.setObjThresh(mObjThresh);
+        return detector;
+    }
+
+    private static String required(Properties properties, String key) {
+        final String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException(key + ": missing");
+        }
+        return value.trim();
+    }
+
+    private static int parseInt(String key, String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + ": not a number: " + value);
+        }
+    }
+
+    private static float parseFloat(String key, String value) {
+        try {
+            return Float.parseFloat(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + ": not a number: " + value);
+        }
+    }
+
+    private static int[] parseInts(String key, String value) {
+        final String[] parts = value.split(",");
+        final int[] ints = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            ints[i] = parseInt(key, parts[i]);
+        }
+        return ints;
+    }
+
+    private static int[][] parseMasks(String value) {
+        final String[] heads = value.split(";");
+        final int[][] masks = new int[heads.length][];
+        for (int i = 0; i < heads.length; i++) {
+            masks[i] = parseInts("masks", heads[i]);
+        }
+        return masks;
+    }
+}
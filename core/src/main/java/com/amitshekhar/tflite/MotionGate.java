@@ -0,0 +1,238 @@
+package com.amitshekhar.tflite;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cheap change detector run before inference on streams from a fixed camera, so a static scene
+ * does not pay for the model on every frame.
+ *
+ * Each frame is reduced to a signature of mean luminances over a {@code columns x rows} grid
+ * of blocks, sampling every {@link #SAMPLE_STEP}-th pixel of the luminance plane in both
+ * directions. The signature is compared to a reference taken when the model last saw those
+ * blocks; the mean difference over all blocks is subtracted first, so exposure changes of the
+ * whole frame do not count as motion. A block whose difference exceeds the block threshold has
+ * changed, and the decision is:
+ * <ul>
+ * <li>{@link #SKIP} when no block changed: the previous detections still hold;</li>
+ * <li>{@link #REGION} when the changed blocks, grown by one block on every side, cover at most
+ * the given share of the frame: only that rect needs to be detected again;</li>
+ * <li>{@link #FULL} otherwise, for the first frame, after a change of frame size, and after
+ * {@code refreshInterval} gated frames in a row.</li>
+ * </ul>
+ * The reference is only updated for the blocks the model is run on, so slow drift in skipped
+ * blocks adds up until it is detected. A pipeline that may drop a frame between the decision
+ * and the model keeps the frame's signature from {@link #newSignature()} and hands it to
+ * {@link #accept} once the model has run; until then every frame is compared to the old
+ * reference and still sees the change. Decisions are synchronized; the counters can be read
+ * from any thread.
+ */
+public class MotionGate {
+
+    public static final int SKIP = 0;
+    public static final int REGION = 1;
+    public static final int FULL = 2;
+
+    /** Distance in pixels between the luminance samples of a signature. */
+    static final int SAMPLE_STEP = 4;
+
+    private final int mColumns;
+    private final int mRows;
+    private final int mBlockThresh;
+    private final float mMaxRegionArea;
+    private int mRefreshInterval;
+
+    private final int[] mReference;
+    private final int[] mSignature;
+    private final int[] mCounts;
+    private int mWidth;
+    private int mHeight;
+    // set by a new frame size until a full frame is accepted
+    private boolean mNeedsFull;
+    private int mGatedInRow;
+
+    private final AtomicLong mFrames = new AtomicLong();
+    private final AtomicLong mSkipped = new AtomicLong();
+    private final AtomicLong mRegions = new AtomicLong();
+    private volatile float mLastScore;
+
+    /**
+     * @param columns       blocks across the frame.
+     * @param rows          blocks down the frame.
+     * @param blockThresh   mean luminance difference, out of 255, above which a block changed.
+     * @param maxRegionArea largest share of the frame detected as a region rather than whole.
+     */
+    public MotionGate(int columns, int rows, int blockThresh, float maxRegionArea) {
+        mColumns = columns;
+        mRows = rows;
+        mBlockThresh = blockThresh;
+        mMaxRegionArea = maxRegionArea;
+        mReference = new int[columns * rows];
+        mSignature = new int[columns * rows];
+        mCounts = new int[columns * rows];
+    }
+
+    /** Force a full detection after {@code frames} gated frames in a row; 0 never forces one. */
+    public synchronized void setRefreshInterval(int frames) {
+        mRefreshInterval = Math.max(0, frames);
+    }
+
+    /** A signature buffer for {@link #evaluate(byte[], int, int, int[], float[])}. */
+    public int[] newSignature() {
+        return new int[mColumns * mRows];
+    }
+
+    /**
+     * Decides what part of a frame the model has to run on, for a caller that runs the model
+     * on every frame it does not skip: the reference is updated right away.
+     *
+     * @param luma   luminance plane of the frame, one byte per pixel in rows of {@code width},
+     *               such as the start of an NV21 frame.
+     * @param region receives the changed rect as fractions of the frame, left, top, right,
+     *               bottom, when the decision is {@link #REGION}.
+     * @return {@link #SKIP}, {@link #REGION} or {@link #FULL}.
+     */
+    public synchronized int evaluate(byte[] luma, int width, int height, float[] region) {
+        final int decision = evaluate(luma, width, height, mSignature, region);
+        accept(mSignature, decision, region);
+        return decision;
+    }
+
+    /**
+     * Like {@link #evaluate(byte[], int, int, float[])}, but leaves the reference alone: the
+     * frame's signature goes to {@code signature}, to be passed to {@link #accept} once the
+     * model has run on the frame.
+     */
+    public synchronized int evaluate(byte[] luma, int width, int height, int[] signature, float[] region) {
+        signature(luma, width, height, signature);
+        mFrames.incrementAndGet();
+        if (width != mWidth || height != mHeight) {
+            mWidth = width;
+            mHeight = height;
+            mNeedsFull = true;
+        }
+        if (mNeedsFull || (mRefreshInterval > 0 && mGatedInRow >= mRefreshInterval)) {
+            mLastScore = 1.0f;
+            return FULL;
+        }
+
+        final int blocks = signature.length;
+        int shift = 0;
+        for (int i = 0; i < blocks; i++) {
+            shift += signature[i] - mReference[i];
+        }
+        shift /= blocks;
+
+        int changed = 0;
+        int left = mColumns;
+        int top = mRows;
+        int right = -1;
+        int bottom = -1;
+        for (int i = 0; i < blocks; i++) {
+            if (Math.abs(signature[i] - mReference[i] - shift) > mBlockThresh) {
+                changed++;
+                final int column = i % mColumns;
+                final int row = i / mColumns;
+                left = Math.min(left, column);
+                top = Math.min(top, row);
+                right = Math.max(right, column);
+                bottom = Math.max(bottom, row);
+            }
+        }
+        mLastScore = changed / (float) blocks;
+        if (changed == 0) {
+            mGatedInRow++;
+            mSkipped.incrementAndGet();
+            return SKIP;
+        }
+
+        left = Math.max(0, left - 1);
+        top = Math.max(0, top - 1);
+        right = Math.min(mColumns, right + 2);
+        bottom = Math.min(mRows, bottom + 2);
+        if ((right - left) * (bottom - top) > mMaxRegionArea * blocks) {
+            return FULL;
+        }
+        region[0] = left / (float) mColumns;
+        region[1] = top / (float) mRows;
+        region[2] = right / (float) mColumns;
+        region[3] = bottom / (float) mRows;
+        mGatedInRow++;
+        mRegions.incrementAndGet();
+        return REGION;
+    }
+
+    /**
+     * Makes the frame of {@code signature} the reference for the blocks the model ran on: all
+     * of them for {@link #FULL}, those of {@code region}, as returned by {@link #evaluate} or
+     * snapped to pixels, for {@link #REGION}, and none for {@link #SKIP}.
+     */
+    public synchronized void accept(int[] signature, int decision, float[] region) {
+        if (decision == FULL) {
+            System.arraycopy(signature, 0, mReference, 0, signature.length);
+            mNeedsFull = false;
+            mGatedInRow = 0;
+        } else if (decision == REGION) {
+            final int left = Math.round(region[0] * mColumns);
+            final int top = Math.round(region[1] * mRows);
+            final int right = Math.round(region[2] * mColumns);
+            final int bottom = Math.round(region[3] * mRows);
+            for (int row = top; row < bottom; row++) {
+                System.arraycopy(signature, row * mColumns + left, mReference, row * mColumns + left, right - left);
+            }
+        }
+    }
+
+    // mean luminance per block over the sampled pixels
+    private void signature(byte[] luma, int width, int height, int[] signature) {
+        final int blocks = signature.length;
+        for (int i = 0; i < blocks; i++) {
+            signature[i] = 0;
+            mCounts[i] = 0;
+        }
+        for (int y = SAMPLE_STEP / 2; y < height; y += SAMPLE_STEP) {
+            final int rowBlock = y * mRows / height * mColumns;
+            final int rowStart = y * width;
+            for (int x = SAMPLE_STEP / 2; x < width; x += SAMPLE_STEP) {
+                final int block = rowBlock + x * mColumns / width;
+                signature[block] += luma[rowStart + x] & 0xff;
+                mCounts[block]++;
+            }
+        }
+        for (int i = 0; i < blocks; i++) {
+            signature[i] = mCounts[i] > 0 ? signature[i] / mCounts[i] : 0;
+        }
+    }
+
+    /** Forgets the reference, so the next frame is detected whole. */
+    public synchronized void reset() {
+        mWidth = 0;
+        mHeight = 0;
+        mGatedInRow = 0;
+    }
+
+    /** Frames passed to {@link #evaluate}. */
+    public long getFrames() {
+        return mFrames.get();
+    }
+
+    /** Frames that reused the previous detections. */
+    public long getSkippedFrames() {
+        return mSkipped.get();
+    }
+
+    /** Frames detected only in their changed region. */
+    public long getRegionFrames() {
+        return mRegions.get();
+    }
+
+    /** Share of frames that skipped the model altogether. */
+    public float getHitRate() {
+        final long frames = mFrames.get();
+        return frames > 0 ? mSkipped.get() / (float) frames : 0.0f;
+    }
+
+    /** Share of changed blocks in the last frame, 1 when it had nothing to compare to. */
+    public float getLastScore() {
+        return mLastScore;
+    }
+}
@@ -0,0 +1,50 @@
+package com.amitshekhar.tflite;
+
+/**
+ * Converts NV21 camera preview frames into ARGB pixels at the model input size, sampling the
+ * nearest source pixel so no full-resolution ARGB frame is ever created.
+ */
+public final class Nv21Converter {
+
+    private Nv21Converter() {
+    }
+
+    /**
+     * Scales the {@code width x height} NV21 frame to {@code size x size} into {@code argb}.
+     */
+    public static void toArgb(byte[] nv21, int width, int height, int[] argb, int size) {
+        toArgb(nv21, width, height, 0, 0, width, height, argb, size);
+    }
+
+    /**
+     * Scales the {@code cropWidth x cropHeight} rect at {@code (left, top)} of the
+     * {@code width x height} NV21 frame to {@code size x size} into {@code argb}.
+     */
+    public static void toArgb(byte[] nv21, int width, int height,
+                              int left, int top, int cropWidth, int cropHeight, int[] argb, int size) {
+        final int frameSize = width * height;
+        int pixel = 0;
+        for (int dy = 0; dy < size; dy++) {
+            final int y = top + dy * cropHeight / size;
+            final int uvRow = frameSize + (y >> 1) * width;
+            for (int dx = 0; dx < size; dx++) {
+                final int x = left + dx * cropWidth / size;
+                final int luma = Math.max(0, (nv21[y * width + x] & 0xff) - 16);
+                final int uv = uvRow + (x & ~1);
+                final int v = (nv21[uv] & 0xff) - 128;
+                final int u = (nv21[uv + 1] & 0xff) - 128;
+
+                // BT.601 in 10 bit fixed point
+                final int y1192 = 1192 * luma;
+                final int r = clamp(y1192 + 1634 * v);
+                final int g = clamp(y1192 - 833 * v - 400 * u);
+                final int b = clamp(y1192 + 2066 * u);
+                argb[pixel++] = 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 262143 ? 262143 : value);
+    }
+}
@@ -0,0 +1,149 @@
+package com.amitshekhar.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * One direct, native-ordered buffer per output head, sized from the grid widths and the class
+ * count. The byte buffers are what the runtime writes into; the decoder reads float views of
+ * float heads and the bytes of quantized ones, which take a quarter of the memory.
+ *
+ * Each head has room for {@code maxBatch} images. {@link #getBuffer(int, int)} hands out a
+ * view whose capacity matches the head tensor for a given batch size, and {@link #slot(int)}
+ * gives the decoder the outputs of one image of the batch.
+ */
+public class OutputTensors implements TensorSource {
+
+    private final ByteBuffer[] mBuffers;
+    private final ByteBuffer[][] mBatchBuffers;
+    private final TensorSource[] mSlots;
+    private final Quantization[] mQuantization;
+
+    public OutputTensors(int[] outWidth, int numBoxesPerBlock, int numClasses) {
+        this(outWidth, numBoxesPerBlock, numClasses, 1);
+    }
+
+    public OutputTensors(int[] outWidth, int numBoxesPerBlock, int numClasses, int maxBatch) {
+        this(outWidth, numBoxesPerBlock, numClasses, maxBatch, null);
+    }
+
+    /**
+     * @param quantization per head, the quantization of its 8 bit tensor or null for a float
+     *                     one; a null array makes every head float.
+     */
+    public OutputTensors(int[] outWidth, int numBoxesPerBlock, int numClasses, int maxBatch,
+                         Quantization[] quantization) {
+        mBuffers = new ByteBuffer[outWidth.length];
+        mBatchBuffers = new ByteBuffer[maxBatch + 1][];
+        mQuantization = quantization != null ? quantization : new Quantization[outWidth.length];
+        final FloatBuffer[][] floatSlots = new FloatBuffer[maxBatch][outWidth.length];
+        final ByteBuffer[][] byteSlots = new ByteBuffer[maxBatch][outWidth.length];
+        for (int i = 0; i < outWidth.length; i++) {
+            final int values = outWidth[i] * outWidth[i] * numBoxesPerBlock * (5 + numClasses);
+            final boolean quantized = mQuantization[i] != null;
+            mBuffers[i] = ByteBuffer.allocateDirect((quantized ? 1 : 4) * values * maxBatch);
+            mBuffers[i].order(ByteOrder.nativeOrder());
+            if (quantized) {
+                final ByteBuffer all = mBuffers[i].duplicate();
+                for (int j = 0; j < maxBatch; j++) {
+                    all.clear();
+                    all.position(j * values);
+                    all.limit((j + 1) * values);
+                    byteSlots[j][i] = all.slice();
+                }
+            } else {
+                final FloatBuffer all = mBuffers[i].asFloatBuffer();
+                for (int j = 0; j < maxBatch; j++) {
+                    all.clear();
+                    all.position(j * values);
+                    all.limit((j + 1) * values);
+                    floatSlots[j][i] = all.slice();
+                }
+            }
+        }
+        mSlots = new TensorSource[maxBatch];
+        for (int j = 0; j < maxBatch; j++) {
+            final FloatBuffer[] floatHeads = floatSlots[j];
+            final ByteBuffer[] byteHeads = byteSlots[j];
+            mSlots[j] = new TensorSource() {
+                @Override
+                public FloatBuffer getOutput(int head) {
+                    return floatHeads[head];
+                }
+
+                @Override
+                public Quantization getQuantization(int head) {
+                    return mQuantization[head];
+                }
+
+                @Override
+                public ByteBuffer getQuantizedOutput(int head) {
+                    return byteHeads[head];
+                }
+            };
+        }
+    }
+
+    public int size() {
+        return mBuffers.length;
+    }
+
+    public int getMaxBatch() {
+        return mSlots.length;
+    }
+
+    public ByteBuffer getBuffer(int head) {
+        return getBuffer(head, 1);
+    }
+
+    /** Head {@code head} for the first {@code batch} images, sized to the batched tensor. */
+    public ByteBuffer getBuffer(int head, int batch) {
+        ByteBuffer[] buffers = mBatchBuffers[batch];
+        if (buffers == null) {
+            buffers = new ByteBuffer[mBuffers.length];
+            for (int i = 0; i < mBuffers.length; i++) {
+                if (batch == getMaxBatch()) {
+                    buffers[i] = mBuffers[i];
+                } else {
+                    final ByteBuffer buffer = mBuffers[i].duplicate();
+                    buffer.limit(mBuffers[i].capacity() / getMaxBatch() * batch);
+                    buffers[i] = buffer.slice().order(ByteOrder.nativeOrder());
+                }
+            }
+            mBatchBuffers[batch] = buffers;
+        }
+        return buffers[head];
+    }
+
+    /** The outputs of image {@code slot} of the last batch. */
+    public TensorSource slot(int slot) {
+        return mSlots[slot];
+    }
+
+    @Override
+    public FloatBuffer getOutput(int head) {
+        return mSlots[0].getOutput(head);
+    }
+
+    @Override
+    public Quantization getQuantization(int head) {
+        return mQuantization[head];
+    }
+
+    @Override
+    public ByteBuffer getQuantizedOutput(int head) {
+        return mSlots[0].getQuantizedOutput(head);
+    }
+
+    /** Rewinds the byte buffers so the next inference writes from the start. */
+    public void rewind() {
+        for (ByteBuffer[] buffers : mBatchBuffers) {
+            if (buffers != null) {
+                for (ByteBuffer buffer : buffers) {
+                    buffer.rewind();
+                }
+            }
+        }
+    }
+}
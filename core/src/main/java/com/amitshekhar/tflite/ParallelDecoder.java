@@ -0,0 +1,152 @@
+package com.amitshekhar.tflite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Decodes the output heads of a {@link YoloDecoder} as fork-join tasks, so the large grids of
+ * a 608 input, such as YOLOv3's 76 x 76 head, are spread over all cores instead of adding to
+ * the frame latency on one.
+ *
+ * The heads are split into tasks of whole grid rows holding at least {@code minAnchorsPerTask}
+ * anchors each; a head smaller than that stays one task, and outputs with fewer anchors in all
+ * are decoded on the calling thread, where forking would cost more than it saves. The split is
+ * planned once. Every task owns a candidate buffer that is reused for every call, and the
+ * buffers are appended to the result in task order, so the candidates come out exactly as a
+ * sequential decode orders them.
+ *
+ * Like the decoder, an instance serves one thread at a time.
+ */
+public class ParallelDecoder {
+
+    /** Anchors per task below which forking is not worth it: around 50 us of decoding. */
+    public static final int DEFAULT_MIN_ANCHORS_PER_TASK = 2048;
+
+    private static ForkJoinPool sSharedPool;
+
+    private final YoloDecoder mDecoder;
+    private final ForkJoinPool mPool;
+    private final Task[] mTasks;
+    private final boolean mSequential;
+    private final Root mRoot = new Root();
+
+    // inputs of the current call, published to the workers by the fork
+    private TensorSource mOutputs;
+    private InputTransform mTransform;
+
+    public ParallelDecoder(YoloDecoder decoder, ForkJoinPool pool, int minAnchorsPerTask) {
+        mDecoder = decoder;
+        mPool = pool;
+        final int boxes = decoder.getNumBoxesPerBlock();
+        final List<Task> tasks = new ArrayList<>();
+        int anchors = 0;
+        for (int head = 0; head < decoder.getNumHeads(); head++) {
+            final int gridWidth = decoder.getGridWidth(head);
+            final int anchorsPerRow = gridWidth * boxes;
+            // as many tasks as hold the minimum, sharing the rows evenly
+            final int count = Math.min(gridWidth,
+                    Math.max(1, gridWidth * anchorsPerRow / Math.max(1, minAnchorsPerTask)));
+            for (int i = 0; i < count; i++) {
+                tasks.add(new Task(head, gridWidth * i / count, gridWidth * (i + 1) / count));
+            }
+            anchors += gridWidth * anchorsPerRow;
+        }
+        mTasks = tasks.toArray(new Task[tasks.size()]);
+        mSequential = anchors < 2 * minAnchorsPerTask || mTasks.length < 2;
+    }
+
+    /** A pool with one worker per core, shared by every detector that decodes in parallel. */
+    public static synchronized ForkJoinPool sharedPool() {
+        if (sSharedPool == null) {
+            sSharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return sSharedPool;
+    }
+
+    /** Number of tasks the heads are split into. */
+    public int getTaskCount() {
+        return mTasks.length;
+    }
+
+    /** True when the heads are too small to be worth forking and are decoded in place. */
+    public boolean isSequential() {
+        return mSequential;
+    }
+
+    /**
+     * Decodes every head of {@code outputs}, float or quantized, through {@code transform} and
+     * appends the candidates to {@code dst} in sequential decode order.
+     */
+    public void decode(TensorSource outputs, InputTransform transform, CandidateBuffer dst) {
+        if (mSequential) {
+            for (Task task : mTasks) {
+                task.decode(outputs, transform, dst);
+            }
+            return;
+        }
+        // raw cutoffs are cached in the decoder; fill the cache before the tasks read it
+        for (int head = 0; head < mDecoder.getNumHeads(); head++) {
+            final Quantization quantization = outputs.getQuantization(head);
+            if (quantization != null) {
+                mDecoder.rawCutoff(head, quantization);
+            }
+        }
+        mOutputs = outputs;
+        mTransform = transform;
+        try {
+            mRoot.reinitialize();
+            mPool.invoke(mRoot);
+        } finally {
+            mOutputs = null;
+            mTransform = null;
+        }
+        for (Task task : mTasks) {
+            dst.addAll(task.mCandidates);
+        }
+    }
+
+    private class Root extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            for (Task task : mTasks) {
+                task.reinitialize();
+            }
+            invokeAll(mTasks);
+        }
+    }
+
+    private class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final int mHead;
+        final int mRowStart;
+        final int mRowEnd;
+        final CandidateBuffer mCandidates = new CandidateBuffer();
+
+        Task(int head, int rowStart, int rowEnd) {
+            mHead = head;
+            mRowStart = rowStart;
+            mRowEnd = rowEnd;
+        }
+
+        @Override
+        protected void compute() {
+            mCandidates.clear();
+            decode(mOutputs, mTransform, mCandidates);
+        }
+
+        void decode(TensorSource outputs, InputTransform transform, CandidateBuffer dst) {
+            final Quantization quantization = outputs.getQuantization(mHead);
+            if (quantization != null) {
+                mDecoder.decodeRows(mHead, outputs.getQuantizedOutput(mHead), quantization, transform,
+                        mRowStart, mRowEnd, dst);
+            } else {
+                mDecoder.decodeRows(mHead, outputs.getOutput(mHead), transform, mRowStart, mRowEnd, dst);
+            }
+        }
+    }
+}
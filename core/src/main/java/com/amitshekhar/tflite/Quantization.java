@@ -0,0 +1,106 @@
+package com.amitshekhar.tflite;
+
+/**
+ * Affine quantization of an 8 bit tensor, {@code real = scale * (q - zeroPoint)}, with
+ * {@code q} in [0, 255] for uint8 tensors and [-128, 127] for int8 ones.
+ *
+ * Raw values are read from a byte with {@link #raw(byte)}, which keeps the order of the real
+ * values, so thresholds can be moved into the quantized domain once with
+ * {@link #floorRaw(float)} and compared against raw values directly.
+ */
+public final class Quantization {
+
+    private final float mScale;
+    private final int mZeroPoint;
+    private final boolean mSigned;
+    private final int mMask;
+    private float[] mTable;
+
+    public Quantization(float scale, int zeroPoint, boolean signed) {
+        if (!(scale > 0.0f)) {
+            throw new IllegalArgumentException("scale must be positive: " + scale);
+        }
+        mScale = scale;
+        mZeroPoint = zeroPoint;
+        mSigned = signed;
+        mMask = signed ? -1 : 0xff;
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    public int getZeroPoint() {
+        return mZeroPoint;
+    }
+
+    public boolean isSigned() {
+        return mSigned;
+    }
+
+    /** Smallest raw value of the type. */
+    public int getMinRaw() {
+        return mSigned ? -128 : 0;
+    }
+
+    /** Largest raw value of the type. */
+    public int getMaxRaw() {
+        return mSigned ? 127 : 255;
+    }
+
+    /**
+     * Mask that turns a byte into its raw value, {@code byte & mask}: -1 keeps the sign of
+     * int8 values, 0xff reads uint8 ones unsigned.
+     */
+    public int getMask() {
+        return mMask;
+    }
+
+    public int raw(byte value) {
+        return value & mMask;
+    }
+
+    public float dequantize(int raw) {
+        return mScale * (raw - mZeroPoint);
+    }
+
+    /** Nearest raw value to {@code real}, saturated to the range of the type. */
+    public int quantize(float real) {
+        final long raw = Math.round(real / mScale) + mZeroPoint;
+        return (int) Math.max(getMinRaw(), Math.min(getMaxRaw(), raw));
+    }
+
+    /**
+     * Largest raw value whose real value is at most {@code real}, so that {@code raw > floorRaw}
+     * holds exactly when {@code dequantize(raw) > real}. Below the range of the type this is
+     * one less than the smallest raw value, above it the largest raw value.
+     */
+    public int floorRaw(float real) {
+        if (Float.isNaN(real) || real == Float.POSITIVE_INFINITY) {
+            return getMaxRaw();
+        }
+        int raw = getMinRaw() - 1;
+        // exact over the 256 values; called once per threshold change, not per anchor
+        for (int q = getMinRaw(); q <= getMaxRaw() && dequantize(q) <= real; q++) {
+            raw = q;
+        }
+        return raw;
+    }
+
+    /** Real value of every byte, indexed by {@code byte & 0xff}. */
+    public float[] table() {
+        if (mTable == null) {
+            final float[] table = new float[256];
+            for (int i = 0; i < 256; i++) {
+                table[i] = dequantize(raw((byte) i));
+            }
+            mTable = table;
+        }
+        return mTable;
+    }
+
+    @Override
+    public String toString() {
+        return (mSigned ? "int8" : "uint8") + "(scale " + mScale + ", zero point " + mZeroPoint + ")";
+    }
+}
@@ -0,0 +1,71 @@
+package com.amitshekhar.tflite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Passes every call through to another {@link InferenceBackend} and appends the outputs of
+ * each run to a {@link ReplayBackend} recording, so a session on device can be replayed
+ * off-device. The input shape must not change while recording.
+ */
+public class RecordingBackend implements InferenceBackend {
+
+    private final InferenceBackend mBackend;
+    private final ReplayBackend.Writer mWriter;
+
+    public RecordingBackend(InferenceBackend backend, File recording) throws IOException {
+        mBackend = backend;
+        mWriter = new ReplayBackend.Writer(recording, backend);
+    }
+
+    @Override
+    public int[] getInputShape(int index) {
+        return mBackend.getInputShape(index);
+    }
+
+    @Override
+    public Quantization getInputQuantization(int index) {
+        return mBackend.getInputQuantization(index);
+    }
+
+    @Override
+    public int getOutputCount() {
+        return mBackend.getOutputCount();
+    }
+
+    @Override
+    public int[] getOutputShape(int index) {
+        return mBackend.getOutputShape(index);
+    }
+
+    @Override
+    public Quantization getOutputQuantization(int index) {
+        return mBackend.getOutputQuantization(index);
+    }
+
+    @Override
+    public void resizeInput(int index, int[] shape) {
+        mBackend.resizeInput(index, shape);
+    }
+
+    @Override
+    public void run(ByteBuffer input, ByteBuffer[] outputs) {
+        mBackend.run(input, outputs);
+        try {
+            mWriter.append(outputs);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot record outputs", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        mBackend.close();
+        try {
+            mWriter.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot close recording", e);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.amitshekhar.tflite;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * {@link InferenceBackend} that ignores its input and hands out output tensors recorded from
+ * a real model, frame after frame and starting over at the end. The recording is memory-mapped,
+ * so a run costs one copy per head and no model, which makes end-to-end throughput of
+ * everything around the model measurable, and its results reproducible, on any JVM.
+ *
+ * A recording is a little-endian header describing the input and output tensors, followed by
+ * one frame after the other, each holding the raw bytes of every output in order. Tensor bytes
+ * are copied as the runtime wrote them, in the native order of the recording device, which is
+ * little-endian on every Android ABI as on x86. Recordings are made with {@link Writer}, or on
+ * device with a {@link RecordingBackend} around the real runtime.
+ */
+public class ReplayBackend implements InferenceBackend {
+
+    private static final int MAGIC = 0x31505259; // "YRP1"
+    private static final int FLOAT32 = 0;
+    private static final int UINT8 = 1;
+    private static final int INT8 = 2;
+
+    private final int[] mInputShape;
+    private final Quantization mInputQuantization;
+    private final int[][] mOutputShapes;
+    private final Quantization[] mOutputQuantization;
+    private final int[] mOutputBytes;
+    private final MappedByteBuffer mMapped;
+    private final int mFirstFrame;
+    private final int mFrameBytes;
+    private final int mFrameCount;
+    private int mNextFrame;
+
+    public ReplayBackend(File recording) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(recording, "r");
+        try {
+            mMapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+        final ByteBuffer header = mMapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt() != MAGIC) {
+            throw new IOException(recording + " is not a tensor recording");
+        }
+        mInputShape = readShape(header);
+        mInputQuantization = readQuantization(header);
+        final int outputs = header.getInt();
+        mOutputShapes = new int[outputs][];
+        mOutputQuantization = new Quantization[outputs];
+        mOutputBytes = new int[outputs];
+        int frameBytes = 0;
+        for (int i = 0; i < outputs; i++) {
+            mOutputShapes[i] = readShape(header);
+            mOutputQuantization[i] = readQuantization(header);
+            mOutputBytes[i] = byteSize(mOutputShapes[i], mOutputQuantization[i]);
+            frameBytes += mOutputBytes[i];
+        }
+        mFirstFrame = header.position();
+        mFrameBytes = frameBytes;
+        final int recorded = mMapped.capacity() - mFirstFrame;
+        if (frameBytes == 0 || recorded <= 0 || recorded % frameBytes != 0) {
+            throw new IOException(recording + " holds " + recorded + " bytes of frames, not a multiple of "
+                    + frameBytes);
+        }
+        mFrameCount = recorded / frameBytes;
+    }
+
+    /** Number of recorded frames. */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /** Replays from frame {@code frame} on, e.g. 0 to repeat a run exactly. */
+    public void seek(int frame) {
+        mNextFrame = frame % mFrameCount;
+    }
+
+    @Override
+    public int[] getInputShape(int index) {
+        return mInputShape.clone();
+    }
+
+    @Override
+    public Quantization getInputQuantization(int index) {
+        return mInputQuantization;
+    }
+
+    @Override
+    public int getOutputCount() {
+        return mOutputShapes.length;
+    }
+
+    @Override
+    public int[] getOutputShape(int index) {
+        return mOutputShapes[index].clone();
+    }
+
+    @Override
+    public Quantization getOutputQuantization(int index) {
+        return mOutputQuantization[index];
+    }
+
+    /** Only the recorded shape can be replayed; other shapes are rejected. */
+    @Override
+    public void resizeInput(int index, int[] shape) {
+        if (!Arrays.equals(shape, mInputShape)) {
+            throw new IllegalArgumentException("recorded at input " + Arrays.toString(mInputShape)
+                    + ", cannot replay " + Arrays.toString(shape));
+        }
+    }
+
+    @Override
+    public void run(ByteBuffer input, ByteBuffer[] outputs) {
+        int offset = mFirstFrame + mNextFrame * mFrameBytes;
+        for (int i = 0; i < outputs.length; i++) {
+            final ByteBuffer src = mMapped.duplicate();
+            src.limit(offset + mOutputBytes[i]);
+            src.position(offset);
+            final ByteBuffer dst = outputs[i];
+            dst.clear();
+            dst.put(src);
+            dst.rewind();
+            offset += mOutputBytes[i];
+        }
+        mNextFrame = (mNextFrame + 1) % mFrameCount;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    static int byteSize(int[] shape, Quantization quantization) {
+        int size = quantization != null ? 1 : 4;
+        for (int dim : shape) {
+            size *= dim;
+        }
+        return size;
+    }
+
+    private static int[] readShape(ByteBuffer header) {
+        final int[] shape = new int[header.getInt()];
+        for (int i = 0; i < shape.length; i++) {
+            shape[i] = header.getInt();
+        }
+        return shape;
+    }
+
+    private static Quantization readQuantization(ByteBuffer header) {
+        final int type = header.getInt();
+        final float scale = header.getFloat();
+        final int zeroPoint = header.getInt();
+        return type == FLOAT32 ? null : new Quantization(scale, zeroPoint, type == INT8);
+    }
+
+    /**
+     * Writes a recording for {@link ReplayBackend}: the header on creation, then one frame of
+     * output tensors per {@link #append}.
+     */
+    public static class Writer implements Closeable {
+
+        private final FileChannel mChannel;
+        private final int[] mOutputBytes;
+
+        /** Records the tensor layout {@code backend} currently has. */
+        public Writer(File file, InferenceBackend backend) throws IOException {
+            this(file, backend.getInputShape(0), backend.getInputQuantization(0),
+                    outputShapes(backend), outputQuantization(backend));
+        }
+
+        public Writer(File file, int[] inputShape, Quantization inputQuantization,
+                      int[][] outputShapes, Quantization[] outputQuantization) throws IOException {
+            mChannel = new FileOutputStream(file).getChannel();
+            int headerBytes = 4 + 4 + 4 * inputShape.length + 12 + 4;
+            for (int[] shape : outputShapes) {
+                headerBytes += 4 + 4 * shape.length + 12;
+            }
+            final ByteBuffer header = ByteBuffer.allocate(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC);
+            writeShape(header, inputShape);
+            writeQuantization(header, inputQuantization);
+            header.putInt(outputShapes.length);
+            mOutputBytes = new int[outputShapes.length];
+            for (int i = 0; i < outputShapes.length; i++) {
+                writeShape(header, outputShapes[i]);
+                writeQuantization(header, outputQuantization[i]);
+                mOutputBytes[i] = byteSize(outputShapes[i], outputQuantization[i]);
+            }
+            header.flip();
+            write(header);
+        }
+
+        /** Appends one frame; every buffer is written from 0 to its recorded tensor size. */
+        public void append(ByteBuffer[] outputs) throws IOException {
+            for (int i = 0; i < mOutputBytes.length; i++) {
+                final ByteBuffer src = outputs[i].duplicate();
+                src.clear();
+                src.limit(mOutputBytes[i]);
+                write(src);
+            }
+        }
+
+        private void write(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                mChannel.write(src);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mChannel.close();
+        }
+
+        private static int[][] outputShapes(InferenceBackend backend) {
+            final int[][] shapes = new int[backend.getOutputCount()][];
+            for (int i = 0; i < shapes.length; i++) {
+                shapes[i] = backend.getOutputShape(i);
+            }
+            return shapes;
+        }
+
+        private static Quantization[] outputQuantization(InferenceBackend backend) {
+            final Quantization[] quantization = new Quantization[backend.getOutputCount()];
+            for (int i = 0; i < quantization.length; i++) {
+                quantization[i] = backend.getOutputQuantization(i);
+            }
+            return quantization;
+        }
+
+        private static void writeShape(ByteBuffer header, int[] shape) {
+            header.putInt(shape.length);
+            for (int dim : shape) {
+                header.putInt(dim);
+            }
+        }
+
+        private static void writeQuantization(ByteBuffer header, Quantization quantization) {
+            if (quantization == null) {
+                header.putInt(FLOAT32).putFloat(0.0f).putInt(0);
+            } else {
+                header.putInt(quantization.isSigned() ? INT8 : UINT8)
+                        .putFloat(quantization.getScale()).putInt(quantization.getZeroPoint());
+            }
+        }
+    }
+}
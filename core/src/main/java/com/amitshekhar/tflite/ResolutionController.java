@@ -0,0 +1,119 @@
+package com.amitshekhar.tflite;
+
+import java.util.Arrays;
+
+/**
+ * Picks the model input size from a moving window of inference latencies so that the p95
+ * latency stays within a budget. Every time the window fills up its p95 is checked: above the
+ * budget the controller steps down one size; if the next size up is predicted to fit with
+ * some headroom (latency scales with the input area) it steps up. Samples taken at the old
+ * size are discarded after every switch, which also keeps the controller from oscillating
+ * faster than once per window.
+ */
+public class ResolutionController {
+
+    /** Stepping up needs the predicted p95 at the larger size within this share of the budget. */
+    static final float UPSCALE_HEADROOM = 0.8f;
+
+    private final int[] mSizes;
+    private final long mBudgetNanos;
+    private final long[] mWindow;
+    private final long[] mSorted;
+    private int mCount;
+    private int mNext;
+
+    private volatile int mIndex;
+    private volatile long mLastP95Nanos;
+    private int mSwitches;
+
+    /**
+     * @param sizes        allowed input sizes in ascending order, e.g. 320, 416, 512, 608.
+     * @param initialSize  one of {@code sizes} to start at.
+     * @param budgetNanos  p95 latency to stay within.
+     * @param window       number of latency samples per decision.
+     */
+    public ResolutionController(int[] sizes, int initialSize, long budgetNanos, int window) {
+        if (sizes.length == 0 || window <= 0) {
+            throw new IllegalArgumentException("need at least one size and a positive window");
+        }
+        for (int i = 1; i < sizes.length; i++) {
+            if (sizes[i] <= sizes[i - 1]) {
+                throw new IllegalArgumentException("sizes must be ascending: " + Arrays.toString(sizes));
+            }
+        }
+        final int index = Arrays.binarySearch(sizes, initialSize);
+        if (index < 0) {
+            throw new IllegalArgumentException(initialSize + " is not one of " + Arrays.toString(sizes));
+        }
+        mSizes = sizes.clone();
+        mBudgetNanos = budgetNanos;
+        mWindow = new long[window];
+        mSorted = new long[window];
+        mIndex = index;
+    }
+
+    /** Input size to prepare the next frame for. Safe to call from any thread. */
+    public int getInputSize() {
+        return mSizes[mIndex];
+    }
+
+    /**
+     * Records the inference latency of a frame run at {@code inputSize}. Samples of a size
+     * the controller has already moved away from are ignored.
+     *
+     * @return true if the input size changed.
+     */
+    public synchronized boolean record(int inputSize, long latencyNanos) {
+        if (inputSize != mSizes[mIndex]) {
+            return false;
+        }
+        mWindow[mNext] = latencyNanos;
+        mNext = (mNext + 1) % mWindow.length;
+        if (++mCount < mWindow.length) {
+            return false;
+        }
+
+        final long p95 = percentile95();
+        mLastP95Nanos = p95;
+        int index = mIndex;
+        if (p95 > mBudgetNanos && index > 0) {
+            index--;
+        } else if (index < mSizes.length - 1) {
+            final double growth = (double) mSizes[index + 1] / mSizes[index];
+            if (p95 * growth * growth < mBudgetNanos * UPSCALE_HEADROOM) {
+                index++;
+            }
+        }
+        if (index == mIndex) {
+            // keep sliding, decide again on the next sample
+            mCount = mWindow.length - 1;
+            return false;
+        }
+        mIndex = index;
+        mSwitches++;
+        mCount = 0;
+        mNext = 0;
+        return true;
+    }
+
+    /** p95 of the last full window, or 0 before the first one. */
+    public long getLastP95Nanos() {
+        return mLastP95Nanos;
+    }
+
+    public synchronized int getSwitches() {
+        return mSwitches;
+    }
+
+    public int[] getSizes() {
+        return mSizes.clone();
+    }
+
+    // nearest-rank p95 of the window
+    private long percentile95() {
+        System.arraycopy(mWindow, 0, mSorted, 0, mWindow.length);
+        Arrays.sort(mSorted);
+        final int rank = (int) Math.ceil(0.95 * mSorted.length);
+        return mSorted[Math.max(0, rank - 1)];
+    }
+}
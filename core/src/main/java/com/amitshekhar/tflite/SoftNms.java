@@ -0,0 +1,148 @@
+package com.amitshekhar.tflite;
+
+import java.util.Arrays;
+
+/**
+ * Soft-NMS: instead of dropping overlapping boxes of the same class, their scores are decayed
+ * by the overlap with each kept box, and boxes are only dropped once they fall below
+ * {@code scoreThresh}.
+ *
+ * Scores only ever go down, so the next box to keep is found with a lazy max-heap of packed
+ * (score, index) keys: a popped entry whose score has decayed since it was pushed is pushed
+ * back with its current score, and the first entry that is still current is the true maximum.
+ */
+public class SoftNms implements SuppressionStrategy {
+
+    public enum Method {
+        /** Scores of boxes with IoU above the threshold are multiplied by (1 - IoU). */
+        LINEAR,
+        /** Scores are multiplied by exp(-IoU^2 / sigma). */
+        GAUSSIAN
+    }
+
+    private final Method mMethod;
+    private final float mIouThresh;
+    private final float mSigma;
+    private final float mScoreThresh;
+    private final int mMaxDetections;
+
+    private long[] mHeap = new long[0];
+    private int mHeapSize;
+    private float[] mScores = new float[0];
+    private boolean[] mDone = new boolean[0];
+
+    public SoftNms(Method method, float iouThresh, float sigma, float scoreThresh, int maxDetections) {
+        mMethod = method;
+        mIouThresh = iouThresh;
+        mSigma = sigma;
+        mScoreThresh = scoreThresh;
+        mMaxDetections = maxDetections;
+    }
+
+    @Override
+    public void suppress(CandidateBuffer in, CandidateBuffer out) {
+        out.clear();
+        final int n = in.size();
+        if (n == 0 || mMaxDetections <= 0) {
+            return;
+        }
+        ensureCapacity(n);
+
+        final float[] scores = mScores;
+        final boolean[] done = mDone;
+        System.arraycopy(in.scores, 0, scores, 0, n);
+        Arrays.fill(done, 0, n, false);
+        mHeapSize = 0;
+        for (int i = 0; i < n; i++) {
+            push(scores[i], i);
+        }
+
+        while (mHeapSize > 0) {
+            final long top = pop();
+            final int max = (int) top;
+            if (done[max]) {
+                continue;
+            }
+            if (scores[max] != scoreOf(top)) {
+                push(scores[max], max);
+                continue;
+            }
+            done[max] = true;
+            out.add(in, max);
+            out.scores[out.size() - 1] = scores[max];
+            if (out.size() == mMaxDetections) {
+                return;
+            }
+
+            final int detectedClass = in.classes[max];
+            for (int j = 0; j < n; j++) {
+                if (done[j] || in.classes[j] != detectedClass) {
+                    continue;
+                }
+                scores[j] *= weight(BoxMath.iou(in.boxes, max, j));
+                if (!(scores[j] > mScoreThresh)) {
+                    done[j] = true;
+                }
+            }
+        }
+    }
+
+    private float weight(float iou) {
+        if (mMethod == Method.LINEAR) {
+            return iou > mIouThresh ? 1 - iou : 1;
+        }
+        return (float) Math.exp(-(iou * iou) / mSigma);
+    }
+
+    // max-heap on the packed key: high word is the score, low word the candidate index
+
+    private void push(float score, int index) {
+        final long key = ((long) BatchedNms.sortableBits(score) << 32) | index;
+        int i = mHeapSize++;
+        while (i > 0) {
+            final int parent = (i - 1) >> 1;
+            if (mHeap[parent] >= key) {
+                break;
+            }
+            mHeap[i] = mHeap[parent];
+            i = parent;
+        }
+        mHeap[i] = key;
+    }
+
+    private long pop() {
+        final long top = mHeap[0];
+        final long last = mHeap[--mHeapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= mHeapSize) {
+                break;
+            }
+            if (child + 1 < mHeapSize && mHeap[child + 1] > mHeap[child]) {
+                child++;
+            }
+            if (mHeap[child] <= last) {
+                break;
+            }
+            mHeap[i] = mHeap[child];
+            i = child;
+        }
+        mHeap[i] = last;
+        return top;
+    }
+
+    private static float scoreOf(long key) {
+        final int bits = (int) (key >> 32);
+        return Float.intBitsToFloat(bits ^ ((bits >> 31) & 0x7fffffff));
+    }
+
+    private void ensureCapacity(int n) {
+        if (mScores.length < n) {
+            final int capacity = Math.max(n, 2 * mScores.length);
+            mHeap = new long[capacity];
+            mScores = new float[capacity];
+            mDone = new boolean[capacity];
+        }
+    }
+}
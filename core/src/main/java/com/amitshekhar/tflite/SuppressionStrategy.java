@@ -0,0 +1,13 @@
+package com.amitshekhar.tflite;
+
+/**
+ * Decides which decoded candidates survive as final detections.
+ */
+public interface SuppressionStrategy {
+
+    /**
+     * Copies the candidates of {@code in} that survive into {@code out}, highest score first.
+     * Implementations stop as soon as their max-detections cap has been kept.
+     */
+    void suppress(CandidateBuffer in, CandidateBuffer out);
+}
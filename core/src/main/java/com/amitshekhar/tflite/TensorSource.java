@@ -0,0 +1,20 @@
+package com.amitshekhar.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Supplies the raw output heads of one inference to the decoder. Float heads are read through
+ * {@link #getOutput(int)}, quantized ones through {@link #getQuantizedOutput(int)}.
+ */
+public interface TensorSource {
+
+    /** Flat {@code [W][W][boxes][5 + classes]} view of float output head {@code head}. */
+    FloatBuffer getOutput(int head);
+
+    /** Quantization of head {@code head}, or null when it is float. */
+    Quantization getQuantization(int head);
+
+    /** Flat {@code [W][W][boxes][5 + classes]} bytes of quantized output head {@code head}. */
+    ByteBuffer getQuantizedOutput(int head);
+}
@@ -0,0 +1,47 @@
+package com.amitshekhar.tflite;
+
+/**
+ * Collects the detections of the tiles of a {@link TilePlan}, already mapped to image
+ * coordinates, as the tiles finish in any order on any thread, and merges them into one set.
+ * A detection is only kept from the tile whose core holds its center; whatever still overlaps
+ * across a seam afterwards is removed by the suppression strategy.
+ */
+public class TileMerger {
+
+    private final TilePlan mPlan;
+    private final CandidateBuffer mCandidates = new CandidateBuffer();
+    private final CandidateBuffer mMerged = new CandidateBuffer();
+
+    public TileMerger(TilePlan plan) {
+        mPlan = plan;
+    }
+
+    public TilePlan getPlan() {
+        return mPlan;
+    }
+
+    public synchronized void add(int tile, CandidateBuffer detections) {
+        final float[] boxes = detections.boxes;
+        for (int i = 0; i < detections.size(); i++) {
+            final float centerX = (boxes[4 * i] + boxes[4 * i + 2]) / 2;
+            final float centerY = (boxes[4 * i + 1] + boxes[4 * i + 3]) / 2;
+            if (mPlan.inCore(tile, centerX, centerY)) {
+                mCandidates.add(detections, i);
+            }
+        }
+    }
+
+    /**
+     * Suppresses the collected detections with {@code suppression}. The returned buffer is
+     * owned by the merger and overwritten by the next call.
+     */
+    public synchronized CandidateBuffer merge(SuppressionStrategy suppression) {
+        suppression.suppress(mCandidates, mMerged);
+        return mMerged;
+    }
+
+    /** Number of detections collected so far, before suppression. */
+    public synchronized int getCandidateCount() {
+        return mCandidates.size();
+    }
+}
@@ -0,0 +1,112 @@
+package com.amitshekhar.tflite;
+
+/**
+ * Cuts a large image into overlapping square tiles of the model input size, so small objects
+ * are detected at full resolution instead of being scaled away. Along each axis the tiles are
+ * spread evenly so that neighbours overlap by at least {@code overlap} pixels and the last tile
+ * ends on the image edge; an image smaller than a tile gets a single, padded tile.
+ *
+ * Every tile also owns a core region: the overlap between two neighbours is split in half, so
+ * each point of the image lies in exactly one core. Keeping only the detections centered in
+ * their tile's core removes most seam duplicates before suppression, including boxes that a
+ * tile edge cut short.
+ */
+public class TilePlan {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mTileSize;
+    private final int[] mXs;
+    private final int[] mYs;
+    private final float[] mXSplits;
+    private final float[] mYSplits;
+
+    public TilePlan(int width, int height, int tileSize, int overlap) {
+        if (width <= 0 || height <= 0 || tileSize <= 0 || overlap < 0 || overlap >= tileSize) {
+            throw new IllegalArgumentException("bad tiling of " + width + "x" + height
+                    + " into " + tileSize + " px tiles with " + overlap + " px overlap");
+        }
+        mWidth = width;
+        mHeight = height;
+        mTileSize = tileSize;
+        mXs = starts(width, tileSize, overlap);
+        mYs = starts(height, tileSize, overlap);
+        mXSplits = splits(mXs, tileSize);
+        mYSplits = splits(mYs, tileSize);
+    }
+
+    public int size() {
+        return mXs.length * mYs.length;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    public int getLeft(int tile) {
+        return mXs[tile % mXs.length];
+    }
+
+    public int getTop(int tile) {
+        return mYs[tile / mXs.length];
+    }
+
+    /** Exclusive right edge, clamped to the image. */
+    public int getRight(int tile) {
+        return Math.min(mWidth, getLeft(tile) + mTileSize);
+    }
+
+    /** Exclusive bottom edge, clamped to the image. */
+    public int getBottom(int tile) {
+        return Math.min(mHeight, getTop(tile) + mTileSize);
+    }
+
+    /**
+     * Whether the image point {@code (x, y)} lies in the core region of {@code tile}.
+     */
+    public boolean inCore(int tile, float x, float y) {
+        final int column = tile % mXs.length;
+        final int row = tile / mXs.length;
+        return (column == 0 || x >= mXSplits[column - 1])
+                && (column == mXs.length - 1 || x < mXSplits[column])
+                && (row == 0 || y >= mYSplits[row - 1])
+                && (row == mYs.length - 1 || y < mYSplits[row]);
+    }
+
+    /**
+     * Sets {@code transform} to map image coordinates into the input of {@code tile}, which
+     * holds the tile's pixels unscaled at its top left corner.
+     */
+    public InputTransform transform(int tile, InputTransform transform) {
+        return transform.setTile(getLeft(tile), getTop(tile), mWidth, mHeight);
+    }
+
+    private static int[] starts(int length, int tileSize, int overlap) {
+        if (length <= tileSize) {
+            return new int[]{0};
+        }
+        final int count = (int) Math.ceil((length - overlap) / (double) (tileSize - overlap));
+        final int[] starts = new int[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = (int) ((long) i * (length - tileSize) / (count - 1));
+        }
+        return starts;
+    }
+
+    // middle of the overlap between each tile and the next one
+    private static float[] splits(int[] starts, int tileSize) {
+        final float[] splits = new float[starts.length - 1];
+        for (int i = 0; i < splits.length; i++) {
+            splits[i] = (starts[i + 1] + starts[i] + tileSize) / 2.0f;
+        }
+        return splits;
+    }
+}
@@ -0,0 +1,281 @@
+package com.amitshekhar.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Threshold-aware decoder for YOLO output heads laid out as [W][W][boxes][5 + classes].
+ *
+ * An anchor can only pass when expit(objectness) is above the threshold, because the class
+ * probability it gets multiplied with is at most 1. The decoder therefore rejects anchors on
+ * the raw objectness logit, takes the class argmax on raw logits (softmax is monotonic), and
+ * only pays for the softmax denominator on the anchors that survive.
+ *
+ * Grid strides and the anchor sizes of every head are looked up once in the constructor
+ * instead of through the mask indirection for every box.
+ *
+ * Quantized heads are decoded from their raw bytes. The objectness cutoff is moved into the
+ * raw domain of each head, so rejecting an anchor stays a single integer compare, the class
+ * argmax runs on raw values, and only surviving anchors are dequantized, through a 256 entry
+ * table.
+ */
+public class YoloDecoder {
+
+    private final int mNumClasses;
+    private final int mNumBoxesPerBlock;
+    private final int[] mOutWidth;
+    // per head: input pixels per grid cell, and width and height of each of its anchors
+    private final int[] mStride;
+    private final double[][] mAnchorWidth;
+    private final double[][] mAnchorHeight;
+
+    private float mObjThresh = Float.NaN;
+    private float mObjLogitCutoff;
+    private final InputTransform mIdentity = new InputTransform();
+    // per head: the quantization and logit cutoff the raw cutoff was computed for
+    private final Quantization[] mCutoffQuantization;
+    private final float[] mCutoffLogit;
+    private final int[] mRawCutoff;
+
+    public YoloDecoder(int numClasses, int numBoxesPerBlock, int inputSize,
+                       int[] anchors, int[][] masks, int[] outWidth) {
+        mNumClasses = numClasses;
+        mNumBoxesPerBlock = numBoxesPerBlock;
+        mOutWidth = outWidth;
+        mCutoffQuantization = new Quantization[outWidth.length];
+        mCutoffLogit = new float[outWidth.length];
+        mRawCutoff = new int[outWidth.length];
+
+        mStride = new int[outWidth.length];
+        mAnchorWidth = new double[outWidth.length][numBoxesPerBlock];
+        mAnchorHeight = new double[outWidth.length][numBoxesPerBlock];
+        for (int head = 0; head < outWidth.length; head++) {
+            mStride[head] = inputSize / outWidth[head];
+            for (int b = 0; b < numBoxesPerBlock; b++) {
+                mAnchorWidth[head][b] = anchors[2 * masks[head][b]];
+                mAnchorHeight[head][b] = anchors[2 * masks[head][b] + 1];
+            }
+        }
+    }
+
+    public void setObjThresh(float objThresh) {
+        if (objThresh != mObjThresh) {
+            mObjThresh = objThresh;
+            mObjLogitCutoff = objectnessCutoff(objThresh);
+        }
+    }
+
+    public float getObjThresh() {
+        return mObjThresh;
+    }
+
+    public int getNumHeads() {
+        return mOutWidth.length;
+    }
+
+    /** Width, and height, of the grid of {@code head}. */
+    public int getGridWidth(int head) {
+        return mOutWidth[head];
+    }
+
+    public int getNumBoxesPerBlock() {
+        return mNumBoxesPerBlock;
+    }
+
+    /**
+     * Decodes head {@code head} from {@code out} and appends every anchor whose class
+     * confidence is above the threshold to {@code dst}. Boxes stay in input coordinates and are
+     * clipped to the image size.
+     */
+    public void decodeHead(int head, FloatBuffer out, int imageWidth, int imageHeight, CandidateBuffer dst) {
+        decodeHead(head, out, mIdentity.setIdentity(imageWidth, imageHeight), dst);
+    }
+
+    /**
+     * Like {@link #decodeHead(int, FloatBuffer, int, int, CandidateBuffer)}, but maps every
+     * kept box back through {@code transform} and clips it to the source image, so no second
+     * pass over the results is needed to undo scaling or letterbox padding.
+     */
+    public void decodeHead(int head, FloatBuffer out, InputTransform transform, CandidateBuffer dst) {
+        decodeRows(head, out, transform, 0, mOutWidth[head], dst);
+    }
+
+    /**
+     * Like {@link #decodeHead(int, FloatBuffer, InputTransform, CandidateBuffer)}, for the grid
+     * rows from {@code rowStart} to {@code rowEnd} only. Decoding rows only reads the decoder
+     * and {@code out}, so several threads can decode disjoint rows into their own buffers.
+     */
+    public void decodeRows(int head, FloatBuffer out, InputTransform transform,
+                           int rowStart, int rowEnd, CandidateBuffer dst) {
+        final int gridWidth = mOutWidth[head];
+        final int numClasses = mNumClasses;
+        final int stride = numClasses + 5;
+        final int scale = mStride[head];
+        final double[] anchorWidth = mAnchorWidth[head];
+        final double[] anchorHeight = mAnchorHeight[head];
+        final float objThresh = mObjThresh;
+        final float cutoff = mObjLogitCutoff;
+        final float offsetX = transform.getOffsetX();
+        final float offsetY = transform.getOffsetY();
+        final float scaleX = transform.getScaleX();
+        final float scaleY = transform.getScaleY();
+        final int maxX = transform.getSourceWidth() - 1;
+        final int maxY = transform.getSourceHeight() - 1;
+
+        for (int y = rowStart; y < rowEnd; ++y) {
+            for (int x = 0; x < gridWidth; ++x) {
+                for (int b = 0; b < mNumBoxesPerBlock; ++b) {
+                    final int offset = ((y * gridWidth + x) * mNumBoxesPerBlock + b) * stride;
+
+                    final float objLogit = out.get(offset + 4);
+                    if (!(objLogit > cutoff)) {
+                        continue;
+                    }
+
+                    int detectedClass = 0;
+                    float maxLogit = out.get(offset + 5);
+                    for (int c = 1; c < numClasses; ++c) {
+                        final float logit = out.get(offset + 5 + c);
+                        if (logit > maxLogit) {
+                            detectedClass = c;
+                            maxLogit = logit;
+                        }
+                    }
+
+                    float sum = 0.0f;
+                    for (int c = 0; c < numClasses; ++c) {
+                        sum += (float) Math.exp(out.get(offset + 5 + c) - maxLogit);
+                    }
+                    final float maxClass = 1.0f / sum;
+                    final float confidenceInClass = maxClass * expit(objLogit);
+
+                    if (confidenceInClass > objThresh) {
+                        final float xPos = (x + expit(out.get(offset))) * scale;
+                        final float yPos = (y + expit(out.get(offset + 1))) * scale;
+
+                        final float w = (float) (Math.exp(out.get(offset + 2)) * anchorWidth[b]);
+                        final float h = (float) (Math.exp(out.get(offset + 3)) * anchorHeight[b]);
+
+                        dst.add(Math.max(0, (xPos - w / 2 - offsetX) / scaleX),
+                                Math.max(0, (yPos - h / 2 - offsetY) / scaleY),
+                                Math.min(maxX, (xPos + w / 2 - offsetX) / scaleX),
+                                Math.min(maxY, (yPos + h / 2 - offsetY) / scaleY),
+                                confidenceInClass, detectedClass, offset);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Like {@link #decodeHead(int, FloatBuffer, InputTransform, CandidateBuffer)}, for a head
+     * quantized with {@code quantization} and read as raw bytes from {@code out}.
+     */
+    public void decodeHead(int head, ByteBuffer out, Quantization quantization,
+                           InputTransform transform, CandidateBuffer dst) {
+        decodeRows(head, out, quantization, transform, 0, mOutWidth[head], dst);
+    }
+
+    /**
+     * Like {@link #decodeRows(int, FloatBuffer, InputTransform, int, int, CandidateBuffer)},
+     * for a quantized head. Threads decoding the same head in parallel must see its raw cutoff
+     * computed first, through {@link #rawCutoff}.
+     */
+    public void decodeRows(int head, ByteBuffer out, Quantization quantization, InputTransform transform,
+                           int rowStart, int rowEnd, CandidateBuffer dst) {
+        final int gridWidth = mOutWidth[head];
+        final int numClasses = mNumClasses;
+        final int stride = numClasses + 5;
+        final int scale = mStride[head];
+        final double[] anchorWidth = mAnchorWidth[head];
+        final double[] anchorHeight = mAnchorHeight[head];
+        final float objThresh = mObjThresh;
+        final int cutoff = rawCutoff(head, quantization);
+        final int mask = quantization.getMask();
+        final float[] real = quantization.table();
+        final float offsetX = transform.getOffsetX();
+        final float offsetY = transform.getOffsetY();
+        final float scaleX = transform.getScaleX();
+        final float scaleY = transform.getScaleY();
+        final int maxX = transform.getSourceWidth() - 1;
+        final int maxY = transform.getSourceHeight() - 1;
+
+        for (int y = rowStart; y < rowEnd; ++y) {
+            for (int x = 0; x < gridWidth; ++x) {
+                for (int b = 0; b < mNumBoxesPerBlock; ++b) {
+                    final int offset = ((y * gridWidth + x) * mNumBoxesPerBlock + b) * stride;
+
+                    final byte objRaw = out.get(offset + 4);
+                    if ((objRaw & mask) <= cutoff) {
+                        continue;
+                    }
+
+                    int detectedClass = 0;
+                    int maxRaw = out.get(offset + 5) & mask;
+                    for (int c = 1; c < numClasses; ++c) {
+                        final int raw = out.get(offset + 5 + c) & mask;
+                        if (raw > maxRaw) {
+                            detectedClass = c;
+                            maxRaw = raw;
+                        }
+                    }
+
+                    final float maxLogit = real[maxRaw & 0xff];
+                    float sum = 0.0f;
+                    for (int c = 0; c < numClasses; ++c) {
+                        sum += (float) Math.exp(real[out.get(offset + 5 + c) & 0xff] - maxLogit);
+                    }
+                    final float maxClass = 1.0f / sum;
+                    final float confidenceInClass = maxClass * expit(real[objRaw & 0xff]);
+
+                    if (confidenceInClass > objThresh) {
+                        final float xPos = (x + expit(real[out.get(offset) & 0xff])) * scale;
+                        final float yPos = (y + expit(real[out.get(offset + 1) & 0xff])) * scale;
+
+                        final float w = (float) (Math.exp(real[out.get(offset + 2) & 0xff]) * anchorWidth[b]);
+                        final float h = (float) (Math.exp(real[out.get(offset + 3) & 0xff]) * anchorHeight[b]);
+
+                        dst.add(Math.max(0, (xPos - w / 2 - offsetX) / scaleX),
+                                Math.max(0, (yPos - h / 2 - offsetY) / scaleY),
+                                Math.min(maxX, (xPos + w / 2 - offsetX) / scaleX),
+                                Math.min(maxY, (yPos + h / 2 - offsetY) / scaleY),
+                                confidenceInClass, detectedClass, offset);
+                    }
+                }
+            }
+        }
+    }
+
+    // cached per head, so only computed again when the quantization or threshold changes
+    int rawCutoff(int head, Quantization quantization) {
+        if (quantization != mCutoffQuantization[head]
+                || Float.compare(mObjLogitCutoff, mCutoffLogit[head]) != 0) {
+            mCutoffQuantization[head] = quantization;
+            mCutoffLogit[head] = mObjLogitCutoff;
+            mRawCutoff[head] = quantization.floorRaw(mObjLogitCutoff);
+        }
+        return mRawCutoff[head];
+    }
+
+    static float expit(final float x) {
+        return (float) (1. / (1. + Math.exp(-x)));
+    }
+
+    /**
+     * Returns the largest logit known to give expit(logit) <= thresh, so that any anchor at or
+     * below it can be rejected without changing the result of the full decode.
+     */
+    static float objectnessCutoff(float thresh) {
+        if (thresh >= 1.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        if (!(thresh > 0.0f)) {
+            return Float.NEGATIVE_INFINITY;
+        }
+        float cutoff = (float) Math.log(thresh / (1.0 - thresh));
+        while (expit(cutoff) > thresh) {
+            cutoff = Math.nextAfter(cutoff, Double.NEGATIVE_INFINITY);
+        }
+        return cutoff;
+    }
+}
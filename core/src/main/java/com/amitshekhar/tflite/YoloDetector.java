@@ -0,0 +1,102 @@
+package com.amitshekhar.tflite;
+
+/**
+ * Turns the output heads of one inference into final detections: every head is decoded into a
+ * shared candidate buffer, which is then run through the suppression strategy. With an
+ * {@link Instrumentation} both steps are timed and the candidate counts before and after
+ * suppression recorded. With {@link #setParallelDecode} the heads are decoded by a
+ * {@link ParallelDecoder} on the shared fork-join pool.
+ */
+public class YoloDetector {
+
+    private final YoloDecoder mDecoder;
+    private final int mNumHeads;
+    private SuppressionStrategy mSuppression;
+    private Instrumentation mInstrumentation;
+    private ParallelDecoder mParallel;
+
+    private final CandidateBuffer mCandidates = new CandidateBuffer();
+    private final CandidateBuffer mKept = new CandidateBuffer();
+    private final InputTransform mIdentity = new InputTransform();
+
+    public YoloDetector(int numClasses, int numBoxesPerBlock, int inputSize,
+                        int[] anchors, int[][] masks, int[] outWidth,
+                        SuppressionStrategy suppression) {
+        mDecoder = new YoloDecoder(numClasses, numBoxesPerBlock, inputSize, anchors, masks, outWidth);
+        mNumHeads = outWidth.length;
+        mSuppression = suppression;
+    }
+
+    public void setObjThresh(float objThresh) {
+        mDecoder.setObjThresh(objThresh);
+    }
+
+    public void setSuppression(SuppressionStrategy suppression) {
+        mSuppression = suppression;
+    }
+
+    /** Times decode and suppression into {@code instrumentation}, or nothing when null. */
+    public void setInstrumentation(Instrumentation instrumentation) {
+        mInstrumentation = instrumentation;
+    }
+
+    /**
+     * Decodes in parallel once the heads hold at least twice {@code minAnchorsPerTask} anchors,
+     * in tasks of at least that many; 0 decodes on the calling thread.
+     */
+    public void setParallelDecode(int minAnchorsPerTask) {
+        mParallel = minAnchorsPerTask > 0
+                ? new ParallelDecoder(mDecoder, ParallelDecoder.sharedPool(), minAnchorsPerTask) : null;
+    }
+
+    /**
+     * Decodes and suppresses {@code outputs}, float or quantized, clipping boxes to the image
+     * size. The returned buffer is owned by this detector and overwritten by the next call.
+     */
+    public CandidateBuffer detect(TensorSource outputs, int imageWidth, int imageHeight) {
+        return detect(outputs, mIdentity.setIdentity(imageWidth, imageHeight));
+    }
+
+    /**
+     * Decodes and suppresses {@code outputs} of an input prepared through {@code transform};
+     * the returned boxes are in source image coordinates.
+     */
+    public CandidateBuffer detect(TensorSource outputs, InputTransform transform) {
+        final Instrumentation instrumentation = mInstrumentation;
+        long start = instrumentation != null ? instrumentation.start() : 0;
+        mCandidates.clear();
+        final ParallelDecoder parallel = mParallel;
+        if (parallel != null) {
+            parallel.decode(outputs, transform, mCandidates);
+        } else {
+            decode(outputs, transform);
+        }
+        if (instrumentation != null) {
+            instrumentation.stop(Instrumentation.Stage.DECODE, start);
+            start = instrumentation.start();
+        }
+        mSuppression.suppress(mCandidates, mKept);
+        if (instrumentation != null) {
+            instrumentation.stop(Instrumentation.Stage.NMS, start);
+            instrumentation.count(Instrumentation.Counter.CANDIDATES_BEFORE_NMS, mCandidates.size());
+            instrumentation.count(Instrumentation.Counter.CANDIDATES_AFTER_NMS, mKept.size());
+        }
+        return mKept;
+    }
+
+    private void decode(TensorSource outputs, InputTransform transform) {
+        for (int i = 0; i < mNumHeads; i++) {
+            final Quantization quantization = outputs.getQuantization(i);
+            if (quantization != null) {
+                mDecoder.decodeHead(i, outputs.getQuantizedOutput(i), quantization, transform, mCandidates);
+            } else {
+                mDecoder.decodeHead(i, outputs.getOutput(i), transform, mCandidates);
+            }
+        }
+    }
+
+    /** Candidates of the last {@link #detect} call, before suppression. */
+    public CandidateBuffer getCandidates() {
+        return mCandidates;
+    }
+}
@@ -0,0 +1,121 @@
+package com.amitshekhar.tflite;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Holds the first batch in the detector while more inputs queue up, so the batch sizes the
+ * queue depth leads to are known exactly.
+ */
+public class BatchingDetectorTest {
+
+    /** Upper-cases every input once released; records the size of every batch. */
+    private static class GatedDetector implements BatchingDetector.Detector<String, String> {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        public List<String> detect(List<String> inputs) throws Exception {
+            batches.add(inputs.size());
+            started.countDown();
+            release.await();
+            final List<String> results = new ArrayList<>(inputs.size());
+            for (String input : inputs) {
+                if (input.startsWith("bad")) {
+                    throw new IllegalArgumentException(input);
+                }
+                results.add(input.toUpperCase());
+            }
+            return results;
+        }
+    }
+
+    private static class Recorder implements DetectionService.Callback<String, String> {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        List<String> await(int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 1000;
+            while (events.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            return events;
+        }
+
+        @Override
+        public void onResult(String input, String result) {
+            events.add(input + "=" + result);
+        }
+
+        @Override
+        public void onFailure(String input, Exception error) {
+            events.add(input + "!" + error.getClass().getSimpleName());
+        }
+    }
+
+    private final GatedDetector mDetector = new GatedDetector();
+    private final Recorder mRecorder = new Recorder();
+    private final BatchingDetector<String, String> mBatcher = new BatchingDetector<>(mDetector, 4, 8);
+
+    @After
+    public void tearDown() {
+        mDetector.release.countDown();
+        mBatcher.shutdown();
+    }
+
+    @Test
+    public void submit_batchSizeFollowsQueueDepth() throws Exception {
+        mBatcher.submit("a", mRecorder);
+        assertTrue(mDetector.started.await(1, TimeUnit.SECONDS));
+        for (String input : new String[]{"b", "c", "d", "e", "f"}) {
+            mBatcher.submit(input, mRecorder);
+        }
+        mDetector.release.countDown();
+
+        assertEquals(Arrays.asList("a=A", "b=B", "c=C", "d=D", "e=E", "f=F"), mRecorder.await(6));
+        // the lone first input runs alone, the backlog in batches of at most four
+        assertEquals(Arrays.asList(1, 4, 1), mDetector.batches);
+        assertEquals(3, mBatcher.getBatches());
+        assertEquals(6, mBatcher.getInputs());
+    }
+
+    @Test
+    public void submit_failsEveryInputOfAFailedBatch() throws Exception {
+        mBatcher.submit("a", mRecorder);
+        assertTrue(mDetector.started.await(1, TimeUnit.SECONDS));
+        mBatcher.submit("b", mRecorder);
+        mBatcher.submit("bad", mRecorder);
+        mDetector.release.countDown();
+
+        assertEquals(Arrays.asList("a=A", "b!IllegalArgumentException", "bad!IllegalArgumentException"),
+                mRecorder.await(3));
+        assertEquals(2, mBatcher.getFailed());
+    }
+
+    @Test
+    public void shutdown_cancelsQueuedInputsAndRejectsNewOnes() throws Exception {
+        mBatcher.submit("a", mRecorder);
+        assertTrue(mDetector.started.await(1, TimeUnit.SECONDS));
+        mBatcher.submit("b", mRecorder);
+        mBatcher.shutdown();
+        try {
+            mBatcher.submit("c", mRecorder);
+            fail("queued after shutdown");
+        } catch (RejectedExecutionException expected) {
+        }
+        mDetector.release.countDown();
+
+        assertTrue(mBatcher.awaitTermination(1000));
+        assertEquals(Arrays.asList("a=A", "b!CancellationException"), mRecorder.events);
+    }
+}
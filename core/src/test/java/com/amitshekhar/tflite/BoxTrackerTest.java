@@ -0,0 +1,153 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the tracker over synthetic constant-velocity trajectories, detecting only every few
+ * frames as the live pipeline does.
+ */
+public class BoxTrackerTest {
+
+    private static final long FRAME_NANOS = 33333333L;
+
+    @Test
+    public void track_keepsIdsAndPredictsBetweenDetections() throws Exception {
+        final BoxTracker tracker = new BoxTracker(0.3f, 2);
+        tracker.setDetectionInterval(3);
+        final Random random = new Random(3);
+        // two objects of the same class passing each other horizontally, 120 px/s and -90 px/s
+        final float[][] starts = {{100, 200}, {500, 220}};
+        final float[] speeds = {120, -90};
+
+        int detections = 0;
+        int[] ids = null;
+        for (int frame = 0; frame < 90; frame++) {
+            final long time = frame * FRAME_NANOS;
+            if (tracker.scheduleDetection()) {
+                detections++;
+                final CandidateBuffer detected = new CandidateBuffer();
+                for (int o = 0; o < 2; o++) {
+                    final float x = starts[o][0] + speeds[o] * frame * FRAME_NANOS / 1e9f;
+                    final float noise = 0.5f * (float) random.nextGaussian();
+                    detected.add(x + noise, starts[o][1] + noise, x + 60 + noise, starts[o][1] + 80, 0.9f, 0, o);
+                }
+                tracker.update(detected, time);
+            } else {
+                tracker.predict(time);
+            }
+
+            final List<BoxTracker.Track> tracks = tracker.getTracks();
+            assertEquals(2, tracks.size());
+            if (ids == null) {
+                ids = new int[]{tracks.get(0).getId(), tracks.get(1).getId()};
+            }
+            for (int o = 0; o < 2; o++) {
+                final BoxTracker.Track track = tracks.get(o);
+                assertEquals(ids[o], track.getId());
+                if (frame > 6) {
+                    // after a couple of detections the predicted box follows the object
+                    final float x = starts[o][0] + speeds[o] * frame * FRAME_NANOS / 1e9f;
+                    assertEquals(x, track.getLeft(), 4.0f);
+                }
+            }
+        }
+        assertEquals(30, detections);
+    }
+
+    @Test
+    public void track_dropsLostObjectsAndSchedulesEarlyDetection() throws Exception {
+        final BoxTracker tracker = new BoxTracker(0.3f, 1);
+        tracker.setDetectionInterval(10);
+        tracker.setMinConfidence(0.5f);
+        tracker.setConfidenceHalfLife(100000000L);
+
+        final CandidateBuffer detected = new CandidateBuffer();
+        detected.add(10, 10, 50, 50, 0.8f, 1, 0);
+        assertTrue(tracker.scheduleDetection());
+        tracker.update(detected, 0);
+        assertEquals(1, tracker.size());
+
+        // confidence 0.8 halves every 100 ms and falls below 0.5 after ~68 ms
+        tracker.predict(FRAME_NANOS);
+        assertFalse(tracker.scheduleDetection());
+        tracker.predict(3 * FRAME_NANOS);
+        assertTrue(tracker.scheduleDetection());
+
+        final CandidateBuffer empty = new CandidateBuffer();
+        tracker.update(empty, 4 * FRAME_NANOS);
+        assertEquals(1, tracker.size());
+        tracker.update(empty, 5 * FRAME_NANOS);
+        assertEquals(0, tracker.size());
+    }
+
+    @Test
+    public void update_doesNotMatchAcrossClasses() throws Exception {
+        final BoxTracker tracker = new BoxTracker(0.3f, 0);
+        final CandidateBuffer first = new CandidateBuffer();
+        first.add(10, 10, 50, 50, 0.8f, 1, 0);
+        tracker.update(first, 0);
+        final int id = tracker.getTracks().get(0).getId();
+
+        final CandidateBuffer second = new CandidateBuffer();
+        second.add(10, 10, 50, 50, 0.8f, 2, 0);
+        tracker.update(second, FRAME_NANOS);
+
+        final List<BoxTracker.Track> tracks = tracker.getTracks();
+        assertEquals(1, tracks.size());
+        assertNotEquals(id, tracks.get(0).getId());
+        assertEquals(2, tracks.get(0).getDetectedClass());
+    }
+
+    @Test
+    public void hungarian_matchesBruteForce() throws Exception {
+        final Random random = new Random(5);
+        for (int trial = 0; trial < 200; trial++) {
+            final int rows = 1 + random.nextInt(5);
+            final int columns = 1 + random.nextInt(5);
+            final double[][] cost = new double[rows][columns];
+            for (double[] row : cost) {
+                for (int j = 0; j < columns; j++) {
+                    row[j] = random.nextDouble();
+                }
+            }
+            final int[] assignment = Hungarian.assign(cost);
+            double total = 0;
+            final boolean[] used = new boolean[columns];
+            int assigned = 0;
+            for (int i = 0; i < rows; i++) {
+                if (assignment[i] >= 0) {
+                    assertFalse(used[assignment[i]]);
+                    used[assignment[i]] = true;
+                    total += cost[i][assignment[i]];
+                    assigned++;
+                }
+            }
+            assertEquals(Math.min(rows, columns), assigned);
+            assertEquals(bruteForce(cost, 0, new boolean[columns], Math.min(rows, columns)), total, 1e-9);
+        }
+    }
+
+    // cheapest way to assign `left` more rows starting at `row`, rows may be skipped if rows > columns
+    private static double bruteForce(double[][] cost, int row, boolean[] used, int left) {
+        if (left == 0) {
+            return 0;
+        }
+        if (cost.length - row < left) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double best = bruteForce(cost, row + 1, used, left);
+        for (int j = 0; j < used.length; j++) {
+            if (!used[j]) {
+                used[j] = true;
+                best = Math.min(best, cost[row][j] + bruteForce(cost, row + 1, used, left - 1));
+                used[j] = false;
+            }
+        }
+        return best;
+    }
+}
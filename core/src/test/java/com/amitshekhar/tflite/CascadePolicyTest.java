@@ -0,0 +1,99 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CascadePolicyTest {
+
+    private static final int WIDTH = 1000;
+    private static final int HEIGHT = 800;
+
+    private final CascadePolicy mPolicy = new CascadePolicy(0.2f, 0.6f).setBusyThresh(10.0f).setMaxRegionArea(0.25f);
+    private final float[] mRegion = new float[4];
+
+    @Test
+    public void decide_acceptsConfidentAndNoiseOnlyResults() throws Exception {
+        final CandidateBuffer cheap = new CandidateBuffer();
+        cheap.add(100, 100, 200, 200, 0.9f, 0, 0);
+        cheap.add(300, 300, 400, 400, 0.1f, 1, 1);
+        assertEquals(CascadePolicy.ACCEPT, mPolicy.decide(cheap, WIDTH, HEIGHT, 50.0f, mRegion));
+
+        final CandidateBuffer kept = new CandidateBuffer();
+        mPolicy.addConfident(cheap, kept);
+        assertEquals(1, kept.size());
+        assertEquals(0.9f, kept.scores[0], 0.0f);
+    }
+
+    @Test
+    public void decide_escalatesEmptyResultOnlyOnBusyScene() throws Exception {
+        final CandidateBuffer empty = new CandidateBuffer();
+        assertEquals(CascadePolicy.ACCEPT, mPolicy.decide(empty, WIDTH, HEIGHT, 5.0f, mRegion));
+        assertEquals(CascadePolicy.FULL, mPolicy.decide(empty, WIDTH, HEIGHT, 15.0f, mRegion));
+        assertEquals(1, mPolicy.getBusyEscalations());
+
+        // noise alone does not count as a result, so the busyness is still needed
+        assertTrue(mPolicy.needsBusyness(empty));
+        empty.add(0, 0, 10, 10, 0.05f, 0, 0);
+        assertTrue(mPolicy.needsBusyness(empty));
+        assertEquals(CascadePolicy.FULL, mPolicy.decide(empty, WIDTH, HEIGHT, 15.0f, mRegion));
+
+        empty.add(0, 0, 10, 10, 0.3f, 0, 0);
+        assertFalse(mPolicy.needsBusyness(empty));
+    }
+
+    @Test
+    public void decide_cropsSmallUncertainAreaAndEscalatesLargeOne() throws Exception {
+        final CandidateBuffer cheap = new CandidateBuffer();
+        cheap.add(400, 400, 500, 480, 0.4f, 0, 0);
+        cheap.add(100, 100, 200, 200, 0.9f, 0, 1);
+        assertEquals(CascadePolicy.REGION, mPolicy.decide(cheap, WIDTH, HEIGHT, 0.0f, mRegion));
+        // grown by half the uncertain box on every side
+        assertArrayEquals(new float[]{0.35f, 0.45f, 0.55f, 0.65f}, mRegion, 1e-6f);
+
+        cheap.add(900, 700, 1000, 800, 0.3f, 0, 2);
+        assertEquals(CascadePolicy.FULL, mPolicy.decide(cheap, WIDTH, HEIGHT, 0.0f, mRegion));
+        assertEquals(1.0f, mRegion[2], 0.0f);
+        assertEquals(1.0f, mRegion[3], 0.0f);
+
+        final CascadePolicy wholeOnly = new CascadePolicy(0.2f, 0.6f);
+        cheap.clear();
+        cheap.add(400, 400, 410, 410, 0.4f, 0, 0);
+        assertEquals(CascadePolicy.FULL, wholeOnly.decide(cheap, WIDTH, HEIGHT, 0.0f, mRegion));
+    }
+
+    @Test
+    public void busyness_separatesFlatFromCluttered() throws Exception {
+        final int size = 64;
+        final int[] flat = new int[size * size];
+        final int[] noise = new int[size * size];
+        final Random random = new Random(3);
+        for (int i = 0; i < flat.length; i++) {
+            flat[i] = 0xff808080;
+            noise[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        assertEquals(0.0f, CascadePolicy.busyness(flat, size, size), 0.0f);
+        assertTrue(CascadePolicy.busyness(noise, size, size) > 50.0f);
+    }
+
+    @Test
+    public void record_reportsEscalationRatePerPath() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            mPolicy.record(CascadePolicy.ACCEPT, 1000000);
+        }
+        mPolicy.record(CascadePolicy.REGION, 5000000);
+        mPolicy.record(CascadePolicy.FULL, 9000000);
+        mPolicy.record(CascadePolicy.FULL, 9000000);
+
+        assertEquals(1 / 3.0f, mPolicy.getEscalationRate(), 1e-6f);
+        assertEquals(2, mPolicy.snapshot(CascadePolicy.FULL).getCount());
+        final String report = mPolicy.report();
+        assertTrue(report, report.startsWith("escalated: 33.3%"));
+        assertTrue(report, report.contains("region: n=1"));
+
+        mPolicy.reset();
+        assertEquals(0.0f, mPolicy.getEscalationRate(), 0.0f);
+    }
+}
@@ -0,0 +1,39 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DetectionBatchTest {
+
+    @Test
+    public void set_copiesDetectionsAndReusesArrays() throws Exception {
+        final List<String> labels = Arrays.asList("crane", "truck");
+        final CandidateBuffer detections = new CandidateBuffer(2);
+        for (int i = 0; i < 100; i++) {
+            detections.add(i, 2 * i, i + 10, 2 * i + 10, i / 100.0f, i % 2, 1000 + i);
+        }
+
+        final DetectionBatch batch = new DetectionBatch(1);
+        batch.set(detections, labels);
+        assertEquals(100, batch.size());
+        assertEquals(42.0f, batch.getLeft(42), 0.0f);
+        assertEquals(94.0f, batch.getBottom(42), 0.0f);
+        assertEquals(0.42f, batch.getScore(42), 0.0f);
+        assertEquals("crane", batch.getLabel(42));
+        assertEquals("truck", batch.getLabel(43));
+        assertEquals(1042, batch.getOffset(42));
+
+        // the source is free to change, and a smaller refill keeps the grown arrays
+        detections.clear();
+        final float[] boxes = batch.boxes;
+        detections.add(1, 2, 3, 4, 0.5f, 1, 7);
+        batch.set(detections, labels);
+        assertEquals(1, batch.size());
+        assertSame(boxes, batch.boxes);
+        assertEquals("truck", batch.getLabel(0));
+    }
+}
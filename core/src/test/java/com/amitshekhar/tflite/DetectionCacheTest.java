@@ -0,0 +1,189 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DetectionCacheTest {
+
+    private static final List<String> LABELS = Arrays.asList("person", "car", "dog");
+    private static final String MODEL = "yolov3_pb.tflite obj=0.5";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void key_changesWithIdentityAndModel() throws Exception {
+        final long key = DetectionCache.key("/sdcard/a.jpg", 1000, 42, MODEL);
+
+        assertEquals(key, DetectionCache.key("/sdcard/a.jpg", 1000, 42, MODEL));
+        assertNotEquals(key, DetectionCache.key("/sdcard/b.jpg", 1000, 42, MODEL));
+        assertNotEquals(key, DetectionCache.key("/sdcard/a.jpg", 1001, 42, MODEL));
+        assertNotEquals(key, DetectionCache.key("/sdcard/a.jpg", 1000, 43, MODEL));
+        assertNotEquals(key, DetectionCache.key("/sdcard/a.jpg", 1000, 42, MODEL + " tiled"));
+        assertNotEquals(DetectionCache.key(new byte[]{1, 2}, MODEL), DetectionCache.key(new byte[]{2, 1}, MODEL));
+    }
+
+    @Test
+    public void get_returnsStoredDetectionsWithLabels() throws Exception {
+        final DetectionCache cache = new DetectionCache(1024);
+        final DetectionBatch batch = new DetectionBatch();
+        assertFalse(cache.get(1, LABELS, batch));
+
+        cache.put(1, detections(3));
+        assertTrue(cache.get(1, LABELS, batch));
+        assertDetections(3, batch);
+        assertEquals("car", batch.getLabel(1));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5f, cache.getHitRate(), 0.0f);
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedPastMemoryBound() throws Exception {
+        // a record of 2 detections takes 4 + 2 * 28 = 60 bytes
+        final DetectionCache cache = new DetectionCache(150);
+        final DetectionBatch batch = new DetectionBatch();
+        cache.put(1, detections(2));
+        cache.put(2, detections(2));
+        assertTrue(cache.get(1, LABELS, batch));
+        cache.put(3, detections(2));
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(120, cache.getMemoryBytes());
+        assertTrue(cache.get(1, LABELS, batch));
+        assertFalse(cache.get(2, LABELS, batch));
+        assertTrue(cache.get(3, LABELS, batch));
+    }
+
+    @Test
+    public void get_readsEvictedAndReopenedResultsFromDisk() throws Exception {
+        final File dir = mFolder.newFolder("detections");
+        DetectionCache cache = new DetectionCache(100, dir, 1 << 20);
+        cache.put(1, detections(2));
+        cache.put(2, detections(0));
+        // 144 bytes, more than the memory holds, so it only lands on disk
+        cache.put(3, detections(5));
+        assertEquals(3, cache.getEvictions());
+        final DetectionBatch batch = new DetectionBatch();
+        assertTrue(cache.get(1, LABELS, batch));
+        assertEquals(1, cache.getDiskHits());
+        assertDetections(2, batch);
+        cache.close();
+
+        cache = new DetectionCache(100, dir, 1 << 20);
+        assertTrue(cache.contains(3));
+        assertFalse(cache.contains(4));
+        assertEquals(0, cache.getMemoryBytes());
+        assertEquals(0, cache.getMisses());
+        assertTrue(cache.get(3, LABELS, batch));
+        assertDetections(5, batch);
+        assertTrue(cache.get(2, LABELS, batch));
+        assertEquals(0, batch.size());
+        assertFalse(cache.get(4, LABELS, batch));
+        cache.close();
+    }
+
+    @Test
+    public void open_ignoresTornTailAndKeepsAppending() throws Exception {
+        final File dir = mFolder.newFolder("detections");
+        DetectionCache cache = new DetectionCache(0, dir, 1 << 20);
+        cache.put(1, detections(2));
+        cache.put(2, detections(3));
+        cache.close();
+        // a crash after the index entry of 2 but before all of its record reached the disk
+        final RandomAccessFile data = new RandomAccessFile(new File(dir, "detections.dat"), "rw");
+        data.setLength(data.length() - 10);
+        data.close();
+
+        cache = new DetectionCache(0, dir, 1 << 20);
+        final DetectionBatch batch = new DetectionBatch();
+        assertTrue(cache.get(1, LABELS, batch));
+        assertFalse(cache.get(2, LABELS, batch));
+        cache.put(4, detections(1));
+        cache.close();
+
+        cache = new DetectionCache(0, dir, 1 << 20);
+        assertTrue(cache.get(1, LABELS, batch));
+        assertTrue(cache.get(4, LABELS, batch));
+        assertDetections(1, batch);
+        cache.close();
+    }
+
+    @Test
+    public void open_ignoresRecordMissingItsLastBytes() throws Exception {
+        final File dir = mFolder.newFolder("detections");
+        DetectionCache cache = new DetectionCache(0, dir, 1 << 20);
+        cache.put(1, detections(2));
+        cache.put(2, detections(3));
+        cache.close();
+        final RandomAccessFile data = new RandomAccessFile(new File(dir, "detections.dat"), "rw");
+        data.setLength(data.length() - 4);
+        data.close();
+
+        cache = new DetectionCache(0, dir, 1 << 20);
+        final DetectionBatch batch = new DetectionBatch();
+        assertTrue(cache.get(1, LABELS, batch));
+        assertFalse(cache.get(2, LABELS, batch));
+        cache.close();
+    }
+
+    @Test
+    public void put_startsDiskTierOverPastItsBound() throws Exception {
+        final File dir = mFolder.newFolder("detections");
+        // a record of 2 detections takes 12 + 4 + 2 * 28 = 72 bytes on disk
+        final DetectionCache cache = new DetectionCache(0, dir, 150);
+        cache.put(1, detections(2));
+        cache.put(2, detections(2));
+        cache.put(3, detections(2));
+
+        assertEquals(72, new File(dir, "detections.dat").length());
+        final DetectionBatch batch = new DetectionBatch();
+        assertFalse(cache.get(1, LABELS, batch));
+        assertFalse(cache.get(2, LABELS, batch));
+        assertTrue(cache.get(3, LABELS, batch));
+        assertDetections(2, batch);
+        cache.close();
+    }
+
+    @Test
+    public void open_dropsDiskTierPastItsBound() throws Exception {
+        final File dir = mFolder.newFolder("detections");
+        DetectionCache cache = new DetectionCache(0, dir, 1 << 20);
+        cache.put(1, detections(5));
+        cache.close();
+
+        // reopened with a smaller bound than the file was written under
+        cache = new DetectionCache(0, dir, 100);
+        assertFalse(cache.get(1, LABELS, new DetectionBatch()));
+        cache.close();
+    }
+
+    private static CandidateBuffer detections(int count) {
+        final CandidateBuffer detections = new CandidateBuffer();
+        for (int i = 0; i < count; i++) {
+            detections.add(i, i + 1, i + 10, i + 20, 0.5f + i / 100.0f, i % LABELS.size(), 1000 + i);
+        }
+        return detections;
+    }
+
+    private static void assertDetections(int count, DetectionBatch batch) {
+        assertEquals(count, batch.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, batch.getLeft(i), 0.0f);
+            assertEquals(i + 1, batch.getTop(i), 0.0f);
+            assertEquals(i + 10, batch.getRight(i), 0.0f);
+            assertEquals(i + 20, batch.getBottom(i), 0.0f);
+            assertEquals(0.5f + i / 100.0f, batch.getScore(i), 0.0f);
+            assertEquals(i % LABELS.size(), batch.getDetectedClass(i));
+            assertEquals(1000 + i, batch.getOffset(i));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the pipeline with a synthetic frame source that is faster than inference.
+ */
+public class DetectionPipelineTest {
+
+    private static final int RING_SIZE = 4;
+
+    /** Stamps the frame's sequence number into its data and sleeps in inference. */
+    private static class SlowProcessor implements FrameProcessor {
+        private final long mInferMillis;
+
+        SlowProcessor(long inferMillis) {
+            mInferMillis = inferMillis;
+        }
+
+        @Override
+        public void preprocess(Frame frame) {
+            frame.detections.clear();
+        }
+
+        @Override
+        public void infer(Frame frame) {
+            try {
+                Thread.sleep(mInferMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void postprocess(Frame frame) {
+            frame.detections.add(0, 0, 1, 1, 1.0f, frame.data[0], (int) frame.sequence);
+        }
+    }
+
+    @Test
+    public void pipeline_dropsStaleFramesAndKeepsOrder() throws Exception {
+        final List<Long> timestamps = Collections.synchronizedList(new ArrayList<Long>());
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+        final DetectionPipeline pipeline = new DetectionPipeline(new SlowProcessor(20),
+                new DetectionPipeline.Listener() {
+                    @Override
+                    public void onResult(Frame frame) {
+                        assertEquals(frame.sequence, frame.detections.offsets[0]);
+                        timestamps.add(frame.timestampNanos);
+                        latencies.add(frame.getLatencyNanos());
+                    }
+                }, RING_SIZE, 16);
+        pipeline.start();
+
+        // 200 frames at 1 ms intervals against 20 ms inference
+        int acquired = 0;
+        for (int i = 0; i < 200; i++) {
+            final Frame frame = pipeline.acquireFrame();
+            if (frame != null) {
+                acquired++;
+                frame.timestampNanos = i;
+                frame.data[0] = (byte) (i % 7);
+                pipeline.submitFrame(frame);
+            }
+            Thread.sleep(1);
+        }
+        Thread.sleep(100);
+        pipeline.stop();
+
+        assertEquals(RING_SIZE, pipeline.getFreeFrames());
+        assertTrue(pipeline.getDroppedFrames() > 0);
+        assertEquals(200, pipeline.getCompletedFrames() + pipeline.getDroppedFrames());
+        assertEquals(acquired, pipeline.getSubmittedFrames());
+        assertEquals(timestamps.size(), pipeline.getCompletedFrames());
+        assertTrue(timestamps.size() < 200);
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertTrue(timestamps.get(i) > timestamps.get(i - 1));
+        }
+        // at most one frame waits in front of inference, so latency stays near two inferences
+        for (long latency : latencies) {
+            assertTrue("latency " + latency, latency < 500000000L);
+        }
+        assertEquals(0, pipeline.getErrors());
+    }
+
+    @Test
+    public void slot_neverReplacesDetectionFrameWithPredictedOne() throws Exception {
+        final LatestFrameSlot slot = new LatestFrameSlot();
+        final Frame detect = new Frame(1);
+        final Frame predicted = new Frame(1);
+        final Frame newer = new Frame(1);
+        predicted.predicted = true;
+        newer.predicted = true;
+
+        assertNull(slot.offer(detect));
+        assertSame(predicted, slot.offer(predicted));
+        assertSame(detect, slot.take());
+
+        assertNull(slot.offer(predicted));
+        assertSame(predicted, slot.offer(newer));
+        assertSame(newer, slot.offer(detect));
+        assertSame(detect, slot.take());
+    }
+
+    @Test
+    public void pipeline_recyclesFramesWhenStageFails() throws Exception {
+        final DetectionPipeline pipeline = new DetectionPipeline(new SlowProcessor(0) {
+            @Override
+            public void infer(Frame frame) {
+                throw new IllegalStateException("boom");
+            }
+        }, new DetectionPipeline.Listener() {
+            @Override
+            public void onResult(Frame frame) {
+                fail("no frame should complete");
+            }
+        }, RING_SIZE, 16);
+        pipeline.start();
+        for (int i = 0; i < 10; i++) {
+            final Frame frame = pipeline.acquireFrame();
+            if (frame != null) {
+                pipeline.submitFrame(frame);
+            }
+            Thread.sleep(2);
+        }
+        Thread.sleep(50);
+        pipeline.stop();
+
+        assertEquals(RING_SIZE, pipeline.getFreeFrames());
+        assertTrue(pipeline.getErrors() > 0);
+        assertEquals("boom", pipeline.getLastError().getMessage());
+    }
+}
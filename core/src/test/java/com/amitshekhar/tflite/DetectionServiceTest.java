@@ -0,0 +1,198 @@
+package com.amitshekhar.tflite;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the service with a detector that blocks until released, so which requests are queued
+ * and which are running is known exactly.
+ */
+public class DetectionServiceTest {
+
+    /** Upper-cases its input once released; records every input it ran on. */
+    private static class GatedDetector implements DetectionService.Detector<String, String> {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> inputs = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public String detect(String input) throws Exception {
+            inputs.add(input);
+            started.countDown();
+            release.await();
+            if (input.startsWith("bad")) {
+                throw new IllegalArgumentException(input);
+            }
+            return input.toUpperCase();
+        }
+    }
+
+    /**
+     * Collects what the service reports, in order. Callbacks run right after the future
+     * completes, so a test that has its result waits for them with {@link #await}.
+     */
+    private static class Recorder implements DetectionService.Callback<String, String> {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        List<String> await(int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 1000;
+            while (events.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            return events;
+        }
+
+        @Override
+        public void onResult(String input, String result) {
+            events.add(input + "=" + result);
+        }
+
+        @Override
+        public void onFailure(String input, Exception error) {
+            events.add(input + "!" + error.getClass().getSimpleName());
+        }
+    }
+
+    private final GatedDetector mDetector = new GatedDetector();
+    private final Recorder mRecorder = new Recorder();
+    private final DetectionService<String, String> mService = new DetectionService<>(1, 2, mDetector, null);
+
+    @After
+    public void tearDown() {
+        mDetector.release.countDown();
+        mService.shutdown();
+    }
+
+    @Test
+    public void submit_deliversResultToFutureAndCallback() throws Exception {
+        final DetectionService<String, String>.Request request = mService.submit(1, "a", 0, mRecorder);
+        mDetector.release.countDown();
+
+        assertEquals("A", request.get(1, TimeUnit.SECONDS));
+        assertTrue(request.isStarted());
+        assertEquals(Collections.singletonList("a=A"), mRecorder.await(1));
+        assertEquals(1, mService.getCompleted());
+    }
+
+    @Test
+    public void submit_coalescesRequestsForTheSameKey() throws Exception {
+        final Recorder other = new Recorder();
+        final DetectionService<String, String>.Request first = mService.submit(1, "a", 0, mRecorder);
+        mDetector.started.await(1, TimeUnit.SECONDS);
+        final DetectionService<String, String>.Request running = mService.submit(1, "a", 0, mRecorder);
+        final DetectionService<String, String>.Request queued = mService.submit(2, "b", 0, mRecorder);
+        assertSame(queued, mService.submit(2, "b", 0, other));
+        mDetector.release.countDown();
+
+        assertSame(first, running);
+        assertEquals("A", running.get(1, TimeUnit.SECONDS));
+        assertEquals("B", queued.get(1, TimeUnit.SECONDS));
+        assertEquals(2, mService.getCoalesced());
+        assertEquals(2, mDetector.inputs.size());
+        // a callback that joins its own request again is told once
+        assertEquals(Arrays.asList("a=A", "b=B"), mRecorder.await(2));
+        assertEquals(Collections.singletonList("b=B"), other.await(1));
+    }
+
+    @Test
+    public void submit_cancelsStaleRequestsThatHaveNotStarted() throws Exception {
+        mService.setCancelStale(true);
+        final DetectionService<String, String>.Request running = mService.submit(1, "a", 0, mRecorder);
+        mDetector.started.await(1, TimeUnit.SECONDS);
+        final DetectionService<String, String>.Request stale = mService.submit(2, "b", 0, mRecorder);
+        final DetectionService<String, String>.Request latest = mService.submit(3, "c", 0, mRecorder);
+        // the queue holds 2, so the cancelled request must have given its slot back
+        mService.submit(4, "d", 0, null);
+        mDetector.release.countDown();
+
+        assertTrue(stale.isCancelled());
+        assertFalse(running.cancel(false));
+        assertTrue(latest.isCancelled());
+        assertEquals("A", running.get(1, TimeUnit.SECONDS));
+        mRecorder.await(3);
+        assertTrue(mRecorder.events.contains("b!CancellationException"));
+        assertTrue(mRecorder.events.contains("c!CancellationException"));
+        assertEquals(2, mService.getCancelled());
+        try {
+            stale.get();
+            fail();
+        } catch (CancellationException expected) {
+        }
+    }
+
+    @Test
+    public void submit_expiresRequestsNotStartedBeforeTheirDeadline() throws Exception {
+        mService.submit(1, "a", 0, mRecorder);
+        mDetector.started.await(1, TimeUnit.SECONDS);
+        final DetectionService<String, String>.Request late = mService.submit(2, "b", 10, mRecorder);
+        Thread.sleep(50);
+        mDetector.release.countDown();
+
+        try {
+            late.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(mRecorder.await(2).contains("b!TimeoutException"));
+        assertEquals(1, mService.getExpired());
+        assertEquals(Collections.singletonList("a"), mDetector.inputs);
+    }
+
+    @Test
+    public void submit_rejectsPastTheQueueBound() throws Exception {
+        mService.submit(1, "a", 0, null);
+        mDetector.started.await(1, TimeUnit.SECONDS);
+        mService.submit(2, "b", 0, null);
+        mService.submit(3, "c", 0, null);
+        try {
+            mService.submit(4, "d", 0, null);
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+        // a rejected key is not left behind for later requests to join
+        mDetector.release.countDown();
+        assertEquals("B", mService.submit(2, "b", 0, null).get(1, TimeUnit.SECONDS));
+        assertEquals("D", mService.submit(4, "d", 0, null).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void awaitTermination_waitsForRunningRequests() throws Exception {
+        final DetectionService<String, String>.Request running = mService.submit(1, "a", 0, mRecorder);
+        mDetector.started.await(1, TimeUnit.SECONDS);
+        mService.shutdown();
+        assertFalse(mService.awaitTermination(20));
+
+        mDetector.release.countDown();
+        assertTrue(mService.awaitTermination(1000));
+        assertTrue(running.isDone());
+        assertEquals("A", running.get());
+    }
+
+    @Test
+    public void submit_reportsDetectorFailures() throws Exception {
+        mDetector.release.countDown();
+        final DetectionService<String, String>.Request request = mService.submit(1, "bad", 0, mRecorder);
+        try {
+            request.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertEquals(Collections.singletonList("bad!IllegalArgumentException"), mRecorder.await(1));
+        assertEquals(1, mService.getFailed());
+    }
+}
@@ -0,0 +1,77 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    @Test
+    public void percentiles_withinBucketError() throws Exception {
+        final Histogram histogram = new Histogram();
+        // 1..10000 microseconds in nanoseconds, uniformly
+        for (long us = 1; us <= 10000; us++) {
+            histogram.record(us * 1000);
+        }
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(10000000L, snapshot.getMax());
+        assertEquals(5000500.0, snapshot.getMean(), 1e-6);
+        assertEquals(5000000, snapshot.getP50(), 5000000 / Histogram.SUB_BUCKETS);
+        assertEquals(9500000, snapshot.getP95(), 9500000 / Histogram.SUB_BUCKETS);
+        assertEquals(9900000, snapshot.getP99(), 9900000 / Histogram.SUB_BUCKETS);
+        assertTrue(snapshot.getP99() <= snapshot.getMax());
+
+        for (long value = 0; value < 1 << 20; value += 37) {
+            final int bucket = Histogram.bucket(value);
+            assertTrue(value <= Histogram.bucketUpperBound(bucket));
+            assertTrue(bucket == 0 || value > Histogram.bucketUpperBound(bucket - 1));
+        }
+    }
+
+    @Test
+    public void record_concurrentWritersLoseNothing() throws Exception {
+        final Histogram histogram = new Histogram();
+        final int threads = 4;
+        final int perThread = 50000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(i % 1000 + offset);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(threads * perThread, snapshot.getCount());
+        assertEquals(999 + threads - 1, snapshot.getMax());
+    }
+
+    @Test
+    public void instrumentation_recordsOnlyWhileEnabled() throws Exception {
+        final Instrumentation instrumentation = new Instrumentation(false);
+        assertEquals(0, instrumentation.start());
+        instrumentation.stop(Instrumentation.Stage.INVOKE, instrumentation.start());
+        instrumentation.count(Instrumentation.Counter.CANDIDATES_AFTER_NMS, 3);
+        assertEquals(0, instrumentation.snapshot(Instrumentation.Stage.INVOKE).getCount());
+        assertEquals("", instrumentation.report());
+
+        instrumentation.setEnabled(true);
+        final long start = instrumentation.start();
+        Thread.sleep(2);
+        instrumentation.stop(Instrumentation.Stage.INVOKE, start);
+        instrumentation.count(Instrumentation.Counter.CANDIDATES_AFTER_NMS, 3);
+        assertEquals(1, instrumentation.snapshot(Instrumentation.Stage.INVOKE).getCount());
+        assertTrue(instrumentation.snapshot(Instrumentation.Stage.INVOKE).getMax() >= 2000000);
+        assertEquals(3, instrumentation.snapshot(Instrumentation.Counter.CANDIDATES_AFTER_NMS).getP50());
+        assertTrue(instrumentation.report().startsWith("INVOKE: n=1"));
+    }
+}
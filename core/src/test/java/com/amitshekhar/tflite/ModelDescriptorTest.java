@@ -0,0 +1,83 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class ModelDescriptorTest {
+
+    private static final String YOLOV3 = ""
+            + "model=yolov3_pb.tflite\n"
+            + "labels=coco.txt\n"
+            + "input.size=608\n"
+            + "anchors=10,13, 16,30, 33,23, 30,61, 62,45, 59,119, 116,90, 156,198, 373,326\n"
+            + "masks=6,7,8; 3,4,5; 0,1,2\n"
+            + "strides=32,16,8\n"
+            + "obj.thresh=0.6\n"
+            + "nms=diou\n";
+
+    @Test
+    public void load_readsLayoutAndDerivesGrids() throws Exception {
+        final ModelDescriptor descriptor = ModelDescriptor.load(new ByteArrayInputStream(YOLOV3.getBytes("UTF-8")));
+
+        assertEquals("yolov3_pb.tflite", descriptor.getModelFile());
+        assertEquals("coco.txt", descriptor.getLabelFile());
+        assertEquals(608, descriptor.getInputSize());
+        assertEquals(18, descriptor.getAnchors().length);
+        assertArrayEquals(new int[]{3, 4, 5}, descriptor.getMasks()[1]);
+        assertEquals(3, descriptor.getNumBoxesPerBlock());
+        assertArrayEquals(new int[]{19, 38, 76}, descriptor.getOutWidth());
+        assertEquals(0.6f, descriptor.getObjThresh(), 0.0f);
+        assertEquals(0.5f, descriptor.getNmsThresh(), 0.0f);
+        assertTrue(descriptor.createSuppression() instanceof DiouNms);
+
+        // a smaller export of the same network only changes the input size
+        descriptor.setInputSize(416);
+        assertArrayEquals(new int[]{13, 26, 52}, descriptor.getOutWidth());
+    }
+
+    @Test
+    public void load_leavesShapesToTheInterpreter() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("model", "custom.tflite");
+        properties.setProperty("labels", "custom.txt");
+        properties.setProperty("anchors", "10,14, 23,27, 37,58, 81,82, 135,169, 344,319");
+        properties.setProperty("masks", "3,4,5;0,1,2");
+        final ModelDescriptor descriptor = ModelDescriptor.parse(properties);
+
+        assertEquals(0, descriptor.getInputSize());
+        assertNull(descriptor.getOutWidth());
+        try {
+            descriptor.newDetector(80);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        descriptor.setInputSize(320);
+        descriptor.setOutWidth(new int[]{10, 20});
+        assertNotNull(descriptor.newDetector(80));
+    }
+
+    @Test
+    public void parse_rejectsInconsistentDescriptors() throws Exception {
+        assertRejected("masks=6,7,9; 3,4,5; 0,1,2\n");
+        assertRejected("masks=6,7,8; 3,4; 0,1,2\n");
+        assertRejected("strides=32,16\n");
+        assertRejected("nms=fastest\n");
+        assertRejected("obj.thresh=high\n");
+    }
+
+    private static void assertRejected(String override) throws Exception {
+        final Properties properties = new Properties();
+        properties.load(new ByteArrayInputStream(YOLOV3.getBytes("UTF-8")));
+        properties.load(new ByteArrayInputStream(override.getBytes("UTF-8")));
+        try {
+            ModelDescriptor.parse(properties);
+            fail("accepted " + override.trim());
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds the gate synthetic luminance planes of a static noisy scene with a moving square.
+ */
+public class MotionGateTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Test
+    public void evaluate_skipsStaticSceneDespiteNoiseAndExposure() throws Exception {
+        final MotionGate gate = new MotionGate(16, 12, 12, 0.5f);
+        final float[] region = new float[4];
+        final Random random = new Random(7);
+
+        assertEquals(MotionGate.FULL, gate.evaluate(scene(random, 0, -1, -1), WIDTH, HEIGHT, region));
+        for (int frame = 1; frame < 20; frame++) {
+            // sensor noise and a slow exposure drift of the whole frame
+            assertEquals(MotionGate.SKIP, gate.evaluate(scene(random, frame, -1, -1), WIDTH, HEIGHT, region));
+        }
+        assertEquals(20, gate.getFrames());
+        assertEquals(19, gate.getSkippedFrames());
+        assertEquals(0.95f, gate.getHitRate(), 1e-6f);
+        assertEquals(0.0f, gate.getLastScore(), 0.0f);
+    }
+
+    @Test
+    public void evaluate_cropsToChangedRegion() throws Exception {
+        final MotionGate gate = new MotionGate(16, 12, 12, 0.5f);
+        final float[] region = new float[4];
+        final Random random = new Random(11);
+
+        assertEquals(MotionGate.FULL, gate.evaluate(scene(random, 0, -1, -1), WIDTH, HEIGHT, region));
+        // an 80 px square appears at (300, 200)
+        assertEquals(MotionGate.REGION, gate.evaluate(scene(random, 0, 300, 200), WIDTH, HEIGHT, region));
+        assertTrue(region[0] * WIDTH <= 300 && region[2] * WIDTH >= 380);
+        assertTrue(region[1] * HEIGHT <= 200 && region[3] * HEIGHT >= 280);
+        assertTrue((region[2] - region[0]) * (region[3] - region[1]) < 0.2f);
+        assertEquals(1, gate.getRegionFrames());
+
+        // the reference of the region was updated, so the square standing still is no change
+        assertEquals(MotionGate.SKIP, gate.evaluate(scene(random, 0, 300, 200), WIDTH, HEIGHT, region));
+    }
+
+    @Test
+    public void evaluate_keepsChangeOfFramesNotAccepted() throws Exception {
+        final MotionGate gate = new MotionGate(16, 12, 12, 0.5f);
+        final int[] signature = gate.newSignature();
+        final float[] region = new float[4];
+        final Random random = new Random(17);
+
+        // the first frame is dropped before detection, so the next one still runs full
+        assertEquals(MotionGate.FULL, gate.evaluate(scene(random, 0, -1, -1), WIDTH, HEIGHT, signature, region));
+        assertEquals(MotionGate.FULL, gate.evaluate(scene(random, 0, -1, -1), WIDTH, HEIGHT, signature, region));
+        gate.accept(signature, MotionGate.FULL, region);
+
+        // as does a change whose frame is dropped
+        assertEquals(MotionGate.REGION, gate.evaluate(scene(random, 0, 300, 200), WIDTH, HEIGHT, signature, region));
+        assertEquals(MotionGate.REGION, gate.evaluate(scene(random, 0, 300, 200), WIDTH, HEIGHT, signature, region));
+        gate.accept(signature, MotionGate.REGION, region);
+        assertEquals(MotionGate.SKIP, gate.evaluate(scene(random, 0, 300, 200), WIDTH, HEIGHT, signature, region));
+    }
+
+    @Test
+    public void evaluate_largeChangeAndRefreshRunFull() throws Exception {
+        final MotionGate gate = new MotionGate(16, 12, 12, 0.5f);
+        gate.setRefreshInterval(3);
+        final float[] region = new float[4];
+        final Random random = new Random(13);
+
+        assertEquals(MotionGate.FULL, gate.evaluate(scene(random, 0, -1, -1), WIDTH, HEIGHT, region));
+        assertEquals(MotionGate.SKIP, gate.evaluate(scene(random, 0, -1, -1), WIDTH, HEIGHT, region));
+        assertEquals(MotionGate.SKIP, gate.evaluate(scene(random, 0, -1, -1), WIDTH, HEIGHT, region));
+        assertEquals(MotionGate.SKIP, gate.evaluate(scene(random, 0, -1, -1), WIDTH, HEIGHT, region));
+        assertEquals(MotionGate.FULL, gate.evaluate(scene(random, 0, -1, -1), WIDTH, HEIGHT, region));
+
+        // the scene behind half of the frame changes
+        final byte[] changed = scene(random, 0, -1, -1);
+        for (int i = 0; i < WIDTH * HEIGHT / 2; i++) {
+            changed[i] = (byte) (255 - (changed[i] & 0xff));
+        }
+        assertEquals(MotionGate.FULL, gate.evaluate(changed, WIDTH, HEIGHT, region));
+        assertTrue(gate.getLastScore() > 0.4f);
+
+        // as does a new frame size
+        assertEquals(MotionGate.FULL, gate.evaluate(new byte[320 * 240], 320, 240, region));
+    }
+
+    // a smooth gradient plus noise, brightened by `exposure` levels, with an optional bright square
+    private static byte[] scene(Random random, int exposure, int squareLeft, int squareTop) {
+        final byte[] luma = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int value = 40 + x * 120 / WIDTH + y * 40 / HEIGHT + exposure + random.nextInt(9) - 4;
+                if (x >= squareLeft && x < squareLeft + 80 && y >= squareTop && y < squareTop + 80 && squareLeft >= 0) {
+                    value = 240;
+                }
+                luma[y * WIDTH + x] = (byte) Math.max(0, Math.min(255, value));
+            }
+        }
+        return luma;
+    }
+}
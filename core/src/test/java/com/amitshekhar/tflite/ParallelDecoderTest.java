@@ -0,0 +1,116 @@
+package com.amitshekhar.tflite;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that splitting the heads over a fork-join pool finds exactly the candidates of the
+ * sequential decode, in the same order.
+ */
+public class ParallelDecoderTest {
+
+    private static final int[] ANCHORS = {
+            10,13,  16,30,  33,23,  30,61,  62,45,  59,119,  116,90,  156,198,  373,326
+    };
+    private static final int[][] MASKS = {{6,7,8},{3,4,5},{0,1,2}};
+    private static final int[] OUT_WIDTH = {19,38,76};
+    private static final int INPUT_SIZE = 608;
+    private static final int NUM_CLASSES = 80;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterClass
+    public static void tearDown() {
+        POOL.shutdown();
+    }
+
+    @Test
+    public void plan_splitsLargeHeadsIntoRowRanges() throws Exception {
+        final YoloDecoder decoder = new YoloDecoder(NUM_CLASSES, 3, INPUT_SIZE, ANCHORS, MASKS, OUT_WIDTH);
+
+        // 1083, 4332 and 17328 anchors
+        final ParallelDecoder parallel = new ParallelDecoder(decoder, POOL, 2048);
+        assertFalse(parallel.isSequential());
+        assertEquals(1 + 2 + 8, parallel.getTaskCount());
+
+        assertTrue(new ParallelDecoder(decoder, POOL, 20000).isSequential());
+    }
+
+    @Test
+    public void decode_matchesSequentialFloatDecode() throws Exception {
+        final YoloDecoder decoder = new YoloDecoder(NUM_CLASSES, 3, INPUT_SIZE, ANCHORS, MASKS, OUT_WIDTH);
+        decoder.setObjThresh(0.3f);
+        final OutputTensors outputs = new OutputTensors(OUT_WIDTH, 3, NUM_CLASSES);
+        final Random random = new Random(5);
+        for (int head = 0; head < OUT_WIDTH.length; head++) {
+            final FloatBuffer out = outputs.getOutput(head);
+            for (int i = 0; i < out.capacity(); i++) {
+                out.put(i, (float) (random.nextGaussian() * 3.0));
+            }
+        }
+        final InputTransform transform = InputTransform.letterbox(1920, 1080, INPUT_SIZE);
+
+        final CandidateBuffer expected = new CandidateBuffer();
+        for (int head = 0; head < OUT_WIDTH.length; head++) {
+            decoder.decodeHead(head, outputs.getOutput(head), transform, expected);
+        }
+        // a small minimum puts a few rows in every task, splitting every head
+        final ParallelDecoder parallel = new ParallelDecoder(decoder, POOL, 500);
+        assertTrue(parallel.getTaskCount() > OUT_WIDTH.length);
+        for (int run = 0; run < 3; run++) {
+            final CandidateBuffer actual = new CandidateBuffer();
+            parallel.decode(outputs, transform, actual);
+            assertCandidatesEqual(expected, actual);
+        }
+    }
+
+    @Test
+    public void decode_matchesSequentialQuantizedDecode() throws Exception {
+        final YoloDecoder decoder = new YoloDecoder(NUM_CLASSES, 3, INPUT_SIZE, ANCHORS, MASKS, OUT_WIDTH);
+        final Quantization quantization = new Quantization(0.1f, 10, true);
+        final OutputTensors outputs = new OutputTensors(OUT_WIDTH, 3, NUM_CLASSES, 1,
+                new Quantization[]{quantization, quantization, quantization});
+        final Random random = new Random(9);
+        for (int head = 0; head < OUT_WIDTH.length; head++) {
+            final ByteBuffer out = outputs.getQuantizedOutput(head);
+            for (int i = 0; i < out.capacity(); i++) {
+                out.put(i, (byte) quantization.quantize((float) random.nextGaussian() * 3.0f));
+            }
+        }
+        final InputTransform transform = new InputTransform().setIdentity(INPUT_SIZE, INPUT_SIZE);
+        final ParallelDecoder parallel = new ParallelDecoder(decoder, POOL, 500);
+
+        // a new threshold changes the raw cutoffs the tasks share
+        for (float thresh : new float[]{0.3f, 0.6f}) {
+            decoder.setObjThresh(thresh);
+            final CandidateBuffer expected = new CandidateBuffer();
+            for (int head = 0; head < OUT_WIDTH.length; head++) {
+                decoder.decodeHead(head, outputs.getQuantizedOutput(head), quantization, transform, expected);
+            }
+            final CandidateBuffer actual = new CandidateBuffer();
+            parallel.decode(outputs, transform, actual);
+            assertCandidatesEqual(expected, actual);
+        }
+    }
+
+    private static void assertCandidatesEqual(CandidateBuffer expected, CandidateBuffer actual) {
+        assertTrue(expected.size() > 0);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.offsets[i], actual.offsets[i]);
+            assertEquals(expected.classes[i], actual.classes[i]);
+            assertEquals(Float.floatToIntBits(expected.scores[i]), Float.floatToIntBits(actual.scores[i]));
+            for (int k = 0; k < 4; k++) {
+                assertEquals(Float.floatToIntBits(expected.boxes[4 * i + k]),
+                        Float.floatToIntBits(actual.boxes[4 * i + k]));
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the quantized input packing and decode against the float path on the same values.
+ */
+public class QuantizationTest {
+
+    private static final int[] ANCHORS = {10,14,  23,27,  37,58, 81,82,  135,169,  344,319};
+    private static final int[][] MASKS = {{3,4,5},{0,1,2}};
+    private static final int[] OUT_WIDTH = {13,26};
+    private static final int NUM_CLASSES = 7;
+
+    @Test
+    public void floorRaw_splitsRawValuesAtThreshold() throws Exception {
+        final Quantization[] quantizations = {
+                new Quantization(0.1f, 128, false), new Quantization(0.07f, -3, true)};
+        for (Quantization quantization : quantizations) {
+            for (float real = -20.0f; real < 20.0f; real += 0.37f) {
+                final int floor = quantization.floorRaw(real);
+                for (int raw = quantization.getMinRaw(); raw <= quantization.getMaxRaw(); raw++) {
+                    assertEquals(quantization.dequantize(raw) > real, raw > floor);
+                    assertEquals(raw, quantization.raw((byte) raw));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pack_writesChannelBytesForUint8Input() throws Exception {
+        final InputPreprocessor preprocessor = new InputPreprocessor(2, 3, 1, new Quantization(1 / 255.0f, 0, false));
+        assertTrue(preprocessor.isQuantized());
+        final int[] pixels = preprocessor.getPixels();
+        pixels[0] = 0xff102030;
+        pixels[1] = 0xffffffff;
+        pixels[2] = 0xff000000;
+        pixels[3] = 0xff80ff01;
+
+        final ByteBuffer input = preprocessor.pack();
+        assertEquals(12, input.capacity());
+        final int[] expected = {0x10, 0x20, 0x30, 0xff, 0xff, 0xff, 0, 0, 0, 0x80, 0xff, 0x01};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], input.get(i) & 0xff);
+        }
+    }
+
+    @Test
+    public void detect_quantizedHeadsMatchFloatHeads() throws Exception {
+        final Quantization[] quantizations = {
+                new Quantization(0.125f, 128, false), new Quantization(0.1f, 10, true)};
+        final Random random = new Random(17);
+        for (Quantization quantization : quantizations) {
+            final Quantization[] heads = {quantization, quantization};
+            final OutputTensors floats = new OutputTensors(OUT_WIDTH, 3, NUM_CLASSES);
+            final OutputTensors quantized = new OutputTensors(OUT_WIDTH, 3, NUM_CLASSES, 1, heads);
+            assertEquals(floats.getBuffer(1).capacity(), 4 * quantized.getBuffer(1).capacity());
+
+            for (int head = 0; head < OUT_WIDTH.length; head++) {
+                final FloatBuffer src = floats.getOutput(head);
+                final ByteBuffer dst = quantized.getQuantizedOutput(head);
+                for (int i = 0; i < src.capacity(); i++) {
+                    // mostly background, some anchors with high objectness and one strong class
+                    final boolean object = i % (5 + NUM_CLASSES) == 4 && random.nextInt(50) == 0;
+                    final float real = object ? 2.0f + 3.0f * random.nextFloat() : (float) random.nextGaussian() * 3.0f;
+                    final int raw = quantization.quantize(real);
+                    dst.put(i, (byte) raw);
+                    src.put(i, quantization.dequantize(raw));
+                }
+            }
+
+            final YoloDetector detector = new YoloDetector(NUM_CLASSES, 3, 416, ANCHORS, MASKS, OUT_WIDTH,
+                    new HardNms(0.5f, 100));
+            detector.setObjThresh(0.3f);
+            final CandidateBuffer expected = copy(detector.detect(floats, 416, 416));
+            final int expectedCandidates = detector.getCandidates().size();
+            final CandidateBuffer actual = detector.detect(quantized, 416, 416);
+
+            assertTrue(expectedCandidates > 0);
+            assertEquals(expectedCandidates, detector.getCandidates().size());
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.offsets[i], actual.offsets[i]);
+                assertEquals(expected.classes[i], actual.classes[i]);
+                assertEquals(expected.scores[i], actual.scores[i], 1e-6f);
+                for (int k = 0; k < 4; k++) {
+                    assertEquals(expected.boxes[4 * i + k], actual.boxes[4 * i + k], 1e-3f);
+                }
+            }
+        }
+    }
+
+    private static CandidateBuffer copy(CandidateBuffer src) {
+        final CandidateBuffer copy = new CandidateBuffer();
+        for (int i = 0; i < src.size(); i++) {
+            copy.add(src, i);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,183 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that recorded output tensors replay byte for byte, in order, and decode to the same
+ * detections as the tensors they were recorded from, one image or a whole batch at a time.
+ */
+public class ReplayBackendTest {
+
+    private static final int[] ANCHORS = {10,14,  23,27,  37,58, 81,82,  135,169,  344,319};
+    private static final int[][] MASKS = {{3,4,5},{0,1,2}};
+    private static final int[] OUT_WIDTH = {13,26};
+    private static final int NUM_CLASSES = 7;
+    private static final int[] INPUT_SHAPE = {1, 416, 416, 3};
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void run_replaysFramesInOrderAndStartsOver() throws Exception {
+        final File file = mFolder.newFile("frames.yrp");
+        final Quantization quantization = new Quantization(0.1f, 3, true);
+        final ReplayBackend.Writer writer = new ReplayBackend.Writer(file, INPUT_SHAPE, quantization,
+                new int[][]{{1, 2}, {2, 2}}, new Quantization[]{quantization, null});
+        for (int frame = 0; frame < 3; frame++) {
+            final ByteBuffer first = ByteBuffer.allocate(2);
+            first.put((byte) frame).put((byte) -frame);
+            final ByteBuffer second = ByteBuffer.allocate(16);
+            second.asFloatBuffer().put(new float[]{frame, 1, 2, 3});
+            writer.append(new ByteBuffer[]{first, second});
+        }
+        writer.close();
+
+        final ReplayBackend backend = new ReplayBackend(file);
+        assertEquals(3, backend.getFrameCount());
+        assertArrayEquals(INPUT_SHAPE, backend.getInputShape(0));
+        assertEquals(2, backend.getOutputCount());
+        assertArrayEquals(new int[]{2, 2}, backend.getOutputShape(1));
+        assertTrue(backend.getOutputQuantization(0).isSigned());
+        assertEquals(3, backend.getOutputQuantization(0).getZeroPoint());
+        assertNull(backend.getOutputQuantization(1));
+
+        final ByteBuffer[] outputs = {ByteBuffer.allocateDirect(2), ByteBuffer.allocateDirect(16)};
+        for (int run = 0; run < 7; run++) {
+            backend.run(null, outputs);
+            final int frame = run % 3;
+            assertEquals(0, outputs[0].position());
+            assertEquals(frame, outputs[0].get(0));
+            assertEquals(-frame, outputs[0].get(1));
+            assertEquals(frame, outputs[1].getFloat(0), 0.0f);
+            assertEquals(3.0f, outputs[1].getFloat(12), 0.0f);
+        }
+        backend.seek(2);
+        backend.run(null, outputs);
+        assertEquals(2, outputs[0].get(0));
+        backend.close();
+    }
+
+    @Test
+    public void resizeInput_acceptsOnlyRecordedShape() throws Exception {
+        final File file = mFolder.newFile("shape.yrp");
+        final ReplayBackend.Writer writer = new ReplayBackend.Writer(file, INPUT_SHAPE, null,
+                new int[][]{{1, 4}}, new Quantization[]{null});
+        writer.append(new ByteBuffer[]{ByteBuffer.allocate(16)});
+        writer.close();
+
+        final ReplayBackend backend = new ReplayBackend(file);
+        backend.resizeInput(0, new int[]{1, 416, 416, 3});
+        try {
+            backend.resizeInput(0, new int[]{2, 416, 416, 3});
+            fail("replayed a batch it never recorded");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void detect_replayedTensorsMatchRecordedTensors() throws Exception {
+        final OutputTensors recorded = new OutputTensors(OUT_WIDTH, 3, NUM_CLASSES);
+        fillRandom(recorded, new Random(5));
+        final File file = mFolder.newFile("detect.yrp");
+        final ReplayBackend.Writer writer = new ReplayBackend.Writer(file, INPUT_SHAPE, null, outputShapes(1),
+                new Quantization[OUT_WIDTH.length]);
+        writer.append(new ByteBuffer[]{recorded.getBuffer(0), recorded.getBuffer(1)});
+        writer.close();
+
+        final YoloDetector detector = newDetector();
+        final CandidateBuffer expected = new CandidateBuffer();
+        expected.addAll(detector.detect(recorded, 416, 416));
+        assertTrue(expected.size() > 0);
+
+        final ReplayBackend backend = new ReplayBackend(file);
+        final OutputTensors replayed = new OutputTensors(OUT_WIDTH, 3, NUM_CLASSES);
+        backend.run(null, new ByteBuffer[]{replayed.getBuffer(0), replayed.getBuffer(1)});
+
+        assertSameDetections(expected, detector.detect(replayed, 416, 416));
+    }
+
+    @Test
+    public void detect_batchSlotsMatchSingleImageRuns() throws Exception {
+        final int batch = 3;
+        // each image on its own, and the same images as one batch, in the layout the
+        // interpreter writes a [3, w, w, c] head in
+        final OutputTensors[] singles = new OutputTensors[batch];
+        final OutputTensors batched = new OutputTensors(OUT_WIDTH, 3, NUM_CLASSES, batch);
+        final Random random = new Random(7);
+        for (int j = 0; j < batch; j++) {
+            singles[j] = new OutputTensors(OUT_WIDTH, 3, NUM_CLASSES);
+            fillRandom(singles[j], random);
+            for (int head = 0; head < OUT_WIDTH.length; head++) {
+                batched.slot(j).getOutput(head).put(singles[j].getOutput(head));
+            }
+        }
+        final File file = mFolder.newFile("batch.yrp");
+        final ReplayBackend.Writer writer = new ReplayBackend.Writer(file, new int[]{batch, 416, 416, 3}, null,
+                outputShapes(batch), new Quantization[OUT_WIDTH.length]);
+        writer.append(new ByteBuffer[]{batched.getBuffer(0, batch), batched.getBuffer(1, batch)});
+        writer.close();
+
+        final ReplayBackend backend = new ReplayBackend(file);
+        backend.resizeInput(0, new int[]{batch, 416, 416, 3});
+        final OutputTensors replayed = new OutputTensors(OUT_WIDTH, 3, NUM_CLASSES, batch);
+        backend.run(null, new ByteBuffer[]{replayed.getBuffer(0, batch), replayed.getBuffer(1, batch)});
+
+        // every image of the batch came from a photo of its own size
+        final InputTransform[] transforms = {
+                InputTransform.letterbox(4000, 3000, 416),
+                InputTransform.letterbox(1080, 1920, 416),
+                InputTransform.identity(416, 416)};
+        final YoloDetector detector = newDetector();
+        for (int j = 0; j < batch; j++) {
+            final CandidateBuffer expected = new CandidateBuffer();
+            expected.addAll(detector.detect(singles[j], transforms[j]));
+            assertTrue(expected.size() > 0);
+            assertSameDetections(expected, detector.detect(replayed.slot(j), transforms[j]));
+        }
+    }
+
+    private static YoloDetector newDetector() {
+        final YoloDetector detector = new YoloDetector(NUM_CLASSES, 3, 416, ANCHORS, MASKS, OUT_WIDTH,
+                new HardNms(0.5f, 100));
+        detector.setObjThresh(0.3f);
+        return detector;
+    }
+
+    private static void fillRandom(TensorSource outputs, Random random) {
+        for (int head = 0; head < OUT_WIDTH.length; head++) {
+            final FloatBuffer output = outputs.getOutput(head);
+            for (int i = 0; i < output.capacity(); i++) {
+                final boolean object = i % (5 + NUM_CLASSES) == 4 && random.nextInt(40) == 0;
+                output.put(i, object ? 3.0f : (float) random.nextGaussian() * 3.0f);
+            }
+        }
+    }
+
+    private static int[][] outputShapes(int batch) {
+        final int[][] shapes = new int[OUT_WIDTH.length][];
+        for (int head = 0; head < OUT_WIDTH.length; head++) {
+            shapes[head] = new int[]{batch, OUT_WIDTH[head], OUT_WIDTH[head], 3 * (5 + NUM_CLASSES)};
+        }
+        return shapes;
+    }
+
+    private static void assertSameDetections(CandidateBuffer expected, CandidateBuffer actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.classes[i], actual.classes[i]);
+            assertEquals(expected.scores[i], actual.scores[i], 0.0f);
+            for (int k = 0; k < 4; k++) {
+                assertEquals(expected.boxes[4 * i + k], actual.boxes[4 * i + k], 0.0f);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ResolutionControllerTest {
+
+    private static final int[] SIZES = {320, 416, 512, 608};
+    private static final long MS = 1000000L;
+
+    @Test
+    public void record_stepsDownUntilBudgetIsMet() throws Exception {
+        final ResolutionController controller = new ResolutionController(SIZES, 608, 100 * MS, 20);
+        final Random random = new Random(1);
+        // a throttled device: 608 takes ~180 ms, latency grows with the input area
+        for (int i = 0; i < 200; i++) {
+            final int size = controller.getInputSize();
+            controller.record(size, latency(size, 180, random));
+        }
+        assertEquals(416, controller.getInputSize());
+        assertTrue(controller.getLastP95Nanos() <= 100 * MS);
+    }
+
+    @Test
+    public void record_stepsBackUpWhenThereIsHeadroom() throws Exception {
+        final ResolutionController controller = new ResolutionController(SIZES, 320, 100 * MS, 20);
+        final Random random = new Random(2);
+        for (int i = 0; i < 200; i++) {
+            final int size = controller.getInputSize();
+            controller.record(size, latency(size, 60, random));
+        }
+        assertEquals(608, controller.getInputSize());
+        assertEquals(3, controller.getSwitches());
+    }
+
+    @Test
+    public void record_ignoresSamplesOfAnotherSize() throws Exception {
+        final ResolutionController controller = new ResolutionController(SIZES, 608, 100 * MS, 4);
+        for (int i = 0; i < 10; i++) {
+            assertFalse(controller.record(416, 500 * MS));
+        }
+        assertEquals(608, controller.getInputSize());
+        for (int i = 0; i < 3; i++) {
+            assertFalse(controller.record(608, 500 * MS));
+        }
+        assertTrue(controller.record(608, 500 * MS));
+        assertEquals(512, controller.getInputSize());
+    }
+
+    // latency at size, given the mean latency at 608, with +-10% jitter
+    private static long latency(int size, long millisAt608, Random random) {
+        final double area = (size / 608.0) * (size / 608.0);
+        return (long) (millisAt608 * MS * area * (0.9 + 0.2 * random.nextDouble()));
+    }
+}
@@ -0,0 +1,169 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the suppression strategies against a straightforward greedy per-class NMS.
+ */
+public class SuppressionStrategyTest {
+
+    @Test
+    public void hardNms_matchesGreedyPerClassNms() throws Exception {
+        final Random random = new Random(7);
+        final HardNms nms = new HardNms(0.5f, Integer.MAX_VALUE);
+        final CandidateBuffer out = new CandidateBuffer();
+
+        for (int round = 0; round < 20; round++) {
+            final CandidateBuffer in = randomCandidates(random, 2000, 6);
+            nms.suppress(in, out);
+
+            final List<Integer> expected = greedyNms(in, 6, 0.5f);
+            assertEquals(expected.size(), out.size());
+            for (int i = 0; i < out.size(); i++) {
+                assertEquals((int) expected.get(i), out.offsets[i]);
+            }
+        }
+    }
+
+    @Test
+    public void hardNms_keepsDisjointBoxesAndDropsDuplicates() throws Exception {
+        final CandidateBuffer out = new CandidateBuffer();
+
+        new HardNms(0.5f, Integer.MAX_VALUE).suppress(overlapping(), out);
+
+        assertEquals(3, out.size());
+        assertEquals(0, out.offsets[0]);
+        assertEquals(2, out.offsets[1]);
+        assertEquals(3, out.offsets[2]);
+    }
+
+    @Test
+    public void classAgnosticNms_suppressesAcrossClasses() throws Exception {
+        final CandidateBuffer out = new CandidateBuffer();
+
+        new ClassAgnosticNms(0.5f, Integer.MAX_VALUE).suppress(overlapping(), out);
+
+        assertEquals(2, out.size());
+        assertEquals(0, out.offsets[0]);
+        assertEquals(3, out.offsets[1]);
+    }
+
+    @Test
+    public void maxDetections_keepsHighestScoresFirst() throws Exception {
+        final Random random = new Random(11);
+        final CandidateBuffer in = randomCandidates(random, 2000, 6);
+        final CandidateBuffer all = new CandidateBuffer();
+        final CandidateBuffer capped = new CandidateBuffer();
+
+        new HardNms(0.5f, Integer.MAX_VALUE).suppress(in, all);
+        new HardNms(0.5f, 10).suppress(in, capped);
+
+        assertEquals(10, capped.size());
+        for (int i = 0; i < capped.size(); i++) {
+            assertEquals(all.offsets[i], capped.offsets[i]);
+        }
+    }
+
+    @Test
+    public void diouNms_keepsOverlappingBoxesWithDistantCenters() throws Exception {
+        final CandidateBuffer in = new CandidateBuffer();
+        in.add(0, 0, 100, 10, 0.9f, 0, 0);
+        in.add(40, 0, 140, 10, 0.8f, 0, 1);
+        final CandidateBuffer out = new CandidateBuffer();
+
+        new HardNms(0.4f, Integer.MAX_VALUE).suppress(in, out);
+        assertEquals(1, out.size());
+
+        new DiouNms(0.4f, Integer.MAX_VALUE).suppress(in, out);
+        assertEquals(2, out.size());
+    }
+
+    @Test
+    public void softNms_decaysInsteadOfDropping() throws Exception {
+        final CandidateBuffer out = new CandidateBuffer();
+
+        new SoftNms(SoftNms.Method.GAUSSIAN, 0.5f, 0.5f, 0.001f, Integer.MAX_VALUE).suppress(overlapping(), out);
+
+        assertEquals(4, out.size());
+        assertEquals(0, out.offsets[0]);
+        assertEquals(0.9f, out.scores[0], 0.0f);
+        for (int i = 1; i < out.size(); i++) {
+            assertTrue(out.scores[i] <= out.scores[i - 1]);
+        }
+        final int decayed = out.offsets[3] == 1 ? 3 : 2;
+        assertEquals(1, out.offsets[decayed]);
+        assertTrue(out.scores[decayed] < 0.8f);
+
+        new SoftNms(SoftNms.Method.LINEAR, 0.5f, 0.5f, 0.5f, Integer.MAX_VALUE).suppress(overlapping(), out);
+        assertEquals(3, out.size());
+    }
+
+    private static CandidateBuffer overlapping() {
+        final CandidateBuffer in = new CandidateBuffer();
+        in.add(0, 0, 10, 10, 0.9f, 0, 0);
+        in.add(1, 1, 10, 10, 0.8f, 0, 1);
+        in.add(1, 1, 10, 10, 0.7f, 1, 2);
+        in.add(20, 20, 30, 30, 0.6f, 0, 3);
+        return in;
+    }
+
+    private static CandidateBuffer randomCandidates(Random random, int n, int numClasses) {
+        final CandidateBuffer candidates = new CandidateBuffer();
+        for (int i = 0; i < n; i++) {
+            final float x = random.nextFloat() * 400;
+            final float y = random.nextFloat() * 400;
+            final float w = 10 + random.nextFloat() * 60;
+            final float h = 10 + random.nextFloat() * 60;
+            candidates.add(x, y, x + w, y + h, random.nextFloat(), random.nextInt(numClasses), i);
+        }
+        return candidates;
+    }
+
+    // offsets kept by a greedy per-class NMS, highest score first
+    private static List<Integer> greedyNms(final CandidateBuffer in, int numClasses, float thresh) {
+        final List<Integer> kept = new ArrayList<>();
+        for (int k = 0; k < numClasses; k++) {
+            final List<Integer> remaining = new ArrayList<>();
+            for (int i = 0; i < in.size(); i++) {
+                if (in.classes[i] == k) {
+                    remaining.add(i);
+                }
+            }
+            while (!remaining.isEmpty()) {
+                int best = 0;
+                for (int i = 1; i < remaining.size(); i++) {
+                    if (in.scores[remaining.get(i)] > in.scores[remaining.get(best)]) {
+                        best = i;
+                    }
+                }
+                final int max = remaining.remove(best);
+                kept.add(max);
+                for (int i = remaining.size() - 1; i >= 0; i--) {
+                    if (!(BoxMath.iou(in.boxes, max, remaining.get(i)) < thresh)) {
+                        remaining.remove(i);
+                    }
+                }
+            }
+        }
+        Collections.sort(kept, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                final int byScore = Float.compare(in.scores[rhs], in.scores[lhs]);
+                return byScore != 0 ? byScore : lhs.compareTo(rhs);
+            }
+        });
+        final List<Integer> offsets = new ArrayList<>();
+        for (int i : kept) {
+            offsets.add(in.offsets[i]);
+        }
+        return offsets;
+    }
+}
@@ -0,0 +1,86 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TilePlanTest {
+
+    @Test
+    public void plan_coversImageWithOverlap() throws Exception {
+        final TilePlan plan = new TilePlan(4000, 3000, 608, 64);
+        // ceil((4000 - 64) / 544) = 8 columns, ceil((3000 - 64) / 544) = 6 rows
+        assertEquals(48, plan.size());
+
+        for (int tile = 0; tile < plan.size(); tile++) {
+            assertEquals(608, plan.getRight(tile) - plan.getLeft(tile));
+            assertEquals(608, plan.getBottom(tile) - plan.getTop(tile));
+        }
+        assertEquals(0, plan.getLeft(0));
+        assertEquals(4000, plan.getRight(7));
+        assertEquals(3000, plan.getBottom(47));
+        for (int column = 1; column < 8; column++) {
+            assertTrue(plan.getRight(column - 1) - plan.getLeft(column) >= 64);
+        }
+    }
+
+    @Test
+    public void plan_smallImageIsOnePaddedTile() throws Exception {
+        final TilePlan plan = new TilePlan(500, 300, 608, 64);
+        assertEquals(1, plan.size());
+        assertEquals(500, plan.getRight(0));
+        assertEquals(300, plan.getBottom(0));
+        assertTrue(plan.inCore(0, 499, 299));
+    }
+
+    @Test
+    public void inCore_everyPointInExactlyOneTile() throws Exception {
+        final TilePlan plan = new TilePlan(1500, 1000, 416, 48);
+        for (float y = 0.5f; y < 1000; y += 7.3f) {
+            for (float x = 0.5f; x < 1500; x += 7.3f) {
+                int owners = 0;
+                for (int tile = 0; tile < plan.size(); tile++) {
+                    if (plan.inCore(tile, x, y)) {
+                        owners++;
+                        assertTrue(x >= plan.getLeft(tile) && x < plan.getRight(tile));
+                        assertTrue(y >= plan.getTop(tile) && y < plan.getBottom(tile));
+                    }
+                }
+                assertEquals(1, owners);
+            }
+        }
+    }
+
+    @Test
+    public void merge_removesSeamDuplicates() throws Exception {
+        final TilePlan plan = new TilePlan(1000, 416, 416, 64);
+        final TileMerger merger = new TileMerger(plan);
+        final InputTransform transform = new InputTransform();
+
+        // one 30 px object on the seam between the first two tiles, seen whole by both
+        final float left = plan.getLeft(1) + 10;
+        for (int tile = 0; tile < 2; tile++) {
+            plan.transform(tile, transform);
+            final float inputLeft = transform.toInputX(left);
+            final CandidateBuffer detections = new CandidateBuffer();
+            detections.add(transform.toSourceX(inputLeft), 100, transform.toSourceX(inputLeft + 30), 130,
+                    0.8f + 0.1f * tile, 0, tile);
+            merger.add(tile, detections);
+        }
+        // and one that the edge of the first tile cut in half
+        final CandidateBuffer cut = new CandidateBuffer();
+        cut.add(plan.getRight(0) - 15, 200, plan.getRight(0) - 1, 230, 0.9f, 0, 2);
+        merger.add(0, cut);
+        final CandidateBuffer whole = new CandidateBuffer();
+        whole.add(plan.getRight(0) - 15, 200, plan.getRight(0) + 15, 230, 0.7f, 0, 3);
+        merger.add(1, whole);
+
+        final CandidateBuffer merged = merger.merge(new HardNms(0.5f, 100));
+        assertEquals(2, merged.size());
+        // the first object is centered in the core of tile 0, the cut one is dropped
+        assertEquals(2, merger.getCandidateCount());
+        for (int i = 0; i < merged.size(); i++) {
+            assertTrue(merged.offsets[i] == 0 || merged.offsets[i] == 3);
+        }
+    }
+}
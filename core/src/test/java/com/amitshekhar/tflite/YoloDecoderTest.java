@@ -0,0 +1,180 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the threshold-aware decode against the expit + softmax decode it replaced.
+ */
+public class YoloDecoderTest {
+
+    private static final int[] ANCHORS = {
+            10,13,  16,30,  33,23,  30,61,  62,45,  59,119,  116,90,  156,198,  373,326
+    };
+    private static final int[][] MASKS = {{6,7,8},{3,4,5},{0,1,2}};
+    private static final int[] OUT_WIDTH = {19,38,76};
+    private static final int INPUT_SIZE = 608;
+    private static final int NUM_CLASSES = 80;
+
+    @Test
+    public void decode_matchesSoftmaxDecode() throws Exception {
+        final float[] thresholds = {0.0f, 0.1f, 0.5f, 0.6f, 0.95f};
+        final YoloDecoder decoder = new YoloDecoder(NUM_CLASSES, 3, INPUT_SIZE, ANCHORS, MASKS, OUT_WIDTH);
+        final Random random = new Random(42);
+
+        for (float thresh : thresholds) {
+            decoder.setObjThresh(thresh);
+            for (int head = 0; head < OUT_WIDTH.length; head++) {
+                final FloatBuffer out = randomHead(random, OUT_WIDTH[head]);
+                final CandidateBuffer expected = new CandidateBuffer();
+                final CandidateBuffer actual = new CandidateBuffer();
+
+                softmaxDecode(head, out, thresh, expected);
+                decoder.decodeHead(head, out, INPUT_SIZE, INPUT_SIZE, actual);
+
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.offsets[i], actual.offsets[i]);
+                    assertEquals(expected.classes[i], actual.classes[i]);
+                    assertEquals(Float.floatToIntBits(expected.scores[i]), Float.floatToIntBits(actual.scores[i]));
+                    for (int k = 0; k < 4; k++) {
+                        assertEquals(Float.floatToIntBits(expected.boxes[4 * i + k]),
+                                Float.floatToIntBits(actual.boxes[4 * i + k]));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void objectnessCutoff_neverRejectsPassingAnchor() throws Exception {
+        final float[] thresholds = {0.001f, 0.1f, 0.25f, 0.5f, 0.6f, 0.999f};
+        for (float thresh : thresholds) {
+            final float cutoff = YoloDecoder.objectnessCutoff(thresh);
+            assertTrue(YoloDecoder.expit(cutoff) <= thresh);
+        }
+        assertEquals(Float.NEGATIVE_INFINITY, YoloDecoder.objectnessCutoff(0.0f), 0.0f);
+        assertEquals(Float.POSITIVE_INFINITY, YoloDecoder.objectnessCutoff(1.0f), 0.0f);
+    }
+
+    @Test
+    public void decode_mapsLetterboxedBoxesToSource() throws Exception {
+        final YoloDecoder decoder = new YoloDecoder(NUM_CLASSES, 3, INPUT_SIZE, ANCHORS, MASKS, OUT_WIDTH);
+        decoder.setObjThresh(0.3f);
+        final InputTransform letterbox = InputTransform.letterbox(1920, 1080, INPUT_SIZE);
+        final FloatBuffer out = randomHead(new Random(7), OUT_WIDTH[1]);
+
+        final CandidateBuffer inInput = new CandidateBuffer();
+        final CandidateBuffer inSource = new CandidateBuffer();
+        decoder.decodeHead(1, out, Integer.MAX_VALUE, Integer.MAX_VALUE, inInput);
+        decoder.decodeHead(1, out, letterbox, inSource);
+
+        assertTrue(inInput.size() > 0);
+        assertEquals(inInput.size(), inSource.size());
+        for (int i = 0; i < inInput.size(); i++) {
+            final float[] box = inInput.boxes;
+            assertEquals(inInput.offsets[i], inSource.offsets[i]);
+            assertEquals(Math.max(0, letterbox.toSourceX(box[4 * i])), inSource.boxes[4 * i], 0.0f);
+            assertEquals(Math.max(0, letterbox.toSourceY(box[4 * i + 1])), inSource.boxes[4 * i + 1], 0.0f);
+            assertEquals(Math.min(1919, letterbox.toSourceX(box[4 * i + 2])), inSource.boxes[4 * i + 2], 0.0f);
+            assertEquals(Math.min(1079, letterbox.toSourceY(box[4 * i + 3])), inSource.boxes[4 * i + 3], 0.0f);
+        }
+    }
+
+    @Test
+    public void letterbox_centersContentAndRoundTrips() throws Exception {
+        final InputTransform t = InputTransform.letterbox(1920, 1080, 416);
+        assertEquals(0.0f, t.getOffsetX(), 0.0f);
+        assertEquals((416 - 234) / 2, t.getOffsetY(), 0.0f);
+        assertEquals(416.0f, t.getContentRight(), 1e-3f);
+        assertEquals(t.getOffsetY() + 234, t.getContentBottom(), 1e-3f);
+        assertEquals(960.0f, t.toSourceX(t.toInputX(960.0f)), 1e-3f);
+        assertEquals(540.0f, t.toSourceY(t.toInputY(540.0f)), 1e-3f);
+
+        final InputTransform tall = InputTransform.letterbox(300, 600, 608);
+        assertEquals(152.0f, tall.getOffsetX(), 0.0f);
+        assertEquals(0.0f, tall.getOffsetY(), 0.0f);
+    }
+
+    private static FloatBuffer randomHead(Random random, int gridWidth) {
+        final int floats = gridWidth * gridWidth * 3 * (5 + NUM_CLASSES);
+        final FloatBuffer out = ByteBuffer.allocateDirect(4 * floats).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (int i = 0; i < floats; i++) {
+            out.put(i, (float) (random.nextGaussian() * 3.0));
+        }
+        return out;
+    }
+
+    // the decode loop as it was in Classifier.RecognizeImage before the early exit
+    private static void softmaxDecode(int head, FloatBuffer out, float thresh, CandidateBuffer dst) {
+        final int gridWidth = OUT_WIDTH[head];
+        for (int y = 0; y < gridWidth; ++y) {
+            for (int x = 0; x < gridWidth; ++x) {
+                for (int b = 0; b < 3; ++b) {
+                    final int offset =
+                            (gridWidth * (3 * (NUM_CLASSES + 5))) * y
+                                    + (3 * (NUM_CLASSES + 5)) * x
+                                    + (NUM_CLASSES + 5) * b;
+
+                    final float confidence = expit(out.get(offset + 4));
+                    int detectedClass = -1;
+                    float maxClass = 0;
+
+                    final float[] classes = new float[NUM_CLASSES];
+                    for (int c = 0; c < NUM_CLASSES; ++c) {
+                        classes[c] = out.get(offset + 5 + c);
+                    }
+                    softmax(classes);
+
+                    for (int c = 0; c < NUM_CLASSES; ++c) {
+                        if (classes[c] > maxClass) {
+                            detectedClass = c;
+                            maxClass = classes[c];
+                        }
+                    }
+
+                    final float confidenceInClass = maxClass * confidence;
+
+                    if (confidenceInClass > thresh) {
+                        final float xPos = (x + expit(out.get(offset + 0))) * (INPUT_SIZE / gridWidth);
+                        final float yPos = (y + expit(out.get(offset + 1))) * (INPUT_SIZE / gridWidth);
+
+                        final float w = (float) (Math.exp(out.get(offset + 2)) * ANCHORS[2 * MASKS[head][b] + 0]);
+                        final float h = (float) (Math.exp(out.get(offset + 3)) * ANCHORS[2 * MASKS[head][b] + 1]);
+
+                        dst.add(Math.max(0, xPos - w / 2),
+                                Math.max(0, yPos - h / 2),
+                                Math.min(INPUT_SIZE - 1, xPos + w / 2),
+                                Math.min(INPUT_SIZE - 1, yPos + h / 2),
+                                confidenceInClass, detectedClass, offset);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void softmax(final float[] vals) {
+        float max = Float.NEGATIVE_INFINITY;
+        for (final float val : vals) {
+            max = Math.max(max, val);
+        }
+        float sum = 0.0f;
+        for (int i = 0; i < vals.length; ++i) {
+            vals[i] = (float) Math.exp(vals[i] - max);
+            sum += vals[i];
+        }
+        for (int i = 0; i < vals.length; ++i) {
+            vals[i] = vals[i] / sum;
+        }
+    }
+
+    private static float expit(final float x) {
+        return (float) (1. / (1. + Math.exp(-x)));
+    }
+}
@@ -0,0 +1,81 @@
+package com.amitshekhar.tflite;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the decode and suppression end to end on synthetic Tiny-layout output heads.
+ */
+public class YoloDetectorTest {
+
+    private static final int[] ANCHORS = {10,14,  23,27,  37,58, 81,82,  135,169,  344,319};
+    private static final int[][] MASKS = {{3,4,5},{0,1,2}};
+    private static final int[] OUT_WIDTH = {13,26};
+    private static final int NUM_CLASSES = 7;
+
+    @Test
+    public void detect_findsPlantedObjectOnce() throws Exception {
+        final OutputTensors outputs = new OutputTensors(OUT_WIDTH, 3, NUM_CLASSES);
+        fill(outputs, -10.0f);
+        // the same object seen by two neighbouring anchors of the 26x26 head
+        plant(outputs.getOutput(1), 26, 10, 12, 0, 3, 4.0f, 0.0f, 0.0f);
+        // scale the 23x27 anchor down to the same 10x14 box
+        plant(outputs.getOutput(1), 26, 10, 12, 1, 3, 3.0f,
+                (float) Math.log(10 / 23.0), (float) Math.log(14 / 27.0));
+
+        final YoloDetector detector = new YoloDetector(NUM_CLASSES, 3, 416, ANCHORS, MASKS, OUT_WIDTH,
+                new HardNms(0.5f, 100));
+        detector.setObjThresh(0.1f);
+        final CandidateBuffer detections = detector.detect(outputs, 416, 416);
+
+        assertEquals(2, detector.getCandidates().size());
+        assertEquals(1, detections.size());
+        assertEquals(3, detections.classes[0]);
+        // cell (12, 10) of a 16px grid with zero offsets is centred at (200, 168)
+        assertEquals(200.0f, (detections.boxes[0] + detections.boxes[2]) / 2, 1e-3f);
+        assertEquals(168.0f, (detections.boxes[1] + detections.boxes[3]) / 2, 1e-3f);
+    }
+
+    @Test
+    public void detect_decodesEachBatchSlotOnItsOwn() throws Exception {
+        final OutputTensors outputs = new OutputTensors(OUT_WIDTH, 3, NUM_CLASSES, 3);
+        assertEquals(3 * outputs.getBuffer(1, 1).capacity(), outputs.getBuffer(1, 3).capacity());
+        assertEquals(2 * outputs.getBuffer(0, 1).capacity(), outputs.getBuffer(0, 2).capacity());
+        for (int slot = 0; slot < 3; slot++) {
+            fill(outputs.slot(slot), -10.0f);
+            plant(outputs.slot(slot).getOutput(0), 13, slot, slot, 0, slot, 4.0f, 0.0f, 0.0f);
+        }
+
+        final YoloDetector detector = new YoloDetector(NUM_CLASSES, 3, 416, ANCHORS, MASKS, OUT_WIDTH,
+                new HardNms(0.5f, 100));
+        detector.setObjThresh(0.1f);
+        for (int slot = 0; slot < 3; slot++) {
+            final CandidateBuffer detections = detector.detect(outputs.slot(slot), 416, 416);
+            assertEquals(1, detections.size());
+            assertEquals(slot, detections.classes[0]);
+        }
+    }
+
+    private static void fill(TensorSource outputs, float value) {
+        for (int i = 0; i < OUT_WIDTH.length; i++) {
+            final FloatBuffer out = outputs.getOutput(i);
+            for (int k = 0; k < out.capacity(); k++) {
+                out.put(k, value);
+            }
+        }
+    }
+
+    private static void plant(FloatBuffer out, int gridWidth, int y, int x, int b, int detectedClass, float logit,
+                              float tw, float th) {
+        final int offset = ((y * gridWidth + x) * 3 + b) * (5 + NUM_CLASSES);
+        out.put(offset, 0.0f);
+        out.put(offset + 1, 0.0f);
+        out.put(offset + 2, tw);
+        out.put(offset + 3, th);
+        out.put(offset + 4, logit);
+        out.put(offset + 5 + detectedClass, logit);
+    }
+}